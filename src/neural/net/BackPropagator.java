@@ -1,6 +1,5 @@
 package neural.net;
 
-import java.io.Serializable;
 import java.util.ArrayList;
 
 /**
@@ -10,19 +9,14 @@ import java.util.ArrayList;
  * @author Jonathan Reimels
  * @version 1.0.0
  */
-public class BackPropagator implements Serializable  { //TODO: have this extend class called Trainer
-	// TODO: this probably doesn't need to be Serializable
+public class BackPropagator extends Trainer {
 	/**
 	 * generated Serial Version UID
 	 */
 	private static final long serialVersionUID = -8960781685209341841L;
 
 	// instance variables
-	private ArrayList<double[]> _inputs = new ArrayList<double[]>();
-	private ArrayList<double[]> _expectedOutputs = new ArrayList<double[]>();
-	private ArrayList<Double> _averageErrors = new ArrayList<Double>();
 	private double _learningRate;
-	private Network _network;
 
 	/**
 	 * Constructor
@@ -30,91 +24,123 @@ public class BackPropagator implements Serializable  { //TODO: have this extend
 	 * @param learningRate - The learning rate to use (should be between 0 and 1)
 	 */
 	public BackPropagator(Network network, double learningRate) {
-		_network = network;
+		super(network);
 		_learningRate = learningRate;
 	}
 
 	/**
-	 * The averages from each input within the last run
-	 * @return averages
+	 * Run the input through an iteration, and update the weights of each neuron after the run of each input
+	 * @return average error across running all inputs
+	 * @throws Exception
 	 */
-	public ArrayList<Double> getAverageErrors() {
-		return _averageErrors;
+	@Override
+	public double runAndUpdate() throws Exception {
+		// initialize the average list
+		_averageErrors = new ArrayList<Double>();
+
+		// loop through all input/output
+		for (int inputIndex = 0; inputIndex < _inputs.size(); inputIndex++) {
+			_averageErrors.add(train(_inputs.get(inputIndex), _expectedOutputs.get(inputIndex)));
+		}
+
+		// calculate the average of all the runs and return it
+		return calcListAverage(_averageErrors);
 	}
 
 	/**
-	 * Add an input and the expected output for this input
-	 * @param inputs - input to use
-	 * @param expectedOutputs - output expected from this input
-	 * @throws Exception - throws an exception if the input size doesn't match that expected by
-	 * the Network, or the output size doesn't match that returned by the Network
+	 * Run every input of a TrainingSource through an iteration, and update the weights of each
+	 * neuron after the run of each input. The inputs are read one at a time into the same arrays,
+	 * so memory use does not grow with the size of the source, and the average errors of each
+	 * input are not kept
+	 * @param source - TrainingSource to read inputs from, it is reset before the iteration
+	 * @return average error across running all inputs
+	 * @throws Exception - throws an exception if the source's input or output size doesn't match the Network
 	 */
-	public void addInputOutput(double[] inputs, double[] expectedOutputs) throws Exception {
-		if (inputs.length != _network.getInputCount()) {
+	public double runAndUpdate(TrainingSource source) throws Exception {
+		if (source.getInputCount() != _network.getInputCount() || source.getOutputCount() != _network.getOutputCount()) {
 			throw new Exception(String.format(
-					"addInputOutput called on BackPropagator with invalid inputs, expected inputs to be of size %d not size %d",
+					"runAndUpdate called on BackPropagator with invalid source, expected %d inputs and %d outputs not %d and %d",
 					_network.getInputCount(),
-					inputs.length));
+					_network.getOutputCount(),
+					source.getInputCount(),
+					source.getOutputCount()));
 		}
 
-		if (expectedOutputs.length != _network.getOutputCount()) {
-			throw new Exception(String.format(
-					"addInputOutput called on BackPropagator with invalid expectedOutputs, expected expectedOutputs to be of size %d not size %d",
-					_network.getOutputCount(),
-					expectedOutputs.length));
+		_averageErrors = new ArrayList<Double>();
+		double[] inputs = new double[source.getInputCount()];
+		double[] expectedOutputs = new double[source.getOutputCount()];
+		double sum = 0.0;
+		long count = 0;
+
+		source.reset();
+		while (source.next(inputs, expectedOutputs)) {
+			sum += train(inputs, expectedOutputs);
+			count++;
 		}
 
-		// add the input and output to their respective lists
-		_inputs.add(inputs);
-		_expectedOutputs.add(expectedOutputs);
+		return count == 0 ? 0.0 : sum / count;
 	}
 
 	/**
-	 * Run the input through an iteration, and update the weights of each neuron after the run of each input
-	 * @return average error across running all inputs
+	 * Run a single input through the Network and update the weights of each neuron
+	 * @param inputs - input to run
+	 * @param expectedOutputs - output expected from this input
+	 * @return average error of the output
 	 * @throws Exception
 	 */
-	public double runAndUpdate() throws Exception {
-		// initialize the average list
-		_averageErrors = new ArrayList<Double>();
+	private double train(double[] inputs, double[] expectedOutputs) throws Exception {
+		// get the actual output
+		double[] outputs = _network.fire(inputs);
 
-		// loop through all input/output
-		for (int inputIndex = 0; inputIndex < _inputs.size(); inputIndex++) {
-			// get the actual output
-			double[] outputs = _network.fire(_inputs.get(inputIndex));
+		// get the error values (expected - output)
+		double[] errors = calculateInitialError(outputs, expectedOutputs);
 
-			// get the error values (expected - output) and add their average to the average errors list
-			double[] errors = calculateInitialError(outputs, _expectedOutputs.get(inputIndex));
-			_averageErrors.add(calcArrayAverage(errors));
+		// get the hidden layer and the neuron count within it
+		Layer layer = _network.getHiddenLayer();
+		int neuronCount = layer.getNeuronCount();
 
-			// get the hidden layer and the neuron count within it
-			Layer layer = _network.getHiddenLayer();
-			int neuronCount = layer.getNeuronCount();
-
-			// loop through all the neurons in the hidden layer
-			for (int i = 0; i < neuronCount; i++) {
-				Neuron neuron = layer.getNeuron(i);
+		// calculate the delta values for the hidden layer neurons, this must be done
+		//   before any weights are updated as it uses the output layer weights
+		double[] hiddenDeltas = new double[neuronCount];
+		for (int i = 0; i < neuronCount; i++) {
+			Neuron neuron = layer.getNeuron(i);
+			double sum = calculateWeightedDeltaSum(i, _network.getOutputLayer(), errors);
+			hiddenDeltas[i] = neuron.getLastOutput() * (1 - neuron.getLastOutput()) * sum;
+		}
 
-				// calculate the delta values for the hidden layer neurons and update their weights
-				double sum = calculateWeightedDeltaSum(i, _network.getOutputLayer(), errors);
-				double delta = neuron.getLastOutput() * (1 - neuron.getLastOutput()) * sum;
-				updateNeuronWeights(neuron, delta);
+		// calculate the error for the convolutional layer (if there is one) from the
+		//   hidden layer weights before they are updated
+		ConvolutionalLayer convolutionalLayer = _network.getConvolutionalLayer();
+		double[] convolutionalErrors = null;
+		if (convolutionalLayer != null) {
+			convolutionalErrors = new double[convolutionalLayer.getOutputCount()];
+			for (int i = 0; i < convolutionalErrors.length; i++) {
+				convolutionalErrors[i] = calculateWeightedDeltaSum(i, layer, hiddenDeltas);
 			}
+		}
+
+		// loop through all the neurons in the hidden layer and update their weights
+		for (int i = 0; i < neuronCount; i++) {
+			updateNeuronWeights(layer.getNeuron(i), hiddenDeltas[i]);
+		}
 
-			// get the output layer and it's neuron count
-			layer = _network.getOutputLayer();
-			neuronCount = layer.getNeuronCount();
+		// get the output layer and it's neuron count
+		layer = _network.getOutputLayer();
+		neuronCount = layer.getNeuronCount();
 
-			// loop through all neurons in the output layer and update their weights
-			for (int i = 0; i < neuronCount; i++) {
-				// the deltas for the output layer are the errors calculated for it
-				Neuron neuron = layer.getNeuron(i);
-				updateNeuronWeights(neuron, errors[i]);
-			}
+		// loop through all neurons in the output layer and update their weights
+		for (int i = 0; i < neuronCount; i++) {
+			// the deltas for the output layer are the errors calculated for it
+			Neuron neuron = layer.getNeuron(i);
+			updateNeuronWeights(neuron, errors[i]);
 		}
 
-		// calculate the average of all the runs and return it
-		return calcListAverage(_averageErrors);
+		// update the shared kernels of the convolutional layer
+		if (convolutionalLayer != null) {
+			convolutionalLayer.backPropagate(convolutionalErrors, _learningRate);
+		}
+
+		return calcArrayAverage(errors);
 	}
 
 	/**
@@ -131,32 +157,6 @@ public class BackPropagator implements Serializable  { //TODO: have this extend
 		return error;
 	}
 
-	/**
-	 * Calculate the average of an array full of doubles
-	 * @param arr - Array containing values to be averaged
-	 * @return average
-	 */
-	private double calcArrayAverage(double[] arr) {
-		double sum = 0.0;
-		for (int i = 0; i < arr.length; i++) {
-			sum += arr[i];
-		}
-		return (sum / arr.length);
-	}
-
-	/**
-	 * Calculate the average of an ArrayList of doubles
-	 * @param list - List containing values to be averaged
-	 * @return average
-	 */
-	private double calcListAverage(ArrayList<Double> list) {
-		double sum = 0.0;
-		for (int i = 0; i < list.size(); i++) {
-			sum += list.get(i);
-		}
-		return (sum / list.size());
-	}
-
 	/**
 	 * Calculate the delta using the back-propagation algorithm
 	 * @param parentNeuronId - neuron (from hidden layer) to calculate the delta for
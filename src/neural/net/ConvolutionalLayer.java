@@ -0,0 +1,281 @@
+package neural.net;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Represents a convolutional layer within an Artificial Neural Net.
+ * The layer slides a set of shared kernels over a square input, passes each
+ * result through the ActivationFunction and then max-pools the feature maps.
+ * Every kernel is shared across all positions in the input, so the number of
+ * weights only depends on the kernel count and size, not on the input size.
+ *
+ * The output of the layer is the pooled feature maps laid out one after the
+ * other (kernel, row, col), which can be passed to a regular Layer.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class ConvolutionalLayer implements Serializable {
+	/**
+	 * generated Serial Version UID
+	 */
+	private static final long serialVersionUID = 2911834270164731485L;
+
+	// constants
+	private static final double INITIAL_THRESHOLD = 1.5;
+
+	// instance variables
+	private double[][] _kernels;
+	private double[][] _lastFeatures;
+	private double[] _lastInputs = null;
+	private double[] _lastOutputs;
+	private int[] _lastMaxIndexes;
+	private int _inputSize = 0;
+	private int _kernelCount = 0;
+	private int _kernelSize = 0;
+	private int _poolSize = 0;
+	private int _featureSize = 0;
+	private int _pooledSize = 0;
+	private ActivationFunction _activationFunction;
+	private Random rnd = new Random();
+
+	/**
+	 * Constructor
+	 * @param inputSize - size of a side of the (square) input
+	 * @param kernelCount - number of kernels (feature maps) in the layer
+	 * @param kernelSize - size of a side of each (square) kernel
+	 * @param poolSize - size of a side of each (square) max-pooling window
+	 * @param activationFunction - class implementing ActivationFunction, used to calculate activation value of each feature
+	 * @throws Exception - throws an exception if the kernel and pool sizes do not fit within the input
+	 */
+	public ConvolutionalLayer(int inputSize, int kernelCount, int kernelSize, int poolSize,
+			ActivationFunction activationFunction) throws Exception {
+		if (kernelSize < 1 || kernelSize > inputSize) {
+			throw new Exception(String.format(
+					"ConvolutionalLayer created with invalid kernelSize, expected kernelSize to be within %d not %d",
+					inputSize,
+					kernelSize));
+		}
+
+		if (poolSize < 1 || poolSize > inputSize - kernelSize + 1) {
+			throw new Exception(String.format(
+					"ConvolutionalLayer created with invalid poolSize, expected poolSize to be within %d not %d",
+					inputSize - kernelSize + 1,
+					poolSize));
+		}
+
+		_inputSize = inputSize;
+		_kernelCount = kernelCount;
+		_kernelSize = kernelSize;
+		_poolSize = poolSize;
+		_featureSize = inputSize - kernelSize + 1;
+		_pooledSize = _featureSize / poolSize;
+		_activationFunction = activationFunction;
+		generateKernels();
+	}
+
+	/**
+	 * Get number of inputs, the input is square so this is the input size squared
+	 * @return input count
+	 */
+	public int getInputCount() {
+		return _inputSize * _inputSize;
+	}
+
+	/**
+	 * Get number of outputs, one for each pooled value of each kernel
+	 * @return output count
+	 */
+	public int getOutputCount() {
+		return _kernelCount * _pooledSize * _pooledSize;
+	}
+
+	/**
+	 * Get number of kernels in the layer
+	 * @return kernel count
+	 */
+	public int getKernelCount() {
+		return _kernelCount;
+	}
+
+	/**
+	 * Get the size of a side of each kernel
+	 * @return kernel size
+	 */
+	public int getKernelSize() {
+		return _kernelSize;
+	}
+
+	/**
+	 * Get number of weights in the layer, including the offset weight of each kernel
+	 * @return weight count
+	 */
+	public int getWeightCount() {
+		return _kernelCount * (_kernelSize * _kernelSize + 1);
+	}
+
+	/**
+	 * Copy the weights of every kernel into an array
+	 * @param weights - array to copy into
+	 * @param offset - position in the array to start at
+	 * @return position in the array after the last weight copied
+	 */
+	int copyWeights(double[] weights, int offset) {
+		for (int k = 0; k < _kernelCount; k++) {
+			System.arraycopy(_kernels[k], 0, weights, offset, _kernels[k].length);
+			offset += _kernels[k].length;
+		}
+		return offset;
+	}
+
+	/**
+	 * Replace the weights of every kernel from an array
+	 * @param weights - array to copy from
+	 * @param offset - position in the array to start at
+	 * @return position in the array after the last weight used
+	 */
+	int replaceWeights(double[] weights, int offset) {
+		for (int k = 0; k < _kernelCount; k++) {
+			System.arraycopy(weights, offset, _kernels[k], 0, _kernels[k].length);
+			offset += _kernels[k].length;
+		}
+		return offset;
+	}
+
+	/**
+	 * Get the output from the last fire()
+	 * @return last output
+	 */
+	public double[] getLastOutputs() {
+		return _lastOutputs;
+	}
+
+	/**
+	 * Fire the layer, convolve each kernel over the input and max-pool the results
+	 * @param inputs - input to convolve, laid out row by row
+	 * @return pooled output from each kernel
+	 * @throws Exception - throws an exception if inputs length is invalid
+	 */
+	public double[] fire(double[] inputs) throws Exception {
+		if (inputs.length != getInputCount()) {
+			throw new Exception(String.format(
+					"Fire called on ConvolutionalLayer with invalid inputs, expected inputs to be of size %d not size %d",
+					getInputCount(),
+					inputs.length));
+		}
+
+		// re-initialize output
+		_lastInputs = inputs;
+		_lastOutputs = new double[getOutputCount()];
+		_lastMaxIndexes = new int[getOutputCount()];
+
+		for (int k = 0; k < _kernelCount; k++) {
+			// convolve the kernel over every position of the input
+			double[] kernel = _kernels[k];
+			double[] features = _lastFeatures[k];
+			for (int row = 0; row < _featureSize; row++) {
+				for (int col = 0; col < _featureSize; col++) {
+					double sum = 0.0;
+					for (int kRow = 0; kRow < _kernelSize; kRow++) {
+						int inputOffset = (row + kRow) * _inputSize + col;
+						int kernelOffset = kRow * _kernelSize;
+						for (int kCol = 0; kCol < _kernelSize; kCol++) {
+							sum += inputs[inputOffset + kCol] * kernel[kernelOffset + kCol];
+						}
+					}
+					sum += Neuron.OFFSET * kernel[_kernelSize * _kernelSize];
+					features[row * _featureSize + col] = _activationFunction.activate(sum);
+				}
+			}
+
+			// max-pool the feature map, remembering which feature won for back-propagation
+			int outputOffset = k * _pooledSize * _pooledSize;
+			for (int row = 0; row < _pooledSize; row++) {
+				for (int col = 0; col < _pooledSize; col++) {
+					int maxIndex = (row * _poolSize) * _featureSize + (col * _poolSize);
+					for (int pRow = 0; pRow < _poolSize; pRow++) {
+						for (int pCol = 0; pCol < _poolSize; pCol++) {
+							int index = (row * _poolSize + pRow) * _featureSize + (col * _poolSize + pCol);
+							if (features[index] > features[maxIndex]) {
+								maxIndex = index;
+							}
+						}
+					}
+					_lastOutputs[outputOffset + row * _pooledSize + col] = features[maxIndex];
+					_lastMaxIndexes[outputOffset + row * _pooledSize + col] = maxIndex;
+				}
+			}
+		}
+
+		return _lastOutputs;
+	}
+
+	/**
+	 * Update the kernels using the error propagated back from the next layer.
+	 * Only the feature that won each pooling window receives the error, the
+	 * gradient of a kernel is summed over every position it was applied to.
+	 * @param outputErrors - weighted error sum for each output of the last fire()
+	 * @param learningRate - the learning rate to use (should be between 0 and 1)
+	 * @throws Exception - throws an exception if outputErrors length is invalid, or if fire() has not been executed yet
+	 */
+	public void backPropagate(double[] outputErrors, double learningRate) throws Exception {
+		if (outputErrors.length != getOutputCount()) {
+			throw new Exception(String.format(
+					"backPropagate called on ConvolutionalLayer with invalid outputErrors, expected outputErrors to be of size %d not size %d",
+					getOutputCount(),
+					outputErrors.length));
+		}
+
+		if (_lastInputs == null) {
+			throw new Exception("backPropagate called on ConvolutionalLayer before fire was called");
+		}
+
+		int weightCount = _kernelSize * _kernelSize;
+		int pooledCount = _pooledSize * _pooledSize;
+		for (int k = 0; k < _kernelCount; k++) {
+			double[] gradient = new double[weightCount + 1];
+			double[] features = _lastFeatures[k];
+
+			for (int p = 0; p < pooledCount; p++) {
+				int output = k * pooledCount + p;
+				int featureIndex = _lastMaxIndexes[output];
+				double delta = _activationFunction.derivative(features[featureIndex]) * outputErrors[output];
+
+				// accumulate the gradient over the input window that produced the feature
+				int row = featureIndex / _featureSize;
+				int col = featureIndex % _featureSize;
+				for (int kRow = 0; kRow < _kernelSize; kRow++) {
+					int inputOffset = (row + kRow) * _inputSize + col;
+					for (int kCol = 0; kCol < _kernelSize; kCol++) {
+						gradient[kRow * _kernelSize + kCol] += delta * _lastInputs[inputOffset + kCol];
+					}
+				}
+				gradient[weightCount] += delta * Neuron.OFFSET;
+			}
+
+			// update the shared kernel weights
+			for (int i = 0; i <= weightCount; i++) {
+				_kernels[k][i] += learningRate * gradient[i];
+			}
+		}
+	}
+
+	/**
+	 * Create all kernels in the layer with small random weights centered around 0.
+	 * The threshold starts high so the features of an empty input are close to 0,
+	 * otherwise the pooled outputs saturate the hidden layer before training starts
+	 */
+	private void generateKernels() {
+		// the last weight of each kernel is the Threshold
+		int weightCount = _kernelSize * _kernelSize;
+		_kernels = new double[_kernelCount][weightCount + 1];
+		_lastFeatures = new double[_kernelCount][_featureSize * _featureSize];
+		for (int k = 0; k < _kernelCount; k++) {
+			for (int i = 0; i < weightCount; i++) {
+				_kernels[k][i] = rnd.nextDouble() - 0.5;
+			}
+			_kernels[k][weightCount] = INITIAL_THRESHOLD + rnd.nextDouble();
+		}
+	}
+}
@@ -0,0 +1,368 @@
+package neural.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class trains a Network with a genetic algorithm. A population of weight
+ * vectors is evolved with tournament selection, uniform crossover and gaussian
+ * mutation, keeping the best individuals (elites) unchanged between generations.
+ *
+ * The error of every individual is evaluated against all inputs in parallel,
+ * each worker thread has its own copy of the Network. After each generation
+ * the weights of the best individual are set on the Network being trained.
+ *
+ * The error of an individual is its mean squared error plus an optional
+ * penalty for each non-zero weight, mutation can zero weights so sparse
+ * Networks can be evolved directly.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class EvolutionaryTrainer extends Trainer {
+	/**
+	 * generated Serial Version UID
+	 */
+	private static final long serialVersionUID = 4469204950313852877L;
+
+	// constants
+	private static final double INITIAL_SPREAD = 0.5;
+
+	// instance variables
+	private int _populationSize;
+	private int _eliteCount = 2;
+	private int _tournamentSize = 3;
+	private double _mutationRate = 0.05;
+	private double _mutationStrength = 0.3;
+	private double _zeroRate = 0.0;
+	private double _sparsityPenalty = 0.0;
+	private double[][] _population = null;
+	private double[] _errors;
+	private int _generation = 0;
+	private long _elapsedNanos = 0;
+	private ArrayList<Double> _bestErrors = new ArrayList<Double>();
+	private Random _rnd;
+	private transient Network[] _workerNetworks = null;
+	private transient ExecutorService _executor = null;
+
+	/**
+	 * Constructor
+	 * @param network - The Network to operate on, its current weights seed the population
+	 * @param populationSize - number of weight vectors in each generation
+	 */
+	public EvolutionaryTrainer(Network network, int populationSize) {
+		this(network, populationSize, new Random());
+	}
+
+	/**
+	 * Constructor
+	 * @param network - The Network to operate on, its current weights seed the population
+	 * @param populationSize - number of weight vectors in each generation
+	 * @param rnd - Random to use for all evolution, seed it for reproducible runs
+	 */
+	public EvolutionaryTrainer(Network network, int populationSize, Random rnd) {
+		super(network);
+		_populationSize = populationSize;
+		_rnd = rnd;
+	}
+
+	/**
+	 * Set the number of best individuals copied unchanged into the next generation
+	 * @param eliteCount - number of elites
+	 */
+	public void setEliteCount(int eliteCount) {
+		_eliteCount = eliteCount;
+	}
+
+	/**
+	 * Set the number of individuals competing in each tournament selection
+	 * @param tournamentSize - tournament size
+	 */
+	public void setTournamentSize(int tournamentSize) {
+		_tournamentSize = tournamentSize;
+	}
+
+	/**
+	 * Set the chance of each weight being mutated, and how far it moves
+	 * @param mutationRate - chance of a weight being mutated (between 0 and 1)
+	 * @param mutationStrength - standard deviation of the gaussian added to a mutated weight
+	 */
+	public void setMutation(double mutationRate, double mutationStrength) {
+		_mutationRate = mutationRate;
+		_mutationStrength = mutationStrength;
+	}
+
+	/**
+	 * Set up evolution of sparse Networks
+	 * @param zeroRate - chance of a mutated weight being set to 0 instead (between 0 and 1)
+	 * @param sparsityPenalty - error added for the fraction of weights that are not 0
+	 */
+	public void setSparsity(double zeroRate, double sparsityPenalty) {
+		_zeroRate = zeroRate;
+		_sparsityPenalty = sparsityPenalty;
+	}
+
+	/**
+	 * Get number of generations run so far
+	 * @return generation count
+	 */
+	public int getGeneration() {
+		return _generation;
+	}
+
+	/**
+	 * Get the number of generations run per second, averaged over all generations
+	 * @return generations per second
+	 */
+	public double getGenerationsPerSecond() {
+		if (_elapsedNanos == 0) {
+			return 0.0;
+		}
+		return _generation / (_elapsedNanos / 1e9);
+	}
+
+	/**
+	 * Get the error of the best individual of each generation
+	 * @return best errors, one per generation
+	 */
+	public ArrayList<Double> getBestErrors() {
+		return _bestErrors;
+	}
+
+	/**
+	 * Run a single generation: evaluate every individual, set the best on the
+	 * Network and breed the next generation
+	 * @return error of the best individual
+	 * @throws Exception
+	 */
+	@Override
+	public double runAndUpdate() throws Exception {
+		long start = System.nanoTime();
+
+		if (_population == null) {
+			initializePopulation();
+		}
+
+		// evaluate the whole population and sort it from best to worst
+		evaluatePopulation();
+		Integer[] ranking = new Integer[_populationSize];
+		for (int i = 0; i < _populationSize; i++) {
+			ranking[i] = i;
+		}
+		Arrays.sort(ranking, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(_errors[a], _errors[b]);
+			}
+		});
+
+		// keep the best individual on the Network and record its error for each input
+		double[] best = _population[ranking[0]];
+		double bestError = _errors[ranking[0]];
+		_network.setWeights(best);
+		_averageErrors = new ArrayList<Double>();
+		for (int i = 0; i < _inputs.size(); i++) {
+			_averageErrors.add(squaredError(_network.fire(_inputs.get(i)), _expectedOutputs.get(i)));
+		}
+
+		// breed the next generation, elites are copied as they are
+		double[][] next = new double[_populationSize][];
+		int eliteCount = Math.min(_eliteCount, _populationSize);
+		for (int i = 0; i < eliteCount; i++) {
+			next[i] = _population[ranking[i]];
+		}
+		for (int i = eliteCount; i < _populationSize; i++) {
+			double[] child = crossover(select(), select());
+			mutate(child);
+			next[i] = child;
+		}
+		_population = next;
+
+		_generation++;
+		_bestErrors.add(bestError);
+		_elapsedNanos += System.nanoTime() - start;
+
+		return bestError;
+	}
+
+	/**
+	 * Stop the worker threads, they are started again if another generation is run
+	 */
+	public void shutdown() {
+		if (_executor != null) {
+			_executor.shutdown();
+			_executor = null;
+		}
+	}
+
+	/**
+	 * Create the first generation around the current weights of the Network,
+	 * the current weights are kept as they are in the first individual
+	 */
+	private void initializePopulation() {
+		double[] weights = _network.getWeights();
+		_population = new double[_populationSize][];
+		_population[0] = weights;
+		for (int i = 1; i < _populationSize; i++) {
+			double[] individual = new double[weights.length];
+			for (int w = 0; w < weights.length; w++) {
+				individual[w] = weights[w] + _rnd.nextGaussian() * INITIAL_SPREAD;
+			}
+			_population[i] = individual;
+		}
+	}
+
+	/**
+	 * Calculate the error of every individual, individuals are spread over the
+	 * worker threads and each worker fires its own copy of the Network
+	 * @throws Exception
+	 */
+	private void evaluatePopulation() throws Exception {
+		startWorkers();
+
+		_errors = new double[_populationSize];
+		final int workerCount = _workerNetworks.length;
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (int w = 0; w < workerCount; w++) {
+			final int worker = w;
+			futures.add(_executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					Network network = _workerNetworks[worker];
+					for (int i = worker; i < _populationSize; i += workerCount) {
+						_errors[i] = evaluate(network, _population[i]);
+					}
+					return null;
+				}
+			}));
+		}
+
+		// wait for all workers, rethrowing the first failure
+		for (Future<Void> future : futures) {
+			future.get();
+		}
+	}
+
+	/**
+	 * Calculate the error of a single individual
+	 * @param network - Network to evaluate with (owned by the calling thread)
+	 * @param weights - weights of the individual
+	 * @return mean squared error, plus the sparsity penalty
+	 * @throws Exception
+	 */
+	private double evaluate(Network network, double[] weights) throws Exception {
+		network.setWeights(weights);
+
+		double sum = 0.0;
+		for (int i = 0; i < _inputs.size(); i++) {
+			sum += squaredError(network.fire(_inputs.get(i)), _expectedOutputs.get(i));
+		}
+		double error = sum / _inputs.size();
+
+		if (_sparsityPenalty > 0.0) {
+			int nonZero = 0;
+			for (int w = 0; w < weights.length; w++) {
+				if (weights[w] != 0.0) {
+					nonZero++;
+				}
+			}
+			error += _sparsityPenalty * nonZero / weights.length;
+		}
+
+		return error;
+	}
+
+	/**
+	 * Calculate the mean squared error of a single output
+	 * @param output - the actual output
+	 * @param expectedOutput - the output that is expected/wanted
+	 * @return mean squared error
+	 */
+	private double squaredError(double[] output, double[] expectedOutput) {
+		double sum = 0.0;
+		for (int i = 0; i < output.length; i++) {
+			double diff = expectedOutput[i] - output[i];
+			sum += diff * diff;
+		}
+		return sum / output.length;
+	}
+
+	/**
+	 * Pick an individual with tournament selection
+	 * @return weights of the winner
+	 */
+	private double[] select() {
+		int winner = _rnd.nextInt(_populationSize);
+		for (int i = 1; i < _tournamentSize; i++) {
+			int challenger = _rnd.nextInt(_populationSize);
+			if (_errors[challenger] < _errors[winner]) {
+				winner = challenger;
+			}
+		}
+		return _population[winner];
+	}
+
+	/**
+	 * Create a child taking each weight from either parent (uniform crossover)
+	 * @param mother - first parent
+	 * @param father - second parent
+	 * @return child weights
+	 */
+	private double[] crossover(double[] mother, double[] father) {
+		double[] child = new double[mother.length];
+		for (int w = 0; w < child.length; w++) {
+			child[w] = _rnd.nextBoolean() ? mother[w] : father[w];
+		}
+		return child;
+	}
+
+	/**
+	 * Mutate weights of a child in place
+	 * @param child - weights to mutate
+	 */
+	private void mutate(double[] child) {
+		for (int w = 0; w < child.length; w++) {
+			if (_rnd.nextDouble() < _mutationRate) {
+				if (_rnd.nextDouble() < _zeroRate) {
+					child[w] = 0.0;
+				} else {
+					child[w] += _rnd.nextGaussian() * _mutationStrength;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Start the worker threads and give each one its own copy of the Network
+	 * @throws Exception
+	 */
+	private void startWorkers() throws Exception {
+		if (_executor != null) {
+			return;
+		}
+
+		int workerCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), _populationSize));
+		_workerNetworks = new Network[workerCount];
+		for (int w = 0; w < workerCount; w++) {
+			_workerNetworks[w] = _network.copy();
+		}
+
+		// daemon threads so an abandoned trainer never keeps the application alive
+		_executor = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "EvolutionaryTrainer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+}
@@ -1,9 +1,27 @@
 package neural.net;
 
 import java.io.Serializable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Represents a layer of neurons within an Artificial Neural Net
+ *
+ * Wide layers are fired in parallel by splitting the neurons into ranges on a
+ * shared ForkJoinPool. Each neuron only reads the inputs and writes its own
+ * output, so the result is exactly the same as firing the layer serially.
+ * Layers below the parallel threshold (neurons * inputs) are always fired
+ * serially so small networks do not pay the fork overhead.
+ *
+ * Crossover: firing costs about 1 ns per weight serially, and a fork/join round
+ * trip on a warm pool costs about 4 us (more when idle workers have to be woken
+ * up). The default threshold of 65536 weights (about 65 us of serial work) keeps
+ * the fork overhead well under the time saved, the 8x8 OCR network has fewer
+ * than 2000 weights per layer and never forks.
+ *
+ * A batch of inputs can be fired at once, each neuron's weights are then read
+ * once for the whole batch instead of once per input, with the same sums in the
+ * same order as firing the inputs one at a time.
  * 
  * @author Jonathan Reimels
  * @version 1.0.0
@@ -14,6 +32,18 @@ public class Layer implements Serializable  {
 	 */
 	private static final long serialVersionUID = -5933031753552996252L;
 
+	/**
+	 * Default number of weights (neurons * inputs) at which a layer is fired in parallel
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 65536;
+
+	// constants
+	private static final int WEIGHTS_PER_TASK = 16384;
+
+	// shared between all layers
+	private static volatile int _parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+	private static ForkJoinPool _pool = null;
+
 	// instance variables
 	private Neuron[] _neurons;
 	private double[] _lastOutputs;
@@ -34,6 +64,22 @@ public class Layer implements Serializable  {
 		generateNeurons();
 	}
 
+	/**
+	 * Set the number of weights (neurons * inputs) at which layers are fired in parallel
+	 * @param parallelThreshold - weight count, Integer.MAX_VALUE to always fire serially
+	 */
+	public static void setParallelThreshold(int parallelThreshold) {
+		_parallelThreshold = parallelThreshold;
+	}
+
+	/**
+	 * Get the number of weights (neurons * inputs) at which layers are fired in parallel
+	 * @return weight count
+	 */
+	public static int getParallelThreshold() {
+		return _parallelThreshold;
+	}
+
 	/**
 	 * Get number of neurons in the layer
 	 * @return neuron count
@@ -42,6 +88,14 @@ public class Layer implements Serializable  {
 		return _neuronCount;
 	}
 
+	/**
+	 * Get number of weights in the layer, including the offset weight of each neuron
+	 * @return weight count
+	 */
+	public int getWeightCount() {
+		return _neuronCount * (_inputCount + 1);
+	}
+
 	/**
 	 * Get a specific neuron in the layer
 	 * @param id - the neuron to get
@@ -59,6 +113,32 @@ public class Layer implements Serializable  {
 		return _neurons[id];
 	}
 
+	/**
+	 * Copy the weights of every neuron in the layer into an array
+	 * @param weights - array to copy into
+	 * @param offset - position in the array to start at
+	 * @return position in the array after the last weight copied
+	 */
+	int copyWeights(double[] weights, int offset) {
+		for (int i = 0; i < _neuronCount; i++) {
+			offset = _neurons[i].copyWeights(weights, offset);
+		}
+		return offset;
+	}
+
+	/**
+	 * Replace the weights of every neuron in the layer from an array
+	 * @param weights - array to copy from
+	 * @param offset - position in the array to start at
+	 * @return position in the array after the last weight used
+	 */
+	int replaceWeights(double[] weights, int offset) {
+		for (int i = 0; i < _neuronCount; i++) {
+			offset = _neurons[i].replaceWeights(weights, offset);
+		}
+		return offset;
+	}
+
 	/**
 	 * Get the output from the last fire()
 	 * @return last output
@@ -84,15 +164,143 @@ public class Layer implements Serializable  {
 		// re-initialize output
 		_lastOutputs = new double[_neuronCount];
 
-		// loop through each neuron, fire it and store its output
-		for (int i = 0; i < _neuronCount; i++) {
-			_lastOutputs[i] = _neurons[i].fire(inputs);
+		// loop through each neuron, fire it and store its output, splitting
+		//   the neurons across the pool if the layer is wide enough
+		if ((long)_neuronCount * _inputCount >= _parallelThreshold && Runtime.getRuntime().availableProcessors() > 1) {
+			getPool().invoke(new FireTask(inputs, _lastOutputs, 0, _neuronCount));
+		} else {
+			for (int i = 0; i < _neuronCount; i++) {
+				_lastOutputs[i] = _neurons[i].fire(inputs);
+			}
 		}
 
 		// return the output
 		return _lastOutputs;
 	}
 
+	/**
+	 * Fire the layer on a batch of inputs, a neuron at a time across the whole batch. Nothing is
+	 * kept of the batch (getLastOutputs() is left as it is), so batches can be fired from several
+	 * threads at once
+	 * @param inputs - input of each sample to pass to each neuron
+	 * @param count - number of samples to fire, from the start of inputs
+	 * @return output from each neuron for each sample
+	 * @throws Exception - throws an exception if an input length is invalid
+	 */
+	public double[][] fire(double[][] inputs, int count) throws Exception {
+		for (int b = 0; b < count; b++) {
+			if (inputs[b].length != _inputCount) {
+				throw new Exception(String.format(
+						"Fire called on Layer with invalid inputs, expected inputs to be of size %d not size %d",
+						_inputCount,
+						inputs[b].length));
+			}
+		}
+
+		double[][] outputs = new double[count][_neuronCount];
+		double[] weights = new double[_inputCount + 1];
+		for (int i = 0; i < _neuronCount; i++) {
+			_neurons[i].copyWeights(weights, 0);
+
+			// four samples at a time, so each weight read feeds four independent sums, each one
+			//   added up in the same order as Neuron.fire
+			int b = 0;
+			for (; b + 4 <= count; b += 4) {
+				double[] input0 = inputs[b];
+				double[] input1 = inputs[b + 1];
+				double[] input2 = inputs[b + 2];
+				double[] input3 = inputs[b + 3];
+				double sum0 = 0.0;
+				double sum1 = 0.0;
+				double sum2 = 0.0;
+				double sum3 = 0.0;
+				for (int w = 0; w < _inputCount; w++) {
+					double weight = weights[w];
+					sum0 += input0[w] * weight;
+					sum1 += input1[w] * weight;
+					sum2 += input2[w] * weight;
+					sum3 += input3[w] * weight;
+				}
+				double offset = Neuron.OFFSET * weights[_inputCount];
+				outputs[b][i] = _activationFunction.activate(sum0 + offset);
+				outputs[b + 1][i] = _activationFunction.activate(sum1 + offset);
+				outputs[b + 2][i] = _activationFunction.activate(sum2 + offset);
+				outputs[b + 3][i] = _activationFunction.activate(sum3 + offset);
+			}
+			for (; b < count; b++) {
+				double[] input = inputs[b];
+				double sum = 0.0;
+				for (int w = 0; w < _inputCount; w++) {
+					sum += input[w] * weights[w];
+				}
+				sum += Neuron.OFFSET * weights[_inputCount];
+				outputs[b][i] = _activationFunction.activate(sum);
+			}
+		}
+		return outputs;
+	}
+
+	/**
+	 * Get the pool shared by all layers, creating it on first use
+	 * @return ForkJoinPool
+	 */
+	private static synchronized ForkJoinPool getPool() {
+		if (_pool == null) {
+			_pool = new ForkJoinPool();
+		}
+		return _pool;
+	}
+
+	/**
+	 * Fire a range of neurons, splitting the range in half until each task
+	 * covers roughly WEIGHTS_PER_TASK weights
+	 */
+	private class FireTask extends RecursiveAction {
+		/**
+		 * generated Serial Version UID
+		 */
+		private static final long serialVersionUID = 6092719383384712645L;
+
+		// instance variables
+		private double[] _inputs;
+		private double[] _outputs;
+		private int _start;
+		private int _end;
+
+		/**
+		 * Constructor
+		 * @param inputs - input to pass to each neuron
+		 * @param outputs - array to store the output of each neuron in
+		 * @param start - first neuron to fire
+		 * @param end - neuron after the last one to fire
+		 */
+		public FireTask(double[] inputs, double[] outputs, int start, int end) {
+			_inputs = inputs;
+			_outputs = outputs;
+			_start = start;
+			_end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if ((long)(_end - _start) * _inputCount > WEIGHTS_PER_TASK && _end - _start > 1) {
+				int middle = (_start + _end) >>> 1;
+				invokeAll(new FireTask(_inputs, _outputs, _start, middle),
+						new FireTask(_inputs, _outputs, middle, _end));
+				return;
+			}
+
+			try {
+				for (int i = _start; i < _end; i++) {
+					_outputs[i] = _neurons[i].fire(_inputs);
+				}
+			} catch (Exception ex) {
+				// input length is checked by Layer.fire() before any task is created
+				throw new IllegalStateException(ex);
+			}
+		}
+	}
+
 	/**
 	 * Create all neurons in the layer
 	 */
@@ -1,5 +1,7 @@
 package neural.net;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -14,7 +16,8 @@ import java.io.Serializable;
  * configurable and the Activation Function can be configured too with
  * any class that implements the ActivationFunction interface.
  *
- * This Network is restricted to use exactly one hidden layer
+ * This Network is restricted to use exactly one hidden layer, optionally
+ * preceded by a ConvolutionalLayer for larger (square) inputs
  *
  * @author Jonathan Reimels
  * @version 1.0.0
@@ -26,6 +29,7 @@ public class Network implements Serializable  {
 	private static final long serialVersionUID = 7848387727961706621L;
 
 	// instance variables
+	private ConvolutionalLayer _convolutionalLayer = null;
 	private Layer _hiddenLayer;
 	private Layer _outputLayer;
 	private double[] _lastOutputs;
@@ -63,6 +67,23 @@ public class Network implements Serializable  {
 		generateLayers();
 	}
 
+	/**
+	 * Constructor - the inputs are passed through a ConvolutionalLayer before the hidden layer
+	 * @param convolutionalLayer - ConvolutionalLayer to process the inputs with, its input count is the input count of the Network
+	 * @param outputCount - number of output neurons
+	 * @param hiddenLayerNeuronCount - number of neurons in the hidden layer
+	 * @param activationFunction - class implementing ActivationFunction, used to calculate activation value of neuron
+	 */
+	public Network(ConvolutionalLayer convolutionalLayer, int outputCount, int hiddenLayerNeuronCount,
+			ActivationFunction activationFunction) {
+		_convolutionalLayer = convolutionalLayer;
+		_inputCount = convolutionalLayer.getInputCount();
+		_outputCount = outputCount;
+		_hiddenLayerNeuronCount = hiddenLayerNeuronCount;
+		_activationFunction = activationFunction;
+		generateLayers();
+	}
+
 	/**
 	 * Get number of inputs
 	 * @return input count
@@ -95,6 +116,14 @@ public class Network implements Serializable  {
 		return _activationFunction;
 	}
 
+	/**
+	 * Get the convolutional layer
+	 * @return ConvolutionalLayer, null if the Network has no convolutional layer
+	 */
+	public ConvolutionalLayer getConvolutionalLayer() {
+		return _convolutionalLayer;
+	}
+
 	/**
 	 * Get the hidden layer
 	 * @return Layer
@@ -111,6 +140,54 @@ public class Network implements Serializable  {
 		return _outputLayer;
 	}
 
+	/**
+	 * Get number of weights in the Network, across all layers
+	 * @return weight count
+	 */
+	public int getWeightCount() {
+		int count = _hiddenLayer.getWeightCount() + _outputLayer.getWeightCount();
+		if (_convolutionalLayer != null) {
+			count += _convolutionalLayer.getWeightCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Get every weight in the Network as a single vector (convolutional, hidden then output layer)
+	 * @return weights
+	 */
+	public double[] getWeights() {
+		double[] weights = new double[getWeightCount()];
+		int offset = 0;
+		if (_convolutionalLayer != null) {
+			offset = _convolutionalLayer.copyWeights(weights, offset);
+		}
+		offset = _hiddenLayer.copyWeights(weights, offset);
+		_outputLayer.copyWeights(weights, offset);
+		return weights;
+	}
+
+	/**
+	 * Set every weight in the Network from a single vector, in the order returned by getWeights()
+	 * @param weights - weights to set
+	 * @throws Exception - throws an exception if the number of weights is incorrect
+	 */
+	public void setWeights(double[] weights) throws Exception {
+		if (weights.length != getWeightCount()) {
+			throw new Exception(String.format(
+					"setWeights called on Network with invalid weights, expected weights to be of size %d not size %d",
+					getWeightCount(),
+					weights.length));
+		}
+
+		int offset = 0;
+		if (_convolutionalLayer != null) {
+			offset = _convolutionalLayer.replaceWeights(weights, offset);
+		}
+		offset = _hiddenLayer.replaceWeights(weights, offset);
+		_outputLayer.replaceWeights(weights, offset);
+	}
+
 	/**
 	 * Fire each layer in the Network
 	 * @param inputs - inputs to be passed to the first layer
@@ -125,6 +202,11 @@ public class Network implements Serializable  {
 					inputs.length));
 		}
 
+		// fire convolutional layer (if there is one) and pass its output on to the hidden layer
+		if (_convolutionalLayer != null) {
+			inputs = _convolutionalLayer.fire(inputs);
+		}
+
 		// fire hidden layer
 		double[] hiddenOutput = _hiddenLayer.fire(inputs);
 
@@ -135,6 +217,39 @@ public class Network implements Serializable  {
 		return _lastOutputs;
 	}
 
+	/**
+	 * Fire each layer in the Network on a batch of inputs, a layer at a time across the whole
+	 * batch (see Layer.fire(double[][], int)), the output of each input is the same as from
+	 * fire(). getLastOutputs() is left as it is, and the hidden and output layers keep nothing
+	 * of the batch, so Networks without a ConvolutionalLayer can fire batches from several
+	 * threads at once
+	 * @param inputs - inputs of each sample to be passed to the first layer
+	 * @param count - number of samples to fire, from the start of inputs
+	 * @return output of each sample
+	 * @throws Exception - throws an exception if an input length is incorrect
+	 */
+	public double[][] fire(double[][] inputs, int count) throws Exception {
+		for (int b = 0; b < count; b++) {
+			if (inputs[b].length != _inputCount) {
+				throw new Exception(String.format(
+						"Fire called on Network with invalid inputs, expected inputs to be of size %d not size %d",
+						_inputCount,
+						inputs[b].length));
+			}
+		}
+
+		// the convolutional layer (if there is one) is fired a sample at a time
+		if (_convolutionalLayer != null) {
+			double[][] convolved = new double[count][];
+			for (int b = 0; b < count; b++) {
+				convolved[b] = _convolutionalLayer.fire(inputs[b]);
+			}
+			inputs = convolved;
+		}
+
+		return _outputLayer.fire(_hiddenLayer.fire(inputs, count), count);
+	}
+
 	/**
 	 * Save the neural network to a file, this should be used after
 	 * training is complete so that the Network can be reloaded and
@@ -149,6 +264,25 @@ public class Network implements Serializable  {
 		os.close();
 	}
 
+	/**
+	 * Create a deep copy of the Network, the copy can be fired and trained
+	 * independently of (and concurrently with) this Network
+	 * @return Network
+	 * @throws IOException, ClassNotFoundException
+	 */
+	public Network copy() throws Exception {
+		ByteArrayOutputStream bs = new ByteArrayOutputStream();
+		ObjectOutputStream os = new ObjectOutputStream(bs);
+		os.writeObject(this);
+		os.close();
+
+		ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(bs.toByteArray()));
+		Object obj = is.readObject();
+		is.close();
+
+		return (Network)obj;
+	}
+
 	/**
 	 * Load a Network from a file
 	 * @param file - File to load
@@ -168,7 +302,12 @@ public class Network implements Serializable  {
 	 * Create the hidden and output layers
 	 */
 	private void generateLayers() {
-		_hiddenLayer = new Layer(_hiddenLayerNeuronCount, _inputCount, _activationFunction);
+		int hiddenInputCount = _inputCount;
+		if (_convolutionalLayer != null) {
+			hiddenInputCount = _convolutionalLayer.getOutputCount();
+		}
+
+		_hiddenLayer = new Layer(_hiddenLayerNeuronCount, hiddenInputCount, _activationFunction);
 		_outputLayer = new Layer(_outputCount, _hiddenLayerNeuronCount, _activationFunction);
 	}
 }
@@ -73,6 +73,28 @@ public class Neuron implements Serializable {
 		return _weights[id];
 	}
 
+	/**
+	 * Copy all weights (including the offset weight) into an array
+	 * @param weights - array to copy into
+	 * @param offset - position in the array to start at
+	 * @return position in the array after the last weight copied
+	 */
+	int copyWeights(double[] weights, int offset) {
+		System.arraycopy(_weights, 0, weights, offset, _weights.length);
+		return offset + _weights.length;
+	}
+
+	/**
+	 * Replace all weights (including the offset weight) from an array
+	 * @param weights - array to copy from
+	 * @param offset - position in the array to start at
+	 * @return position in the array after the last weight used
+	 */
+	int replaceWeights(double[] weights, int offset) {
+		System.arraycopy(weights, offset, _weights, 0, _weights.length);
+		return offset + _weights.length;
+	}
+
 	/**
 	 * Get number of inputs for the neuron
 	 * @return number of inputs
@@ -0,0 +1,300 @@
+package neural.net;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A TrainingSource that prepares the inputs of another source ahead of the
+ * trainer. A background thread reads (and so loads, augments and converts) the
+ * wrapped source into a fixed ring of preallocated batches, and the trainer
+ * takes the batches as it goes, so preparing the next batch overlaps with
+ * training on the current one.
+ *
+ * The thread reads whole epochs one after another, calling reset() on the
+ * wrapped source at the start of each, so the trainer sees the same samples in
+ * the same order as it would reading the source itself. Resetting part way
+ * through an epoch skips the rest of it. A failure reading the wrapped source
+ * ends the epoch: the trainer gets the exception in place of the next sample,
+ * and the thread carries on with the next epoch, so the source can be read
+ * again as it could be after a failure of the wrapped source itself.
+ *
+ * How full the ring is and how long the trainer waited on it are kept, to size
+ * the ring: a trainer that keeps waiting needs faster preparation, and a ring
+ * that is always full can be smaller.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class PrefetchingSource implements TrainingSource {
+	// public constants
+	public static final int DEFAULT_BATCH_COUNT = 4;
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	// instance variables
+	private TrainingSource _source;
+	private BlockingQueue<Batch> _free;
+	private BlockingQueue<Batch> _ready;
+	private Thread _thread;
+	private int _batchCount;
+	private Batch _batch = null;
+	private int _position = 0;
+	private boolean _atEpochStart = true;
+	private long _stallNanos = 0;
+	private long _producerStallNanos = 0;
+	private long _takeCount = 0;
+	private long _occupancySum = 0;
+
+	/**
+	 * Constructor - prefetches with DEFAULT_BATCH_COUNT batches of DEFAULT_BATCH_SIZE samples
+	 * @param source - TrainingSource to prefetch, only read by the prefetching thread from now on
+	 */
+	public PrefetchingSource(TrainingSource source) {
+		this(source, DEFAULT_BATCH_COUNT, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Constructor - starts the prefetching thread
+	 * @param source - TrainingSource to prefetch, only read by the prefetching thread from now on
+	 * @param batchCount - number of batches in the ring, at least 2 so one can fill while one is read
+	 * @param batchSize - number of samples in each batch
+	 */
+	public PrefetchingSource(TrainingSource source, int batchCount, int batchSize) {
+		if (batchCount < 2 || batchSize < 1) {
+			throw new IllegalArgumentException(String.format(
+					"PrefetchingSource created with invalid ring, expected at least 2 batches of 1 sample not %d of %d",
+					batchCount,
+					batchSize));
+		}
+
+		_source = source;
+		_batchCount = batchCount;
+		_free = new ArrayBlockingQueue<Batch>(batchCount);
+		_ready = new ArrayBlockingQueue<Batch>(batchCount);
+		for (int i = 0; i < batchCount; i++) {
+			_free.add(new Batch(batchSize, source.getInputCount(), source.getOutputCount()));
+		}
+
+		_thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				prefetch();
+			}
+		}, "PrefetchingSource");
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	/**
+	 * Copy the next prefetched sample, waiting for the prefetching thread if no batch is ready
+	 * @param inputs - array to fill with the input
+	 * @param expectedOutputs - array to fill with the expected output
+	 * @return true if a sample was read, false at the end of the epoch
+	 * @throws Exception - throws an exception if reading the wrapped source failed, which ends the epoch
+	 */
+	@Override
+	public boolean next(double[] inputs, double[] expectedOutputs) throws Exception {
+		while (_batch == null || _position == _batch._size) {
+			if (_batch != null) {
+				boolean endOfEpoch = _batch._endOfEpoch;
+				Exception error = _batch._error;
+				release();
+				if (endOfEpoch) {
+					_atEpochStart = true;
+					if (error != null) {
+						throw error;
+					}
+					return false;
+				}
+			}
+			take();
+		}
+
+		_atEpochStart = false;
+		System.arraycopy(_batch._inputs[_position], 0, inputs, 0, inputs.length);
+		System.arraycopy(_batch._expectedOutputs[_position], 0, expectedOutputs, 0, expectedOutputs.length);
+		_position++;
+		return true;
+	}
+
+	/**
+	 * Go back to the start of an epoch, skipping whatever is left of the current one
+	 * @throws Exception - throws an exception if reading the wrapped source failed
+	 */
+	@Override
+	public void reset() throws Exception {
+		if (_atEpochStart) {
+			return;
+		}
+
+		double[] inputs = new double[getInputCount()];
+		double[] expectedOutputs = new double[getOutputCount()];
+		while (next(inputs, expectedOutputs)) {
+			// skip the rest of the epoch
+		}
+	}
+
+	@Override
+	public int getInputCount() {
+		return _source.getInputCount();
+	}
+
+	@Override
+	public int getOutputCount() {
+		return _source.getOutputCount();
+	}
+
+	@Override
+	public long getCount() {
+		return _source.getCount();
+	}
+
+	/**
+	 * Get the number of batches in the ring
+	 * @return batch count
+	 */
+	public int getBatchCount() {
+		return _batchCount;
+	}
+
+	/**
+	 * Get the number of prefetched batches waiting to be read
+	 * @return occupancy
+	 */
+	public int getOccupancy() {
+		return _ready.size();
+	}
+
+	/**
+	 * Get the average number of prefetched batches that were waiting each time a batch was taken
+	 * @return average occupancy
+	 */
+	public synchronized double getAverageOccupancy() {
+		return _takeCount == 0 ? 0.0 : (double) _occupancySum / _takeCount;
+	}
+
+	/**
+	 * Get the time the trainer has waited for a batch to be prefetched
+	 * @return stall time in milliseconds
+	 */
+	public synchronized double getStallTime() {
+		return _stallNanos / 1e6;
+	}
+
+	/**
+	 * Get the time the prefetching thread has waited for the trainer to free a batch
+	 * @return stall time in milliseconds
+	 */
+	public synchronized double getProducerStallTime() {
+		return _producerStallNanos / 1e6;
+	}
+
+	/**
+	 * Stop the prefetching thread, the source can't be read afterwards
+	 */
+	public void close() {
+		_thread.interrupt();
+	}
+
+	/**
+	 * Take the next prefetched batch, counting the time spent waiting for it
+	 * @throws InterruptedException
+	 */
+	private void take() throws InterruptedException {
+		int occupancy = _ready.size();
+		long start = System.nanoTime();
+		_batch = _ready.take();
+		long stall = System.nanoTime() - start;
+		_position = 0;
+		synchronized (this) {
+			_stallNanos += stall;
+			_occupancySum += occupancy;
+			_takeCount++;
+		}
+	}
+
+	/**
+	 * Hand the batch that has been read back to the prefetching thread
+	 */
+	private void release() {
+		_batch._size = 0;
+		_batch._endOfEpoch = false;
+		_batch._error = null;
+		_free.add(_batch);
+		_batch = null;
+	}
+
+	/**
+	 * Read epoch after epoch of the wrapped source into free batches, until interrupted
+	 */
+	private void prefetch() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Batch batch = free();
+				try {
+					_source.reset();
+					boolean more = true;
+					while (more) {
+						more = _source.next(batch._inputs[batch._size], batch._expectedOutputs[batch._size]);
+						if (more) {
+							batch._size++;
+						}
+						if (!more || batch._size == batch._inputs.length) {
+							batch._endOfEpoch = !more;
+							_ready.put(batch);
+							if (more) {
+								batch = free();
+							}
+						}
+					}
+				} catch (InterruptedException ex) {
+					throw ex;
+				} catch (Exception ex) {
+					// the trainer gets the failure after the samples read before it, and the next epoch after that
+					batch._error = ex;
+					batch._endOfEpoch = true;
+					_ready.put(batch);
+				}
+			}
+		} catch (InterruptedException ex) {
+			// closed
+		}
+	}
+
+	/**
+	 * Take a free batch, counting the time spent waiting for it
+	 * @return batch
+	 * @throws InterruptedException
+	 */
+	private Batch free() throws InterruptedException {
+		long start = System.nanoTime();
+		Batch batch = _free.take();
+		long stall = System.nanoTime() - start;
+		synchronized (this) {
+			_producerStallNanos += stall;
+		}
+		return batch;
+	}
+
+	/**
+	 * Preallocated inputs and expected outputs of a batch of samples
+	 */
+	private static class Batch {
+		// instance variables
+		private double[][] _inputs;
+		private double[][] _expectedOutputs;
+		private int _size = 0;
+		private boolean _endOfEpoch = false;
+		private Exception _error = null;
+
+		/**
+		 * Constructor
+		 * @param batchSize - number of samples in the batch
+		 * @param inputCount - size of each input
+		 * @param outputCount - size of each expected output
+		 */
+		public Batch(int batchSize, int inputCount, int outputCount) {
+			_inputs = new double[batchSize][inputCount];
+			_expectedOutputs = new double[batchSize][outputCount];
+		}
+	}
+}
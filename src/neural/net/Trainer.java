@@ -0,0 +1,129 @@
+package neural.net;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * Base class for anything that trains the weights of a Network against a set of
+ * inputs and the outputs expected for them
+ *
+ * A serialized Trainer holds the Network and the state of the training (for example
+ * the population and Random of an EvolutionaryTrainer) but not the inputs and
+ * expected outputs, so it can be written out as a checkpoint mid-run and be given
+ * its inputs again after it is read back in
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public abstract class Trainer implements Serializable {
+	/**
+	 * generated Serial Version UID
+	 */
+	private static final long serialVersionUID = -2719454043918250170L;
+
+	// instance variables
+	protected transient ArrayList<double[]> _inputs = new ArrayList<double[]>();
+	protected transient ArrayList<double[]> _expectedOutputs = new ArrayList<double[]>();
+	protected transient ArrayList<Double> _averageErrors = new ArrayList<Double>();
+	protected Network _network;
+
+	/**
+	 * Constructor
+	 * @param network - The Network to operate on
+	 */
+	public Trainer(Network network) {
+		_network = network;
+	}
+
+	/**
+	 * Get the Network being trained
+	 * @return Network
+	 */
+	public Network getNetwork() {
+		return _network;
+	}
+
+	/**
+	 * The averages from each input within the last run
+	 * @return averages
+	 */
+	public ArrayList<Double> getAverageErrors() {
+		return _averageErrors;
+	}
+
+	/**
+	 * Add an input and the expected output for this input
+	 * @param inputs - input to use
+	 * @param expectedOutputs - output expected from this input
+	 * @throws Exception - throws an exception if the input size doesn't match that expected by
+	 * the Network, or the output size doesn't match that returned by the Network
+	 */
+	public void addInputOutput(double[] inputs, double[] expectedOutputs) throws Exception {
+		if (inputs.length != _network.getInputCount()) {
+			throw new Exception(String.format(
+					"addInputOutput called on %s with invalid inputs, expected inputs to be of size %d not size %d",
+					getClass().getSimpleName(),
+					_network.getInputCount(),
+					inputs.length));
+		}
+
+		if (expectedOutputs.length != _network.getOutputCount()) {
+			throw new Exception(String.format(
+					"addInputOutput called on %s with invalid expectedOutputs, expected expectedOutputs to be of size %d not size %d",
+					getClass().getSimpleName(),
+					_network.getOutputCount(),
+					expectedOutputs.length));
+		}
+
+		// add the input and output to their respective lists
+		_inputs.add(inputs);
+		_expectedOutputs.add(expectedOutputs);
+	}
+
+	/**
+	 * Run a single training iteration (epoch) over all inputs and update the Network
+	 * @return average error across running all inputs
+	 * @throws Exception
+	 */
+	public abstract double runAndUpdate() throws Exception;
+
+	/**
+	 * Calculate the average of an array full of doubles
+	 * @param arr - Array containing values to be averaged
+	 * @return average
+	 */
+	protected double calcArrayAverage(double[] arr) {
+		double sum = 0.0;
+		for (int i = 0; i < arr.length; i++) {
+			sum += arr[i];
+		}
+		return (sum / arr.length);
+	}
+
+	/**
+	 * Calculate the average of an ArrayList of doubles
+	 * @param list - List containing values to be averaged
+	 * @return average
+	 */
+	protected double calcListAverage(ArrayList<Double> list) {
+		double sum = 0.0;
+		for (int i = 0; i < list.size(); i++) {
+			sum += list.get(i);
+		}
+		return (sum / list.size());
+	}
+
+	/**
+	 * Read a serialized Trainer, it starts out without inputs
+	 * @param is - stream to read from
+	 * @throws IOException, ClassNotFoundException
+	 */
+	private void readObject(ObjectInputStream is) throws IOException, ClassNotFoundException {
+		is.defaultReadObject();
+		_inputs = new ArrayList<double[]>();
+		_expectedOutputs = new ArrayList<double[]>();
+		_averageErrors = new ArrayList<Double>();
+	}
+}
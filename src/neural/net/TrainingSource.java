@@ -0,0 +1,43 @@
+package neural.net;
+
+/**
+ * Interface to implement for a stream of inputs and the outputs expected for
+ * them, so a Trainer can run an epoch without holding every input in memory
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public interface TrainingSource {
+	/**
+	 * Read the next input and its expected output
+	 * @param inputs - array to fill with the input, getInputCount() long
+	 * @param expectedOutputs - array to fill with the expected output, getOutputCount() long
+	 * @return true if an input was read, false at the end of the epoch
+	 * @throws Exception
+	 */
+	boolean next(double[] inputs, double[] expectedOutputs) throws Exception;
+
+	/**
+	 * Go back to the start for the next epoch
+	 * @throws Exception
+	 */
+	void reset() throws Exception;
+
+	/**
+	 * Get the size of each input
+	 * @return input count
+	 */
+	int getInputCount();
+
+	/**
+	 * Get the size of each expected output
+	 * @return output count
+	 */
+	int getOutputCount();
+
+	/**
+	 * Get the number of inputs in an epoch
+	 * @return count, -1 if it is not known
+	 */
+	long getCount();
+}
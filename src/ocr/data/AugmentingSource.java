@@ -0,0 +1,458 @@
+package ocr.data;
+
+import java.util.Arrays;
+
+/**
+ * A GridSource that adds variants of every Grid of another source as it is
+ * read, so a small hand-drawn set trains like a larger one. After each Grid
+ * come getVariantCount() variants of it, each made from the packed cells with
+ * shifts and masks, without creating any Grids:
+ *
+ * - shifted by up to getMaxShift() cells each way, when nothing falls off the edge
+ * - mirrored left to right or top to bottom, only for letters that look the same mirrored
+ * - dilated or eroded by one cell towards a random side, an erosion that would
+ *   remove more than half of the set cells is skipped
+ * - up to getMaxNoise() random cells flipped
+ *
+ * The variants come from a generator seeded with the seed and the number of
+ * epochs read, so every run with the same seed sees the same variants while each
+ * epoch sees different ones. Grids of up to 64 cells are changed within a single
+ * long, larger Grids (up to 64x64) a row at a time.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class AugmentingSource extends GridSource {
+	// public constants
+	public static final String MIRROR_LEFT_RIGHT = "AHIMOTUVWXY";
+	public static final String MIRROR_TOP_BOTTOM = "BCDEHIKOX";
+	public static final int MAX_GRID_SIZE = Long.SIZE;
+
+	// private constants
+	private static final int[] DIRECTIONS_X = { 1, -1, 0, 0 };
+	private static final int[] DIRECTIONS_Y = { 0, 0, 1, -1 };
+	private static final int THICKNESS_STEPS = 1 << 12;
+
+	// instance variables
+	private GridSource _source;
+	private long _seed;
+	private long _state = 0;
+	private int _epoch = 0;
+	private int _variantCount = 1;
+	private int _maxShift = 1;
+	private boolean _mirror = true;
+	private int _dilateLimit = THICKNESS_STEPS / 5;
+	private int _erodeLimit = 2 * THICKNESS_STEPS / 5;
+	private int _maxNoise = 2;
+	private int _size;
+	private int _cellCount;
+	private long[] _original;
+	private int _variant = 0;
+	private char _value = 0;
+	private boolean _canMirrorLeftRight = false;
+	private boolean _canMirrorTopBottom = false;
+	private long _rowMask;
+	private long[] _shiftMasks;
+	private long[] _rows;
+	private long[] _shifted;
+
+	/**
+	 * Constructor - adds one variant of each Grid
+	 * @param source - GridSource to augment
+	 * @param seed - seed of the variants
+	 * @throws Exception - throws an exception if the source's Grids are larger than MAX_GRID_SIZE
+	 */
+	public AugmentingSource(GridSource source, long seed) throws Exception {
+		super(source.getGridSize());
+		_size = source.getGridSize();
+		if (_size > MAX_GRID_SIZE) {
+			throw new Exception(String.format(
+					"AugmentingSource created with invalid source, expected grid size to be within %d not %d",
+					MAX_GRID_SIZE,
+					_size));
+		}
+
+		_source = source;
+		_seed = seed;
+		_cellCount = _size * _size;
+		_original = new long[source.getWordCount()];
+		_variant = _variantCount + 1;
+		_rowMask = _size == Long.SIZE ? -1L : (1L << _size) - 1;
+		_rows = new long[_size];
+		_shifted = new long[_size];
+
+		// for Grids in one long, a mask per shift of the cells that still come from within the Grid
+		if (_cellCount <= Long.SIZE) {
+			int span = 2 * _size - 1;
+			_shiftMasks = new long[span * span];
+			for (int dy = 1 - _size; dy < _size; dy++) {
+				for (int dx = 1 - _size; dx < _size; dx++) {
+					long mask = 0;
+					for (int row = Math.max(0, dy); row < Math.min(_size, _size + dy); row++) {
+						for (int col = Math.max(0, dx); col < Math.min(_size, _size + dx); col++) {
+							mask |= 1L << (row * _size + col);
+						}
+					}
+					_shiftMasks[(dy + _size - 1) * span + dx + _size - 1] = mask;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Set the number of variants that follow each Grid
+	 * @param variantCount - variant count, 0 to only pass the Grids through
+	 */
+	public void setVariantCount(int variantCount) {
+		_variantCount = Math.max(0, variantCount);
+		_variant = _variantCount + 1;
+	}
+
+	/**
+	 * Get the number of variants that follow each Grid
+	 * @return variant count
+	 */
+	public int getVariantCount() {
+		return _variantCount;
+	}
+
+	/**
+	 * Set the largest shift of a variant, in cells each way
+	 * @param maxShift - largest shift, 0 to not shift
+	 */
+	public void setMaxShift(int maxShift) {
+		_maxShift = Math.max(0, Math.min(maxShift, _size - 1));
+	}
+
+	/**
+	 * Get the largest shift of a variant
+	 * @return largest shift in cells
+	 */
+	public int getMaxShift() {
+		return _maxShift;
+	}
+
+	/**
+	 * Set whether letters that look the same mirrored are mirrored
+	 * @param mirror - true to mirror
+	 */
+	public void setMirror(boolean mirror) {
+		_mirror = mirror;
+	}
+
+	/**
+	 * Check whether letters that look the same mirrored are mirrored
+	 * @return true if they are mirrored
+	 */
+	public boolean isMirror() {
+		return _mirror;
+	}
+
+	/**
+	 * Set the share of variants that are dilated and eroded, together at most 1
+	 * @param dilateRate - share of variants that are dilated
+	 * @param erodeRate - share of variants that are eroded
+	 */
+	public void setThickness(double dilateRate, double erodeRate) {
+		_dilateLimit = (int) (dilateRate * THICKNESS_STEPS);
+		_erodeLimit = (int) ((dilateRate + erodeRate) * THICKNESS_STEPS);
+	}
+
+	/**
+	 * Set the largest number of cells flipped in a variant
+	 * @param maxNoise - largest number of flipped cells, 0 for no noise
+	 */
+	public void setMaxNoise(int maxNoise) {
+		_maxNoise = Math.max(0, maxNoise);
+	}
+
+	/**
+	 * Get the largest number of cells flipped in a variant
+	 * @return largest number of flipped cells
+	 */
+	public int getMaxNoise() {
+		return _maxNoise;
+	}
+
+	/**
+	 * Read the next Grid or variant
+	 * @param words - array to fill, getWordCount() long
+	 * @return true if a Grid was read, false at the end of the epoch
+	 * @throws Exception
+	 */
+	@Override
+	public boolean nextGrid(long[] words) throws Exception {
+		if (_variant > _variantCount) {
+			if (!_source.nextGrid(_original)) {
+				return false;
+			}
+			_value = _source.getValue();
+			_canMirrorLeftRight = _mirror && MIRROR_LEFT_RIGHT.indexOf(_value) >= 0;
+			_canMirrorTopBottom = _mirror && MIRROR_TOP_BOTTOM.indexOf(_value) >= 0;
+			_variant = 0;
+		}
+
+		if (_variant == 0) {
+			System.arraycopy(_original, 0, words, 0, _original.length);
+		} else if (_cellCount <= Long.SIZE) {
+			words[0] = augment(_original[0]);
+		} else {
+			augment(_original, words);
+		}
+		_variant++;
+		return true;
+	}
+
+	/**
+	 * Get the expected value of the last Grid read, variants keep the value of their Grid
+	 * @return expected value
+	 */
+	@Override
+	public char getValue() {
+		return _value;
+	}
+
+	/**
+	 * Start the next epoch, its variants are seeded by the seed and the epoch
+	 * @throws Exception
+	 */
+	@Override
+	public void reset() throws Exception {
+		_source.reset();
+		_epoch++;
+		_state = _seed ^ (_epoch * 0x9E3779B97F4A7C15L);
+		_variant = _variantCount + 1;
+	}
+
+	/**
+	 * Get the number of Grids and variants in an epoch
+	 * @return count
+	 */
+	@Override
+	public long getCount() {
+		return _source.getCount() * (1 + _variantCount);
+	}
+
+	/**
+	 * Make a variant of a Grid held in one long
+	 * @param bits - packed cells of the Grid
+	 * @return packed cells of the variant
+	 */
+	private long augment(long bits) {
+		long random = nextLong();
+		if (_maxShift > 0) {
+			long shifted = shift(bits, bounded(random, 0, 2 * _maxShift + 1) - _maxShift, bounded(random, 16, 2 * _maxShift + 1) - _maxShift);
+			if (Long.bitCount(shifted) == Long.bitCount(bits)) {
+				bits = shifted;
+			}
+		}
+
+		boolean leftRight = _canMirrorLeftRight && (random & (1L << 32)) != 0;
+		boolean topBottom = _canMirrorTopBottom && (random & (1L << 33)) != 0;
+		if (leftRight || topBottom) {
+			bits = mirror(bits, leftRight, topBottom);
+		}
+
+		int thickness = (int) (random >>> 36) & (THICKNESS_STEPS - 1);
+		if (thickness < _erodeLimit) {
+			int direction = (int) (random >>> 34) & 3;
+			long neighbours = shift(bits, DIRECTIONS_X[direction], DIRECTIONS_Y[direction]);
+			if (thickness < _dilateLimit) {
+				bits |= neighbours;
+			} else if (2 * Long.bitCount(bits & neighbours) >= Long.bitCount(bits)) {
+				bits &= neighbours;
+			}
+		}
+
+		int noise = bounded(random, 48, _maxNoise + 1);
+		long cells = 0;
+		for (int i = 0; i < noise; i++) {
+			if ((i & 3) == 0) {
+				cells = nextLong();
+			}
+			bits ^= 1L << bounded(cells, (i & 3) * 16, _cellCount);
+		}
+		return bits;
+	}
+
+	/**
+	 * Shift a Grid held in one long, cells shifted off the edge are lost
+	 * @param bits - packed cells
+	 * @param dx - columns to shift right, negative to shift left
+	 * @param dy - rows to shift down, negative to shift up
+	 * @return shifted cells
+	 */
+	private long shift(long bits, int dx, int dy) {
+		// every cell moves by the same number of bits, the mask drops the ones that wrapped around
+		return Long.rotateLeft(bits, dy * _size + dx) & _shiftMasks[(dy + _size - 1) * (2 * _size - 1) + dx + _size - 1];
+	}
+
+	/**
+	 * Mirror a Grid held in one long
+	 * @param bits - packed cells
+	 * @param leftRight - true to mirror left to right
+	 * @param topBottom - true to mirror top to bottom
+	 * @return mirrored cells
+	 */
+	private long mirror(long bits, boolean leftRight, boolean topBottom) {
+		if (_size == Byte.SIZE) {
+			// a row per byte
+			if (topBottom) {
+				bits = Long.reverseBytes(bits);
+			}
+			return leftRight ? Long.reverse(Long.reverseBytes(bits)) : bits;
+		}
+
+		long mirrored = 0;
+		for (int row = 0; row < _size; row++) {
+			long rowBits = (bits >>> (row * _size)) & _rowMask;
+			if (leftRight) {
+				rowBits = Long.reverse(rowBits) >>> (Long.SIZE - _size);
+			}
+			mirrored |= rowBits << ((topBottom ? _size - 1 - row : row) * _size);
+		}
+		return mirrored;
+	}
+
+	/**
+	 * Make a variant of a Grid larger than one long, a row at a time
+	 * @param original - packed cells of the Grid
+	 * @param words - array to fill with the packed cells of the variant
+	 */
+	private void augment(long[] original, long[] words) {
+		long random = nextLong();
+		unpack(original, _rows);
+		int count = bitCount(_rows);
+
+		if (_maxShift > 0) {
+			shift(_rows, _shifted, bounded(random, 0, 2 * _maxShift + 1) - _maxShift, bounded(random, 16, 2 * _maxShift + 1) - _maxShift);
+			if (bitCount(_shifted) == count) {
+				System.arraycopy(_shifted, 0, _rows, 0, _size);
+			}
+		}
+
+		boolean leftRight = _canMirrorLeftRight && (random & (1L << 32)) != 0;
+		boolean topBottom = _canMirrorTopBottom && (random & (1L << 33)) != 0;
+		if (leftRight || topBottom) {
+			for (int row = 0; row < _size; row++) {
+				long rowBits = _rows[topBottom ? _size - 1 - row : row];
+				_shifted[row] = leftRight ? Long.reverse(rowBits) >>> (Long.SIZE - _size) : rowBits;
+			}
+			System.arraycopy(_shifted, 0, _rows, 0, _size);
+		}
+
+		int thickness = (int) (random >>> 36) & (THICKNESS_STEPS - 1);
+		if (thickness < _erodeLimit) {
+			int direction = (int) (random >>> 34) & 3;
+			shift(_rows, _shifted, DIRECTIONS_X[direction], DIRECTIONS_Y[direction]);
+			int kept = 0;
+			for (int row = 0; row < _size; row++) {
+				kept += Long.bitCount(_rows[row] & _shifted[row]);
+			}
+			boolean dilate = thickness < _dilateLimit;
+			if (dilate || 2 * kept >= count) {
+				for (int row = 0; row < _size; row++) {
+					_rows[row] = dilate ? _rows[row] | _shifted[row] : _rows[row] & _shifted[row];
+				}
+			}
+		}
+
+		int noise = bounded(random, 48, _maxNoise + 1);
+		long cells = 0;
+		for (int i = 0; i < noise; i++) {
+			if ((i & 3) == 0) {
+				cells = nextLong();
+			}
+			int cell = bounded(cells, (i & 3) * 16, _cellCount);
+			_rows[cell / _size] ^= 1L << (cell % _size);
+		}
+
+		pack(_rows, words);
+	}
+
+	/**
+	 * Shift rows, cells shifted off the edge are lost
+	 * @param rows - rows to shift
+	 * @param shifted - array to fill with the shifted rows
+	 * @param dx - columns to shift right, negative to shift left
+	 * @param dy - rows to shift down, negative to shift up
+	 */
+	private void shift(long[] rows, long[] shifted, int dx, int dy) {
+		for (int row = 0; row < _size; row++) {
+			int from = row - dy;
+			long rowBits = from < 0 || from >= _size ? 0 : rows[from];
+			shifted[row] = dx >= 0 ? (rowBits << dx) & _rowMask : rowBits >>> -dx;
+		}
+	}
+
+	/**
+	 * Split packed cells into a long per row
+	 * @param words - packed cells
+	 * @param rows - array to fill with the rows
+	 */
+	private void unpack(long[] words, long[] rows) {
+		for (int row = 0; row < _size; row++) {
+			int index = row * _size;
+			int word = index >>> 6;
+			int bit = index & 63;
+			long rowBits = words[word] >>> bit;
+			if (bit + _size > Long.SIZE) {
+				rowBits |= words[word + 1] << (Long.SIZE - bit);
+			}
+			rows[row] = rowBits & _rowMask;
+		}
+	}
+
+	/**
+	 * Join rows back into packed cells
+	 * @param rows - a long per row
+	 * @param words - array to fill with the packed cells
+	 */
+	private void pack(long[] rows, long[] words) {
+		Arrays.fill(words, 0);
+		for (int row = 0; row < _size; row++) {
+			int index = row * _size;
+			int word = index >>> 6;
+			int bit = index & 63;
+			words[word] |= rows[row] << bit;
+			if (bit + _size > Long.SIZE) {
+				words[word + 1] |= rows[row] >>> (Long.SIZE - bit);
+			}
+		}
+	}
+
+	/**
+	 * Count the set cells of rows
+	 * @param rows - a long per row
+	 * @return set cell count
+	 */
+	private int bitCount(long[] rows) {
+		int count = 0;
+		for (int row = 0; row < _size; row++) {
+			count += Long.bitCount(rows[row]);
+		}
+		return count;
+	}
+
+	/**
+	 * Get the next random long (SplitMix64)
+	 * @return random long
+	 */
+	private long nextLong() {
+		long z = (_state += 0x9E3779B97F4A7C15L);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Get a random int from 0 up to a bound out of 16 bits of a random long
+	 * @param random - random long
+	 * @param shift - position of the 16 bits
+	 * @param bound - bound, not included, at most 65536
+	 * @return random int
+	 */
+	private static int bounded(long random, int shift, int bound) {
+		return (int) ((((random >>> shift) & 0xFFFF) * bound) >>> 16);
+	}
+}
@@ -0,0 +1,22 @@
+package ocr.data;
+
+import ocr.info.Grid;
+
+/**
+ * Interface to implement for a Recognizer that can recognize a batch of Grids at
+ * once faster than one Grid at a time
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public interface BatchRecognizer extends Recognizer {
+	/**
+	 * Process a batch of Grids and find the letter each one represents, the same as
+	 * process(Grid) on each Grid
+	 * @param grids - Grids to process
+	 * @param count - number of Grids to process, from the start of grids
+	 * @param results - filled with the char result of each Grid, 0 if no letter was recognized
+	 * @throws Exception
+	 */
+	void process(Grid[] grids, int count, char[] results) throws Exception;
+}
@@ -0,0 +1,188 @@
+package ocr.data;
+
+import java.util.ArrayList;
+
+import ocr.info.Grid;
+
+/**
+ * Recognize a Grid with a cascade of cheap stages in front of a full Recognizer
+ * (normally a NetworkManager). Each stage is tried in turn, and the first one
+ * whose confidence reaches its threshold gives the result. Grids that no stage
+ * is confident about fall through to the full Recognizer.
+ *
+ * The number of Grids each stage accepted and the time spent in each stage are
+ * recorded, so the thresholds can be tuned. The full Recognizer is reported as
+ * the last stage, at index getStageCount().
+ *
+ * Stages keep the confidence of their last Grid, so process() is synchronized.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class CascadeRecognizer implements Recognizer {
+	// instance variables
+	private ArrayList<CascadeStage> _stages = new ArrayList<CascadeStage>();
+	private ArrayList<Double> _thresholds = new ArrayList<Double>();
+	private Recognizer _fallback;
+	private long[] _runCounts = new long[1];
+	private long[] _hitCounts = new long[1];
+	private long[] _elapsedNanos = new long[1];
+	private long _processCount = 0;
+	private long _processNanos = 0;
+
+	/**
+	 * Constructor - creates a cascade with no stages
+	 * @param fallback - Recognizer used for Grids no stage is confident about
+	 */
+	public CascadeRecognizer(Recognizer fallback) {
+		_fallback = fallback;
+	}
+
+	/**
+	 * Add a stage to the end of the cascade, ahead of the full Recognizer
+	 * @param stage - stage to add
+	 * @param threshold - confidence the stage needs to reach for its result to be used
+	 */
+	public synchronized void addStage(CascadeStage stage, double threshold) {
+		_stages.add(stage);
+		_thresholds.add(threshold);
+		resetStatistics();
+	}
+
+	/**
+	 * Set the confidence a stage needs to reach for its result to be used
+	 * @param stage - index of the stage
+	 * @param threshold - confidence threshold
+	 */
+	public synchronized void setThreshold(int stage, double threshold) {
+		_thresholds.set(stage, threshold);
+	}
+
+	/**
+	 * Get the confidence a stage needs to reach for its result to be used
+	 * @param stage - index of the stage
+	 * @return confidence threshold
+	 */
+	public synchronized double getThreshold(int stage) {
+		return _thresholds.get(stage);
+	}
+
+	/**
+	 * Get the number of stages ahead of the full Recognizer
+	 * @return stage count
+	 */
+	public synchronized int getStageCount() {
+		return _stages.size();
+	}
+
+	/**
+	 * Process a Grid through the cascade
+	 * @param grid - Grid to process
+	 * @return char result
+	 * @throws Exception
+	 */
+	@Override
+	public synchronized char process(Grid grid) throws Exception {
+		long start = System.nanoTime();
+		_processCount++;
+
+		char result = 0;
+		boolean accepted = false;
+		long stageStart = start;
+		for (int i = 0; i < _stages.size() && !accepted; i++) {
+			CascadeStage stage = _stages.get(i);
+			result = stage.process(grid);
+			accepted = result != 0 && stage.getConfidence() >= _thresholds.get(i);
+			stageStart = record(i, accepted, stageStart);
+		}
+
+		if (!accepted) {
+			result = _fallback.process(grid);
+			stageStart = record(_stages.size(), true, stageStart);
+		}
+
+		_processNanos += stageStart - start;
+		return result;
+	}
+
+	/**
+	 * Get the number of Grids processed
+	 * @return process count
+	 */
+	public synchronized long getProcessCount() {
+		return _processCount;
+	}
+
+	/**
+	 * Get the number of Grids a stage was run on
+	 * @param stage - index of the stage, getStageCount() for the full Recognizer
+	 * @return run count
+	 */
+	public synchronized long getRunCount(int stage) {
+		return _runCounts[stage];
+	}
+
+	/**
+	 * Get the fraction of all Grids processed whose result came from a stage
+	 * @param stage - index of the stage, getStageCount() for the full Recognizer
+	 * @return hit rate between 0 and 1
+	 */
+	public synchronized double getHitRate(int stage) {
+		if (_processCount == 0) {
+			return 0.0;
+		}
+		return (double)_hitCounts[stage] / _processCount;
+	}
+
+	/**
+	 * Get the average time a stage took each time it was run
+	 * @param stage - index of the stage, getStageCount() for the full Recognizer
+	 * @return average latency in nanoseconds
+	 */
+	public synchronized double getAverageLatency(int stage) {
+		if (_runCounts[stage] == 0) {
+			return 0.0;
+		}
+		return (double)_elapsedNanos[stage] / _runCounts[stage];
+	}
+
+	/**
+	 * Get the average time the whole cascade took for each Grid
+	 * @return average latency in nanoseconds
+	 */
+	public synchronized double getAverageLatency() {
+		if (_processCount == 0) {
+			return 0.0;
+		}
+		return (double)_processNanos / _processCount;
+	}
+
+	/**
+	 * Clear all recorded hit rates and latencies
+	 */
+	public synchronized void resetStatistics() {
+		int stageCount = _stages.size() + 1;
+		_runCounts = new long[stageCount];
+		_hitCounts = new long[stageCount];
+		_elapsedNanos = new long[stageCount];
+		_processCount = 0;
+		_processNanos = 0;
+	}
+
+	/**
+	 * Record a run of a stage
+	 * @param stage - index of the stage
+	 * @param hit - true if the result of the stage was used
+	 * @param start - time the stage started
+	 * @return time the stage finished
+	 */
+	private long record(int stage, boolean hit, long start) {
+		long end = System.nanoTime();
+		_runCounts[stage]++;
+		_elapsedNanos[stage] += end - start;
+		if (hit) {
+			_hitCounts[stage]++;
+		}
+		return end;
+	}
+}
@@ -0,0 +1,16 @@
+package ocr.data;
+
+/**
+ * Interface to implement for a stage of a CascadeRecognizer, a Recognizer that
+ * also reports how confident it is in the letter it returned
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public interface CascadeStage extends Recognizer {
+	/**
+	 * Get how confident the stage is in the result of the last Grid processed
+	 * @return confidence between 0 and 1, 0 if the stage does not know the Grid
+	 */
+	double getConfidence();
+}
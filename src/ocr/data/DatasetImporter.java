@@ -0,0 +1,491 @@
+package ocr.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+
+import ocr.info.Constants;
+
+/**
+ * Imports large image datasets, such as EMNIST letters, into a TrainingSet.
+ * Two formats are read:
+ *
+ * - IDX (the MNIST format): an images file of unsigned byte pixels and a labels
+ *   file of unsigned byte labels, either of them optionally gzipped (.gz)
+ * - CSV: a line per image, the label then the pixels (0 to 255) row by row, the
+ *   image being square. A header line is skipped, and the label can be the
+ *   letter itself instead of a number
+ *
+ * The files are streamed a batch of images at a time. Each batch is
+ * thresholded and downsampled to the set's grid size (see GridRasterizer) on
+ * its own worker thread while the next batches are read, and the Grids are
+ * added to the set in file order. Only a few batches are held at once, so
+ * memory stays the same however large the files are.
+ *
+ * Numeric labels are turned into letters by adding the label offset, so by
+ * default the EMNIST letters labels 1 to 26 become A to Z. Images whose label is
+ * not a letter the Network recognizes are skipped.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class DatasetImporter {
+	// public constants
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+	public static final int DEFAULT_LABEL_OFFSET = 'A' - 1;
+
+	// private constants
+	private static final int IDX_IMAGES = 0x00000803;
+	private static final int IDX_LABELS = 0x00000801;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int NO_LABEL = -1;
+
+	// instance variables
+	private int _threshold = GridRasterizer.DEFAULT_THRESHOLD;
+	private int _labelOffset = DEFAULT_LABEL_OFFSET;
+	private boolean _transposed = false;
+	private boolean _crop = false;
+	private int _batchSize = DEFAULT_BATCH_SIZE;
+	private int _threadCount = Runtime.getRuntime().availableProcessors();
+	private volatile long _imageCount = 0;
+	private volatile long _skippedCount = 0;
+	private volatile long _startTime = 0;
+	private volatile long _endTime = 0;
+
+	/**
+	 * Set the average ink at which a cell is set
+	 * @param threshold - threshold, from 1 to GridRasterizer.MAX_INK
+	 */
+	public void setThreshold(int threshold) {
+		_threshold = threshold;
+	}
+
+	/**
+	 * Set the number added to a numeric label to make its letter
+	 * @param labelOffset - label offset, DEFAULT_LABEL_OFFSET makes 1 to 26 into A to Z
+	 */
+	public void setLabelOffset(int labelOffset) {
+		_labelOffset = labelOffset;
+	}
+
+	/**
+	 * Set whether the images are stored column by column, as they are in EMNIST
+	 * @param transposed - true to read the pixels column by column
+	 */
+	public void setTransposed(boolean transposed) {
+		_transposed = transposed;
+	}
+
+	/**
+	 * Set whether each image is cropped to the square around its glyph before it is downsampled
+	 * @param crop - true to crop
+	 */
+	public void setCrop(boolean crop) {
+		_crop = crop;
+	}
+
+	/**
+	 * Set the number of images read and downsampled together
+	 * @param batchSize - batch size
+	 */
+	public void setBatchSize(int batchSize) {
+		_batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Set the number of threads downsampling images
+	 * @param threadCount - thread count, 1 to downsample on the importing thread
+	 */
+	public void setThreadCount(int threadCount) {
+		_threadCount = Math.max(1, threadCount);
+	}
+
+	/**
+	 * Get the number of images added to the set by the current or last import
+	 * @return image count
+	 */
+	public long getImageCount() {
+		return _imageCount;
+	}
+
+	/**
+	 * Get the number of images skipped by the current or last import, as their label was not a letter
+	 * @return skipped count
+	 */
+	public long getSkippedCount() {
+		return _skippedCount;
+	}
+
+	/**
+	 * Get the number of images read per second by the current or last import
+	 * @return images per second
+	 */
+	public double getImagesPerSecond() {
+		long start = _startTime;
+		long end = _endTime == 0 ? System.nanoTime() : _endTime;
+		if (start == 0 || end <= start) {
+			return 0.0;
+		}
+		return (_imageCount + _skippedCount) * 1e9 / (end - start);
+	}
+
+	/**
+	 * Import an IDX images file and its labels file
+	 * @param images - IDX file of the images
+	 * @param labels - IDX file of the labels
+	 * @param manager - TrainingSetManager to add the Grids to, in its grid size
+	 * @return number of images added
+	 * @throws Exception - throws an exception if the files are not IDX images and labels of the same count
+	 */
+	public long importIdx(File images, File labels, TrainingSetManager manager) throws Exception {
+		final DataInputStream imageStream = new DataInputStream(open(images));
+		final DataInputStream labelStream = new DataInputStream(open(labels));
+		try {
+			int imageMagic = imageStream.readInt();
+			final int count = imageStream.readInt();
+			int height = imageStream.readInt();
+			int width = imageStream.readInt();
+			int labelMagic = labelStream.readInt();
+			int labelCount = labelStream.readInt();
+			if (imageMagic != IDX_IMAGES || labelMagic != IDX_LABELS || labelCount != count) {
+				throw new Exception(String.format(
+						"importIdx called on DatasetImporter with invalid files, expected magic %08x and %08x with the same count not %08x and %08x with %d and %d",
+						IDX_IMAGES,
+						IDX_LABELS,
+						imageMagic,
+						labelMagic,
+						count,
+						labelCount));
+			}
+
+			return run(new BatchReader() {
+				private int _read = 0;
+
+				@Override
+				public int read(Batch batch) throws Exception {
+					int n = Math.min(batch._labels.length, count - _read);
+					imageStream.readFully(batch._ink, 0, n * batch._pixelCount);
+					for (int i = 0; i < n; i++) {
+						batch._labels[i] = _labelOffset + labelStream.readUnsignedByte();
+					}
+					_read += n;
+					return n;
+				}
+			}, width, height, manager);
+		} finally {
+			imageStream.close();
+			labelStream.close();
+		}
+	}
+
+	/**
+	 * Import a CSV file of labels and square images
+	 * @param csv - CSV file
+	 * @param manager - TrainingSetManager to add the Grids to, in its grid size
+	 * @return number of images added
+	 * @throws Exception - throws an exception if a line is not a label and the pixels of a square image
+	 */
+	public long importCsv(final File csv, TrainingSetManager manager) throws Exception {
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(open(csv), "US-ASCII"), BUFFER_SIZE);
+		try {
+			// a header line has names in place of pixels, the first image gives the size of every image
+			String line = reader.readLine();
+			if (line != null && !isNumber(line.substring(line.indexOf(',') + 1).split(",", 2)[0])) {
+				line = reader.readLine();
+			}
+			final int pixelCount = line == null ? 0 : line.split(",").length - 1;
+			final int side = (int) Math.round(Math.sqrt(pixelCount));
+			if (side * side != pixelCount || pixelCount == 0) {
+				throw new Exception(String.format(
+						"importCsv called on DatasetImporter with invalid file %s, expected a label and the pixels of a square image not %d pixels",
+						csv,
+						pixelCount));
+			}
+			final String first = line;
+
+			return run(new BatchReader() {
+				private String _line = first;
+				private int _lineNumber = 0;
+
+				@Override
+				public int read(Batch batch) throws Exception {
+					int n = 0;
+					while (n < batch._labels.length && _line != null) {
+						_lineNumber++;
+						parseLine(_line, _lineNumber, batch, n);
+						n++;
+						_line = reader.readLine();
+					}
+					return n;
+				}
+			}, side, side, manager);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Read, downsample and add every image, keeping a few batches downsampling at once
+	 * @param reader - reads the next batch of images
+	 * @param width - width of every image
+	 * @param height - height of every image
+	 * @param manager - TrainingSetManager to add the Grids to
+	 * @return number of images added
+	 * @throws Exception
+	 */
+	private long run(BatchReader reader, int width, int height, TrainingSetManager manager) throws Exception {
+		final GridRasterizer rasterizer = new GridRasterizer(manager.getGridSize(), _threshold, _crop);
+		ExecutorService executor = _threadCount == 1 ? null : Executors.newFixedThreadPool(_threadCount, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "DatasetImporter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		_imageCount = 0;
+		_skippedCount = 0;
+		_endTime = 0;
+		_startTime = System.nanoTime();
+		try {
+			// two batches per thread in flight, so a thread never waits for the next batch to be read
+			int maxInFlight = executor == null ? 1 : 2 * _threadCount;
+			ArrayDeque<Future<Batch>> inFlight = new ArrayDeque<Future<Batch>>();
+			ArrayDeque<Batch> free = new ArrayDeque<Batch>();
+			while (true) {
+				final Batch batch = free.isEmpty() ? new Batch(_batchSize, width, height, rasterizer.getWordCount()) : free.poll();
+				batch._count = reader.read(batch);
+				if (batch._count == 0) {
+					break;
+				}
+
+				Callable<Batch> task = new Callable<Batch>() {
+					@Override
+					public Batch call() {
+						rasterize(rasterizer, batch);
+						return batch;
+					}
+				};
+				if (executor == null) {
+					add(task.call(), manager);
+					free.add(batch);
+					continue;
+				}
+
+				inFlight.add(executor.submit(task));
+				if (inFlight.size() >= maxInFlight) {
+					Batch done = inFlight.poll().get();
+					add(done, manager);
+					free.add(done);
+				}
+			}
+
+			while (!inFlight.isEmpty()) {
+				add(inFlight.poll().get(), manager);
+			}
+		} finally {
+			_endTime = System.nanoTime();
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+		return _imageCount;
+	}
+
+	/**
+	 * Downsample every image of a batch
+	 * @param rasterizer - GridRasterizer to downsample with
+	 * @param batch - batch of images
+	 */
+	private void rasterize(GridRasterizer rasterizer, Batch batch) {
+		int wordCount = rasterizer.getWordCount();
+		long[] words = new long[wordCount];
+		for (int i = 0; i < batch._count; i++) {
+			byte[] ink = batch._ink;
+			int offset = i * batch._pixelCount;
+			if (_transposed) {
+				for (int y = 0; y < batch._height; y++) {
+					for (int x = 0; x < batch._width; x++) {
+						batch._scratch[y * batch._width + x] = ink[offset + x * batch._height + y];
+					}
+				}
+				ink = batch._scratch;
+				offset = 0;
+			}
+
+			rasterizer.rasterize(ink, offset, batch._width, batch._height, words);
+			System.arraycopy(words, 0, batch._words, i * wordCount, wordCount);
+		}
+	}
+
+	/**
+	 * Add the Grids of a downsampled batch to the set, skipping labels that are not letters
+	 * @param batch - downsampled batch
+	 * @param manager - TrainingSetManager to add to
+	 * @throws Exception
+	 */
+	private void add(Batch batch, TrainingSetManager manager) throws Exception {
+		int wordCount = batch._words.length / batch._labels.length;
+		long[] words = new long[wordCount];
+		long added = 0;
+		for (int i = 0; i < batch._count; i++) {
+			int label = batch._labels[i];
+			if (!isLetter(label)) {
+				continue;
+			}
+			System.arraycopy(batch._words, i * wordCount, words, 0, wordCount);
+			manager.add(words, (char) label);
+			added++;
+		}
+		_imageCount += added;
+		_skippedCount += batch._count - added;
+	}
+
+	/**
+	 * Parse a CSV line into a batch
+	 * @param line - line to parse
+	 * @param lineNumber - number of the line among the images, for errors
+	 * @param batch - batch to fill
+	 * @param index - index of the image in the batch
+	 * @throws Exception - throws an exception if the line is not a label and the pixels of an image
+	 */
+	private void parseLine(String line, int lineNumber, Batch batch, int index) throws Exception {
+		int comma = line.indexOf(',');
+		String label = comma < 0 ? line : line.substring(0, comma).trim();
+		if (isNumber(label)) {
+			batch._labels[index] = _labelOffset + Integer.parseInt(label);
+		} else {
+			batch._labels[index] = label.length() == 1 ? Character.toUpperCase(label.charAt(0)) : NO_LABEL;
+		}
+
+		int pixel = index * batch._pixelCount;
+		int end = pixel + batch._pixelCount;
+		int value = 0;
+		boolean inValue = false;
+		for (int i = comma + 1; i <= line.length(); i++) {
+			char c = i == line.length() ? ',' : line.charAt(i);
+			if (c >= '0' && c <= '9') {
+				value = value * 10 + c - '0';
+				inValue = true;
+			} else if (c == ',') {
+				if (pixel == end || !inValue) {
+					pixel = -1;
+					break;
+				}
+				batch._ink[pixel++] = (byte) Math.min(value, GridRasterizer.MAX_INK);
+				value = 0;
+				inValue = false;
+			}
+		}
+
+		if (pixel != end) {
+			throw new Exception(String.format(
+					"importCsv called on DatasetImporter with invalid line %d, expected a label and %d pixels",
+					lineNumber,
+					batch._pixelCount));
+		}
+	}
+
+	/**
+	 * Check if a label is a letter the Network recognizes
+	 * @param label - label to check
+	 * @return true if it is one of Constants.OUTPUT
+	 */
+	private static boolean isLetter(int label) {
+		for (Character c : Constants.OUTPUT) {
+			if (c != 0 && c == label) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check if a CSV field is a number
+	 * @param field - field to check
+	 * @return true if it is made of digits only
+	 */
+	private static boolean isNumber(String field) {
+		field = field.trim();
+		if (field.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < field.length(); i++) {
+			if (!Character.isDigit(field.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Open a file for streaming, unzipping it if it is gzipped
+	 * @param file - File to open
+	 * @return InputStream
+	 * @throws Exception
+	 */
+	private static InputStream open(File file) throws Exception {
+		InputStream is = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+		if (file.getName().endsWith(".gz")) {
+			is = new BufferedInputStream(new GZIPInputStream(is, BUFFER_SIZE), BUFFER_SIZE);
+		}
+		return is;
+	}
+
+	/**
+	 * Reads the next batch of images of a file
+	 */
+	private interface BatchReader {
+		/**
+		 * Fill a batch with the next images and their labels
+		 * @param batch - batch to fill
+		 * @return number of images read, 0 at the end of the file
+		 * @throws Exception
+		 */
+		int read(Batch batch) throws Exception;
+	}
+
+	/**
+	 * The images of a batch and the Grids they are downsampled to, reused from batch to batch
+	 */
+	private static class Batch {
+		// instance variables
+		private int _width;
+		private int _height;
+		private int _pixelCount;
+		private byte[] _ink;
+		private byte[] _scratch;
+		private int[] _labels;
+		private long[] _words;
+		private int _count = 0;
+
+		/**
+		 * Constructor
+		 * @param batchSize - number of images in the batch
+		 * @param width - width of every image
+		 * @param height - height of every image
+		 * @param wordCount - number of longs holding the cells of a Grid
+		 */
+		public Batch(int batchSize, int width, int height, int wordCount) {
+			_width = width;
+			_height = height;
+			_pixelCount = width * height;
+			_ink = new byte[batchSize * _pixelCount];
+			_scratch = new byte[_pixelCount];
+			_labels = new int[batchSize];
+			_words = new long[batchSize * wordCount];
+		}
+	}
+}
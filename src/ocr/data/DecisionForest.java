@@ -0,0 +1,418 @@
+package ocr.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ocr.info.Constants;
+import ocr.info.Grid;
+
+/**
+ * A random forest of decision trees over packed 8x8 Grids. Every internal node
+ * tests a single cell of the Grid, so recognizing a Grid is a handful of shift
+ * and mask branches per tree, which is much cheaper than firing a Network.
+ *
+ * The trees are trained in parallel (one task per tree) on bootstrap samples of
+ * a TrainingSet, each split picks the best of a random subset of cells by Gini
+ * impurity. All trees are stored in a single flat array of nodes in pre-order,
+ * so the left child of a node is always the next node:
+ *  - internal node: (index of right child << 6) | cell tested
+ *  - leaf: ~(index of the class in Constants.OUTPUT)
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class DecisionForest implements Recognizer, Serializable {
+	/**
+	 * generated Serial Version UID
+	 */
+	private static final long serialVersionUID = -3327014185938251703L;
+
+	// public constants
+	public static final int DEFAULT_TREE_COUNT = 32;
+	public static final int DEFAULT_MAX_DEPTH = 16;
+
+	// private constants
+	private static final int CLASS_COUNT = Constants.OUTPUT.length;
+	private static final int CELL_COUNT = Long.SIZE;
+	private static final int CELL_BITS = 6;
+	private static final int CELL_MASK = CELL_COUNT - 1;
+	private static final int FEATURES_PER_SPLIT = 8;
+	private static final int MIN_SAMPLES_SPLIT = 2;
+
+	// instance variables
+	private int[] _nodes;
+	private int[] _roots;
+
+	/**
+	 * Constructor - trains a forest with the default size
+	 * @param trainingSet - TrainingSet to train with, Grids must be at most 8x8
+	 * @param seed - seed for the bootstrap samples and cell subsets, so training is reproducible
+	 * @throws Exception
+	 */
+	public DecisionForest(TrainingSetManager trainingSet, long seed) throws Exception {
+		this(trainingSet, DEFAULT_TREE_COUNT, DEFAULT_MAX_DEPTH, seed);
+	}
+
+	/**
+	 * Constructor - trains a forest
+	 * @param trainingSet - TrainingSet to train with, Grids must be at most 8x8
+	 * @param treeCount - number of trees in the forest
+	 * @param maxDepth - maximum depth of each tree
+	 * @param seed - seed for the bootstrap samples and cell subsets, so training is reproducible
+	 * @throws Exception
+	 */
+	public DecisionForest(TrainingSetManager trainingSet, int treeCount, final int maxDepth, final long seed) throws Exception {
+		if (trainingSet.getCount() == 0) {
+			throw new Exception("DecisionForest created with an empty TrainingSet");
+		}
+
+		// pack the set once, every tree only reads it
+		final int count = trainingSet.getCount();
+		if (trainingSet.getGridSize() > Grid.MAX_LONG_SIZE) {
+			throw new Exception(String.format(
+					"DecisionForest created with invalid TrainingSet, expected grid size to be within %d not %d",
+					Grid.MAX_LONG_SIZE,
+					trainingSet.getGridSize()));
+		}
+		final long[] bits = new long[count];
+		final int[] classes = new int[count];
+		GridSource source = trainingSet.getGridSource();
+		long[] words = new long[1];
+		source.reset();
+		for (int i = 0; i < count; i++) {
+			source.nextGrid(words);
+			bits[i] = words[0];
+			classes[i] = classIndex(source.getValue());
+		}
+
+		// grow every tree as its own task
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(treeCount, Runtime.getRuntime().availableProcessors()));
+		List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+		try {
+			for (int t = 0; t < treeCount; t++) {
+				final int tree = t;
+				futures.add(executor.submit(new Callable<int[]>() {
+					@Override
+					public int[] call() {
+						TreeBuilder builder = new TreeBuilder(bits, classes, maxDepth, new Random(seed + tree));
+						return builder.build();
+					}
+				}));
+			}
+
+			// lay the trees out one after the other, moving right child indexes by the tree's offset
+			ArrayList<int[]> trees = new ArrayList<int[]>();
+			int nodeCount = 0;
+			for (Future<int[]> future : futures) {
+				int[] tree = future.get();
+				trees.add(tree);
+				nodeCount += tree.length;
+			}
+
+			_nodes = new int[nodeCount];
+			_roots = new int[treeCount];
+			int offset = 0;
+			for (int t = 0; t < treeCount; t++) {
+				int[] tree = trees.get(t);
+				_roots[t] = offset;
+				for (int i = 0; i < tree.length; i++) {
+					int node = tree[i];
+					if (node >= 0) {
+						node += offset << CELL_BITS;
+					}
+					_nodes[offset + i] = node;
+				}
+				offset += tree.length;
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Get number of trees in the forest
+	 * @return tree count
+	 */
+	public int getTreeCount() {
+		return _roots.length;
+	}
+
+	/**
+	 * Get number of nodes across all trees in the forest
+	 * @return node count
+	 */
+	public int getNodeCount() {
+		return _nodes.length;
+	}
+
+	/**
+	 * Process a Grid through the forest
+	 * @param grid - Grid to process, must be at most 8x8
+	 * @return char with the most votes
+	 * @throws Exception
+	 */
+	@Override
+	public char process(Grid grid) throws Exception {
+		return process(GridProcessor.packGrid(grid));
+	}
+
+	/**
+	 * Process a packed Grid through the forest
+	 * @param bits - packed Grid
+	 * @return char with the most votes
+	 */
+	public char process(long bits) {
+		int[] votes = vote(bits);
+		int best = 0;
+		for (int i = 1; i < votes.length; i++) {
+			if (votes[i] > votes[best]) {
+				best = i;
+			}
+		}
+		return Constants.OUTPUT[best];
+	}
+
+	/**
+	 * Count the votes of every tree for a packed Grid
+	 * @param bits - packed Grid
+	 * @return votes, indexed like Constants.OUTPUT
+	 */
+	public int[] vote(long bits) {
+		int[] votes = new int[CLASS_COUNT];
+		for (int t = 0; t < _roots.length; t++) {
+			int i = _roots[t];
+			int node;
+			while ((node = _nodes[i]) >= 0) {
+				if (((bits >>> (node & CELL_MASK)) & 1L) != 0) {
+					i = node >>> CELL_BITS;
+				} else {
+					i++;
+				}
+			}
+			votes[~node]++;
+		}
+		return votes;
+	}
+
+	/**
+	 * Save the forest to a file
+	 * @param file - File to save
+	 * @throws Exception
+	 */
+	public void save(File file) throws Exception {
+		FileOutputStream fs = new FileOutputStream(file);
+		ObjectOutputStream os = new ObjectOutputStream(fs);
+		os.writeObject(this);
+		os.close();
+	}
+
+	/**
+	 * Load a forest from a file
+	 * @param file - File to load
+	 * @return DecisionForest
+	 * @throws Exception
+	 */
+	public static DecisionForest load(File file) throws Exception {
+		FileInputStream fs = new FileInputStream(file);
+		ObjectInputStream os = new ObjectInputStream(fs);
+		Object obj = os.readObject();
+		os.close();
+
+		return (DecisionForest)obj;
+	}
+
+	/**
+	 * Get the index of an expected value in Constants.OUTPUT
+	 * @param value - 0 or a capital letter
+	 * @return class index
+	 * @throws Exception - throws an exception if value is not in Constants.OUTPUT
+	 */
+	private static int classIndex(char value) throws Exception {
+		for (int i = 0; i < CLASS_COUNT; i++) {
+			if (Constants.OUTPUT[i] == value) {
+				return i;
+			}
+		}
+		throw new Exception(String.format("DecisionForest called with invalid value %d", (int)value));
+	}
+
+	/**
+	 * Grows a single tree on a bootstrap sample, the nodes are added in pre-order
+	 */
+	private static class TreeBuilder {
+		// instance variables
+		private long[] _bits;
+		private int[] _classes;
+		private int[] _samples;
+		private int _maxDepth;
+		private Random _rnd;
+		private int[] _tree = new int[64];
+		private int _size = 0;
+
+		/**
+		 * Constructor - draws the bootstrap sample
+		 * @param bits - packed Grids of the whole set
+		 * @param classes - class of each Grid
+		 * @param maxDepth - maximum depth of the tree
+		 * @param rnd - Random to draw the sample and cell subsets with
+		 */
+		public TreeBuilder(long[] bits, int[] classes, int maxDepth, Random rnd) {
+			_bits = bits;
+			_classes = classes;
+			_maxDepth = maxDepth;
+			_rnd = rnd;
+			_samples = new int[bits.length];
+			for (int i = 0; i < _samples.length; i++) {
+				_samples[i] = _rnd.nextInt(bits.length);
+			}
+		}
+
+		/**
+		 * Grow the tree
+		 * @return nodes of the tree, right child indexes are relative to the tree
+		 */
+		public int[] build() {
+			grow(0, _samples.length, 0);
+			return Arrays.copyOf(_tree, _size);
+		}
+
+		/**
+		 * Grow the node for a range of samples, and its children
+		 * @param start - first sample of the node
+		 * @param end - sample after the last one of the node
+		 * @param depth - depth of the node
+		 */
+		private void grow(int start, int end, int depth) {
+			int[] counts = countClasses(start, end);
+			int majority = 0;
+			for (int c = 1; c < CLASS_COUNT; c++) {
+				if (counts[c] > counts[majority]) {
+					majority = c;
+				}
+			}
+
+			// stop at a pure node, a small node or the maximum depth
+			int cell = -1;
+			if (counts[majority] < end - start && end - start >= MIN_SAMPLES_SPLIT && depth < _maxDepth) {
+				cell = findSplit(start, end);
+			}
+			if (cell < 0) {
+				addNode(~majority);
+				return;
+			}
+
+			// samples without the cell set go left, with it set go right
+			int middle = start;
+			for (int i = start; i < end; i++) {
+				if (((_bits[_samples[i]] >>> cell) & 1L) == 0) {
+					int swap = _samples[middle];
+					_samples[middle] = _samples[i];
+					_samples[i] = swap;
+					middle++;
+				}
+			}
+
+			int node = addNode(0);
+			grow(start, middle, depth + 1);
+			_tree[node] = (_size << CELL_BITS) | cell;
+			grow(middle, end, depth + 1);
+		}
+
+		/**
+		 * Find the cell (out of a random subset) that splits the samples with the lowest Gini impurity
+		 * @param start - first sample of the node
+		 * @param end - sample after the last one of the node
+		 * @return cell, -1 if none of the cells split the samples
+		 */
+		private int findSplit(int start, int end) {
+			int bestCell = -1;
+			double bestImpurity = Double.MAX_VALUE;
+			int[] setCounts = new int[CLASS_COUNT];
+			int[] clearCounts = new int[CLASS_COUNT];
+
+			for (int f = 0; f < FEATURES_PER_SPLIT; f++) {
+				int cell = _rnd.nextInt(CELL_COUNT);
+				Arrays.fill(setCounts, 0);
+				Arrays.fill(clearCounts, 0);
+				int setCount = 0;
+				for (int i = start; i < end; i++) {
+					int sample = _samples[i];
+					if (((_bits[sample] >>> cell) & 1L) != 0) {
+						setCounts[_classes[sample]]++;
+						setCount++;
+					} else {
+						clearCounts[_classes[sample]]++;
+					}
+				}
+
+				int clearCount = (end - start) - setCount;
+				if (setCount == 0 || clearCount == 0) {
+					continue;
+				}
+
+				double impurity = setCount * gini(setCounts, setCount) + clearCount * gini(clearCounts, clearCount);
+				if (impurity < bestImpurity) {
+					bestImpurity = impurity;
+					bestCell = cell;
+				}
+			}
+
+			return bestCell;
+		}
+
+		/**
+		 * Calculate the Gini impurity of a set of class counts
+		 * @param counts - number of samples of each class
+		 * @param total - number of samples
+		 * @return impurity
+		 */
+		private double gini(int[] counts, int total) {
+			double sum = 0.0;
+			for (int c = 0; c < CLASS_COUNT; c++) {
+				double p = (double)counts[c] / total;
+				sum += p * p;
+			}
+			return 1.0 - sum;
+		}
+
+		/**
+		 * Count the samples of each class in a range
+		 * @param start - first sample
+		 * @param end - sample after the last one
+		 * @return counts
+		 */
+		private int[] countClasses(int start, int end) {
+			int[] counts = new int[CLASS_COUNT];
+			for (int i = start; i < end; i++) {
+				counts[_classes[_samples[i]]]++;
+			}
+			return counts;
+		}
+
+		/**
+		 * Append a node to the tree
+		 * @param node - encoded node
+		 * @return index of the node
+		 */
+		private int addNode(int node) {
+			if (_size == _tree.length) {
+				_tree = Arrays.copyOf(_tree, _tree.length * 2);
+			}
+			_tree[_size] = node;
+			return _size++;
+		}
+	}
+}
@@ -0,0 +1,541 @@
+package ocr.data;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+import ocr.info.Grid;
+
+/**
+ * Recognizes whole lines and pages of text with a Recognizer that reads one
+ * letter at a time. The image (dark ink on a light background, see
+ * GridRasterizer) is segmented in steps:
+ *
+ * - lines are the runs of rows with ink in them (the rows' projection profile)
+ * - within a line, the letters are its connected components of ink. Components
+ *   that overlap across most of the narrower one's width are pieces of the same
+ *   broken letter and are joined, specks smaller than the minimum component size
+ *   are dropped, and a box much wider than it is tall (letters touching each
+ *   other) is split at the column with the least ink (the columns' projection
+ *   profile)
+ * - a gap between letters wider than the word gap (a share of the line's
+ *   height) starts a new word
+ *
+ * Each letter is cropped to its own ink and rasterized into a Grid. Lines are
+ * segmented in parallel, a thread per core, while the Grids of the lines already
+ * segmented are recognized in reading order. A BatchRecognizer (such as a
+ * NetworkManager) gets them in batches, each fired through the Network at once,
+ * any other Recognizer gets them one at a time. The Recognizer itself is only
+ * called from the thread calling recognize(), so any Recognizer can be used. The
+ * result has a line of text per line found, with UNKNOWN for every letter that
+ * was not recognized.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class DocumentRecognizer {
+	// public constants
+	public static final char UNKNOWN = '?';
+	public static final int DEFAULT_BATCH_SIZE = 64;
+	public static final double DEFAULT_WORD_GAP = 0.35;
+	public static final int DEFAULT_MIN_COMPONENT_SIZE = 4;
+
+	// private constants
+	private static final double MAX_LETTER_ASPECT = 1.5;
+
+	// instance variables
+	private Recognizer _recognizer;
+	private GridRasterizer _rasterizer;
+	private int _batchSize = DEFAULT_BATCH_SIZE;
+	private double _wordGap = DEFAULT_WORD_GAP;
+	private int _minComponentSize = DEFAULT_MIN_COMPONENT_SIZE;
+	private ExecutorService _executor = null;
+	private int _lineCount = 0;
+	private int _letterCount = 0;
+
+	/**
+	 * Constructor - letters are set at GridRasterizer.DEFAULT_THRESHOLD
+	 * @param recognizer - Recognizer of the letters
+	 * @param gridSize - size of a side of the Grids the Recognizer processes
+	 */
+	public DocumentRecognizer(Recognizer recognizer, int gridSize) {
+		this(recognizer, gridSize, GridRasterizer.DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Constructor
+	 * @param recognizer - Recognizer of the letters
+	 * @param gridSize - size of a side of the Grids the Recognizer processes
+	 * @param threshold - ink at which a pixel is part of a letter, and average ink at which a cell is set
+	 */
+	public DocumentRecognizer(Recognizer recognizer, int gridSize, int threshold) {
+		_recognizer = recognizer;
+		_rasterizer = new GridRasterizer(gridSize, threshold, true);
+	}
+
+	/**
+	 * Set the number of Grids passed to a BatchRecognizer at once
+	 * @param batchSize - batch size
+	 */
+	public void setBatchSize(int batchSize) {
+		_batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Set the gap between letters that starts a new word
+	 * @param wordGap - gap, as a share of the line's height
+	 */
+	public void setWordGap(double wordGap) {
+		_wordGap = wordGap;
+	}
+
+	/**
+	 * Set the number of pixels below which a connected component is a speck and dropped
+	 * @param minComponentSize - pixel count
+	 */
+	public void setMinComponentSize(int minComponentSize) {
+		_minComponentSize = minComponentSize;
+	}
+
+	/**
+	 * Get the number of lines found in the last image
+	 * @return line count
+	 */
+	public synchronized int getLineCount() {
+		return _lineCount;
+	}
+
+	/**
+	 * Get the number of letters found in the last image
+	 * @return letter count
+	 */
+	public synchronized int getLetterCount() {
+		return _letterCount;
+	}
+
+	/**
+	 * Recognize the text of an image file
+	 * @param file - image file of dark ink on a light background
+	 * @return text, a line per line found
+	 * @throws Exception - throws an exception if the file can't be read as an image
+	 */
+	public String recognize(File file) throws Exception {
+		BufferedImage image = ImageIO.read(file);
+		if (image == null) {
+			throw new Exception(String.format("recognize called on DocumentRecognizer with invalid file %s, expected an image", file));
+		}
+		return recognize(image);
+	}
+
+	/**
+	 * Recognize the text of an image
+	 * @param image - image of dark ink on a light background
+	 * @return text, a line per line found
+	 * @throws Exception
+	 */
+	public String recognize(BufferedImage image) throws Exception {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		byte[] ink = new byte[width * height];
+		GridRasterizer.readInk(image, ink);
+		return recognize(ink, width, height);
+	}
+
+	/**
+	 * Recognize the text of an image
+	 * @param ink - ink of each pixel, row by row, 0 for blank and GridRasterizer.MAX_INK (as an unsigned byte) for full ink
+	 * @param width - width of the image
+	 * @param height - height of the image
+	 * @return text, a line per line found
+	 * @throws Exception
+	 */
+	public String recognize(final byte[] ink, final int width, int height) throws Exception {
+		// lines are the runs of rows with ink
+		List<int[]> lines = new ArrayList<int[]>();
+		int top = -1;
+		for (int y = 0; y <= height; y++) {
+			boolean hasInk = y < height && hasInk(ink, y * width, width);
+			if (hasInk && top < 0) {
+				top = y;
+			} else if (!hasInk && top >= 0) {
+				lines.add(new int[] { top, y });
+				top = -1;
+			}
+		}
+
+		// segment the lines in parallel, a line per task, no point handing them to other threads when there is only one core
+		List<Future<Line>> futures = new ArrayList<Future<Line>>();
+		boolean isParallel = lines.size() > 1 && Runtime.getRuntime().availableProcessors() > 1;
+		for (final int[] line : lines) {
+			if (isParallel) {
+				futures.add(getExecutor().submit(new Callable<Line>() {
+					@Override
+					public Line call() {
+						return segment(ink, width, line[0], line[1]);
+					}
+				}));
+			}
+		}
+
+		// recognize the letters in batches, in reading order, as their lines are segmented
+		StringBuilder text = new StringBuilder();
+		Grid[] batch = new Grid[_batchSize];
+		int[] positions = new int[_batchSize];
+		char[] results = new char[_batchSize];
+		int batchCount = 0;
+		int lineCount = 0;
+		int letterCount = 0;
+		for (int l = 0; l < lines.size(); l++) {
+			Line line = isParallel ? futures.get(l).get() : segment(ink, width, lines.get(l)[0], lines.get(l)[1]);
+			if (line._grids.isEmpty()) {
+				continue;
+			}
+			if (text.length() > 0) {
+				text.append('\n');
+			}
+
+			for (int i = 0; i < line._grids.size(); i++) {
+				if (line._wordStarts.get(i) && i > 0) {
+					text.append(' ');
+				}
+				positions[batchCount] = text.length();
+				batch[batchCount++] = line._grids.get(i);
+				text.append(UNKNOWN);
+				if (batchCount == _batchSize) {
+					recognizeBatch(batch, positions, results, batchCount, text);
+					batchCount = 0;
+				}
+			}
+			lineCount++;
+			letterCount += line._grids.size();
+		}
+		recognizeBatch(batch, positions, results, batchCount, text);
+
+		synchronized (this) {
+			_lineCount = lineCount;
+			_letterCount = letterCount;
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Stop the worker threads, they are started again when needed
+	 */
+	public synchronized void shutdown() {
+		if (_executor != null) {
+			_executor.shutdown();
+			_executor = null;
+		}
+	}
+
+	/**
+	 * Recognize a batch of Grids, all at once with a BatchRecognizer, and write their letters into the text
+	 * @param batch - Grids to recognize
+	 * @param positions - index in the text of each Grid's letter
+	 * @param results - array to recognize the letters into
+	 * @param count - number of Grids in the batch
+	 * @param text - text to write the letters into
+	 * @throws Exception
+	 */
+	private void recognizeBatch(Grid[] batch, int[] positions, char[] results, int count, StringBuilder text) throws Exception {
+		if (count == 0) {
+			return;
+		}
+		if (_recognizer instanceof BatchRecognizer) {
+			((BatchRecognizer) _recognizer).process(batch, count, results);
+		} else {
+			for (int i = 0; i < count; i++) {
+				results[i] = _recognizer.process(batch[i]);
+			}
+		}
+
+		for (int i = 0; i < count; i++) {
+			if (results[i] != 0) {
+				text.setCharAt(positions[i], results[i]);
+			}
+			batch[i] = null;
+		}
+	}
+
+	/**
+	 * Segment a line into letters and rasterize each one
+	 * @param ink - ink of the image
+	 * @param width - width of the image
+	 * @param top - first row of the line
+	 * @param bottom - row after the last row of the line
+	 * @return Line
+	 */
+	private Line segment(byte[] ink, int width, int top, int bottom) {
+		int height = bottom - top;
+		int threshold = _rasterizer.getThreshold();
+
+		// label the connected components of ink (touching in any of 8 directions), joining
+		// labels that turn out to be the same component with union-find
+		int[] labels = new int[width * height];
+		int[] parents = new int[64];
+		int labelCount = 1;
+		for (int y = 0; y < height; y++) {
+			int row = (top + y) * width;
+			for (int x = 0; x < width; x++) {
+				if ((ink[row + x] & 0xFF) < threshold) {
+					continue;
+				}
+				int label = 0;
+				int i = y * width + x;
+				if (x > 0) {
+					label = join(parents, label, labels[i - 1]);
+				}
+				if (y > 0) {
+					if (x > 0) {
+						label = join(parents, label, labels[i - width - 1]);
+					}
+					label = join(parents, label, labels[i - width]);
+					if (x + 1 < width) {
+						label = join(parents, label, labels[i - width + 1]);
+					}
+				}
+				if (label == 0) {
+					if (labelCount == parents.length) {
+						parents = Arrays.copyOf(parents, parents.length * 2);
+					}
+					parents[labelCount] = labelCount;
+					label = labelCount++;
+				}
+				labels[i] = label;
+			}
+		}
+
+		// bounding box and size of each component, by its root label
+		int[] left = new int[labelCount];
+		int[] right = new int[labelCount];
+		int[] sizes = new int[labelCount];
+		Arrays.fill(left, width);
+		Arrays.fill(right, -1);
+		for (int i = 0; i < labels.length; i++) {
+			if (labels[i] != 0) {
+				int root = find(parents, labels[i]);
+				labels[i] = root;
+				int x = i % width;
+				left[root] = Math.min(left[root], x);
+				right[root] = Math.max(right[root], x);
+				sizes[root]++;
+			}
+		}
+
+		// letters from left to right, joining components that overlap across most of the narrower one
+		List<int[]> components = new ArrayList<int[]>();
+		for (int label = 1; label < labelCount; label++) {
+			if (parents[label] == label && sizes[label] >= _minComponentSize) {
+				components.add(new int[] { left[label], right[label], label });
+			}
+		}
+		Collections.sort(components, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b) {
+				return a[0] - b[0];
+			}
+		});
+
+		int[] letters = new int[labelCount];
+		List<int[]> boxes = new ArrayList<int[]>();
+		for (int[] component : components) {
+			int[] box = boxes.isEmpty() ? null : boxes.get(boxes.size() - 1);
+			if (box != null) {
+				int overlap = Math.min(box[1], component[1]) - Math.max(box[0], component[0]) + 1;
+				int narrower = Math.min(box[1] - box[0], component[1] - component[0]) + 1;
+				if (2 * overlap >= narrower) {
+					box[1] = Math.max(box[1], component[1]);
+					letters[component[2]] = boxes.size();
+					continue;
+				}
+			}
+			boxes.add(new int[] { component[0], component[1] });
+			letters[component[2]] = boxes.size();
+		}
+
+		// rasterize each letter from its own ink only, splitting letters that touch
+		Line line = new Line();
+		int previousRight = -1;
+		for (int b = 0; b < boxes.size(); b++) {
+			int[] box = boxes.get(b);
+			byte[] letter = new byte[(box[1] - box[0] + 1) * height];
+			int letterWidth = box[1] - box[0] + 1;
+			for (int y = 0; y < height; y++) {
+				for (int x = box[0]; x <= box[1]; x++) {
+					int label = labels[y * width + x];
+					if (label != 0 && letters[label] == b + 1) {
+						letter[y * letterWidth + x - box[0]] = ink[(top + y) * width + x];
+					}
+				}
+			}
+
+			boolean isWordStart = previousRight >= 0 && box[0] - previousRight - 1 > _wordGap * height;
+			addLetters(line, letter, letterWidth, height, 0, letterWidth, isWordStart);
+			previousRight = box[1];
+		}
+		return line;
+	}
+
+	/**
+	 * Rasterize the columns of a letter's box into Grids, splitting it at the column with the
+	 * least ink while it is too wide for a single letter
+	 * @param line - Line to add the Grids to
+	 * @param letter - ink of the letter's box
+	 * @param width - width of the box
+	 * @param height - height of the box
+	 * @param start - first column to rasterize
+	 * @param end - column after the last one to rasterize
+	 * @param isWordStart - true if the first Grid starts a word
+	 */
+	private void addLetters(Line line, byte[] letter, int width, int height, int start, int end, boolean isWordStart) {
+		// height of the ink in the columns, the letter may not fill the whole line
+		int top = height;
+		int bottom = -1;
+		for (int y = 0; y < height; y++) {
+			for (int x = start; x < end; x++) {
+				if (letter[y * width + x] != 0) {
+					top = Math.min(top, y);
+					bottom = y;
+					break;
+				}
+			}
+		}
+		if (bottom < 0) {
+			return;
+		}
+
+		int inkHeight = bottom - top + 1;
+		if (end - start > MAX_LETTER_ASPECT * inkHeight) {
+			// split at the column with the least ink within the middle half
+			int split = -1;
+			int least = Integer.MAX_VALUE;
+			for (int x = start + (end - start) / 4; x < end - (end - start) / 4; x++) {
+				int columnInk = 0;
+				for (int y = top; y <= bottom; y++) {
+					columnInk += letter[y * width + x] & 0xFF;
+				}
+				if (columnInk < least) {
+					least = columnInk;
+					split = x;
+				}
+			}
+			if (split > start && split < end - 1) {
+				addLetters(line, letter, width, height, start, split, isWordStart);
+				addLetters(line, letter, width, height, split, end, false);
+				return;
+			}
+		}
+
+		byte[] columns = letter;
+		int columnsWidth = width;
+		if (start != 0 || end != width) {
+			columnsWidth = end - start;
+			columns = new byte[columnsWidth * height];
+			for (int y = 0; y < height; y++) {
+				System.arraycopy(letter, y * width + start, columns, y * columnsWidth, columnsWidth);
+			}
+		}
+
+		long[] words = new long[_rasterizer.getWordCount()];
+		_rasterizer.rasterize(columns, 0, columnsWidth, height, words);
+		line._grids.add(new Grid(_rasterizer.getGridSize(), words));
+		line._wordStarts.set(line._grids.size() - 1, isWordStart);
+	}
+
+	/**
+	 * Join the label of a pixel's neighbour into the label of the pixel
+	 * @param parents - parent of each label
+	 * @param label - label of the pixel so far, 0 if none yet
+	 * @param neighbour - label of the neighbour, 0 if it has no ink
+	 * @return label of the pixel
+	 */
+	private static int join(int[] parents, int label, int neighbour) {
+		if (neighbour == 0) {
+			return label;
+		}
+		int root = find(parents, neighbour);
+		if (label == 0) {
+			return root;
+		}
+
+		// the lower label becomes the root of both
+		label = find(parents, label);
+		if (root < label) {
+			parents[label] = root;
+			return root;
+		}
+		parents[root] = label;
+		return label;
+	}
+
+	/**
+	 * Find the root label of a component, halving the path on the way
+	 * @param parents - parent of each label
+	 * @param label - label to find the root of
+	 * @return root label
+	 */
+	private static int find(int[] parents, int label) {
+		while (parents[label] != label) {
+			parents[label] = parents[parents[label]];
+			label = parents[label];
+		}
+		return label;
+	}
+
+	/**
+	 * Check if a row of the image has ink enough to be part of a letter
+	 * @param ink - ink of the image
+	 * @param start - index of the row's first pixel
+	 * @param width - width of the image
+	 * @return true if the row has ink
+	 */
+	private boolean hasInk(byte[] ink, int start, int width) {
+		int threshold = _rasterizer.getThreshold();
+		for (int x = start; x < start + width; x++) {
+			if ((ink[x] & 0xFF) >= threshold) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the worker pool, creating it on first use with a thread per core
+	 * @return ExecutorService
+	 */
+	private synchronized ExecutorService getExecutor() {
+		if (_executor == null) {
+			// daemon threads so an abandoned recognizer never keeps the application alive
+			_executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "DocumentRecognizer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return _executor;
+	}
+
+	/**
+	 * The Grids of the letters of a line, from left to right
+	 */
+	private static class Line {
+		// instance variables
+		private List<Grid> _grids = new ArrayList<Grid>();
+		private BitSet _wordStarts = new BitSet();
+	}
+}
@@ -0,0 +1,271 @@
+package ocr.data;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import neural.net.Network;
+import ocr.info.Grid;
+
+/**
+ * Recognize a Grid with an ensemble of Networks (for example differently seeded
+ * runs of the same topology). The members are fired concurrently and their
+ * outputs are combined by averaging or by voting.
+ *
+ * The first members are fired on their own, and if all of them recognize the
+ * same letter (above Constants.CONFIDENCE) that letter is returned without
+ * firing the rest, so easy Grids cost about as much as a single Network.
+ *
+ * Each Network keeps the state of its last fire(), so process() is synchronized
+ * and a Network should not be shared with anything else while in the ensemble.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class EnsembleRecognizer implements Recognizer {
+	/**
+	 * Ways to combine the outputs of the members
+	 */
+	public enum Combination {
+		AVERAGE,
+		VOTE
+	}
+
+	// instance variables
+	private ArrayList<Network> _members = new ArrayList<Network>();
+	private Combination _combination = Combination.AVERAGE;
+	private int _agreementCount = 2;
+	private int _processCount = 0;
+	private int _shortCircuitCount = 0;
+	private ExecutorService _executor = null;
+
+	/**
+	 * Constructor - creates an empty ensemble
+	 */
+	public EnsembleRecognizer() {}
+
+	/**
+	 * Constructor - loads every Network in the ensemble from File
+	 * @param files - Files to load Networks from
+	 * @throws Exception
+	 */
+	public EnsembleRecognizer(File[] files) throws Exception {
+		for (File file : files) {
+			add(Network.load(file));
+		}
+	}
+
+	/**
+	 * Add a Network to the ensemble
+	 * @param network - Network to add
+	 * @throws Exception - throws an exception if the Network's input or output size doesn't match the ensemble
+	 */
+	public synchronized void add(Network network) throws Exception {
+		if (!_members.isEmpty() && (network.getInputCount() != _members.get(0).getInputCount()
+				|| network.getOutputCount() != _members.get(0).getOutputCount())) {
+			throw new Exception(String.format(
+					"add called on EnsembleRecognizer with invalid network, expected %d inputs and %d outputs not %d and %d",
+					_members.get(0).getInputCount(),
+					_members.get(0).getOutputCount(),
+					network.getInputCount(),
+					network.getOutputCount()));
+		}
+
+		_members.add(network);
+		shutdown();
+	}
+
+	/**
+	 * Get the number of Networks in the ensemble
+	 * @return member count
+	 */
+	public synchronized int getCount() {
+		return _members.size();
+	}
+
+	/**
+	 * Set how the outputs of the members are combined
+	 * @param combination - Combination to use
+	 */
+	public synchronized void setCombination(Combination combination) {
+		_combination = combination;
+	}
+
+	/**
+	 * Set the number of members that must agree to skip firing the rest of the ensemble
+	 * @param agreementCount - number of members, 0 to always fire every member
+	 */
+	public synchronized void setAgreementCount(int agreementCount) {
+		_agreementCount = agreementCount;
+	}
+
+	/**
+	 * Get the number of Grids processed
+	 * @return process count
+	 */
+	public synchronized int getProcessCount() {
+		return _processCount;
+	}
+
+	/**
+	 * Get the number of Grids recognized by the first members alone
+	 * @return short circuit count
+	 */
+	public synchronized int getShortCircuitCount() {
+		return _shortCircuitCount;
+	}
+
+	/**
+	 * Process a Grid through the ensemble
+	 * @param grid - Grid to process
+	 * @return char result
+	 * @throws Exception
+	 */
+	@Override
+	public synchronized char process(Grid grid) throws Exception {
+		if (_members.isEmpty()) {
+			throw new Exception("process called on EnsembleRecognizer with no networks");
+		}
+
+		_processCount++;
+		double[] inputs = GridProcessor.convertGrid(grid);
+		double[][] outputs = new double[_members.size()][];
+
+		// fire the first members and stop if they all recognize the same letter
+		int first = 0;
+		if (_agreementCount > 0 && _agreementCount < _members.size()) {
+			first = _agreementCount;
+			fire(inputs, outputs, 0, first);
+
+			char agreed = GridProcessor.convertOutput(outputs[0]);
+			boolean agree = agreed != 0;
+			for (int i = 1; i < first && agree; i++) {
+				agree = GridProcessor.convertOutput(outputs[i]) == agreed;
+			}
+			if (agree) {
+				_shortCircuitCount++;
+				return agreed;
+			}
+		}
+
+		// fire the rest of the members and combine all outputs
+		fire(inputs, outputs, first, _members.size());
+		if (_combination == Combination.VOTE) {
+			return vote(outputs);
+		}
+		return GridProcessor.convertOutput(average(outputs));
+	}
+
+	/**
+	 * Stop the worker threads, they are started again when needed
+	 */
+	public synchronized void shutdown() {
+		if (_executor != null) {
+			_executor.shutdown();
+			_executor = null;
+		}
+	}
+
+	/**
+	 * Fire a range of members concurrently
+	 * @param inputs - input to pass to each member
+	 * @param outputs - array to store the output of each member in
+	 * @param start - first member to fire
+	 * @param end - member after the last one to fire
+	 * @throws Exception
+	 */
+	private void fire(final double[] inputs, final double[][] outputs, int start, int end) throws Exception {
+		// no point handing work to other threads when there is only one core
+		if (end - start == 1 || Runtime.getRuntime().availableProcessors() == 1) {
+			for (int i = start; i < end; i++) {
+				outputs[i] = _members.get(i).fire(inputs);
+			}
+			return;
+		}
+
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (int i = start; i < end; i++) {
+			final int member = i;
+			futures.add(getExecutor().submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					outputs[member] = _members.get(member).fire(inputs);
+					return null;
+				}
+			}));
+		}
+
+		// wait for all members, rethrowing the first failure
+		for (Future<Void> future : futures) {
+			future.get();
+		}
+	}
+
+	/**
+	 * Average the outputs of every member
+	 * @param outputs - output of each member
+	 * @return averaged output
+	 */
+	private double[] average(double[][] outputs) {
+		double[] average = new double[outputs[0].length];
+		for (double[] output : outputs) {
+			for (int i = 0; i < average.length; i++) {
+				average[i] += output[i] / outputs.length;
+			}
+		}
+		return average;
+	}
+
+	/**
+	 * Let every member vote for the letter it recognizes, ties go to the letter
+	 * with the highest averaged output
+	 * @param outputs - output of each member
+	 * @return char with the most votes
+	 */
+	private char vote(double[][] outputs) {
+		// votes[0] counts members that recognized nothing
+		int[] votes = new int[outputs[0].length + 1];
+		for (double[] output : outputs) {
+			char c = GridProcessor.convertOutput(output);
+			votes[c == 0 ? 0 : c - 'A' + 1]++;
+		}
+
+		double[] average = average(outputs);
+		int best = 0;
+		for (int i = 1; i < votes.length; i++) {
+			if (votes[i] > votes[best] || (votes[i] == votes[best] && best > 0 && average[i - 1] > average[best - 1])) {
+				best = i;
+			}
+		}
+
+		if (best == 0) {
+			return 0;
+		}
+		return (char)(best - 1 + 'A');
+	}
+
+	/**
+	 * Get the worker pool, creating it on first use with a thread per member (at most one per core)
+	 * @return ExecutorService
+	 */
+	private ExecutorService getExecutor() {
+		if (_executor == null) {
+			int threadCount = Math.min(_members.size(), Runtime.getRuntime().availableProcessors());
+			// daemon threads so an abandoned ensemble never keeps the application alive
+			_executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "EnsembleRecognizer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return _executor;
+	}
+}
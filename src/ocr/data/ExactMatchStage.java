@@ -0,0 +1,119 @@
+package ocr.data;
+
+import java.util.HashMap;
+
+import ocr.info.Constants;
+import ocr.info.Grid;
+import ocr.info.TrainingGrid;
+
+/**
+ * Cascade stage that recognizes Grids that were drawn exactly the same as a
+ * known Grid, looked up in a hash table (Grids hash their packed cells).
+ *
+ * The same Grid can be known with different values, the stage returns the most
+ * common one and its confidence is the fraction of times the Grid had that value.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class ExactMatchStage implements CascadeStage {
+	// instance variables
+	private HashMap<Grid, int[]> _counts = new HashMap<Grid, int[]>();
+	private double _confidence = 0.0;
+
+	/**
+	 * Constructor - creates a stage with no known Grids
+	 */
+	public ExactMatchStage() {}
+
+	/**
+	 * Constructor - creates a stage knowing every Grid in a TrainingSet
+	 * @param trainingSet - TrainingSet to add
+	 * @throws Exception
+	 */
+	public ExactMatchStage(TrainingSetManager trainingSet) throws Exception {
+		int count = trainingSet.getCount();
+		for (int i = 0; i < count; i++) {
+			TrainingGrid t = trainingSet.getGrid(i);
+			add(t.getGrid(), t.getValue());
+		}
+	}
+
+	/**
+	 * Get the number of distinct Grids known
+	 * @return count
+	 */
+	public synchronized int getCount() {
+		return _counts.size();
+	}
+
+	/**
+	 * Add a known Grid
+	 * @param grid - Grid to add
+	 * @param value - expected value of the Grid
+	 * @throws Exception
+	 */
+	public synchronized void add(Grid grid, char value) throws Exception {
+		int[] counts = _counts.get(grid);
+		if (counts == null) {
+			// Grids can be changed, so keep a copy as the key
+			counts = new int[Constants.OUTPUT.length];
+			_counts.put(grid.clone(), counts);
+		}
+		counts[valueIndex(value)]++;
+	}
+
+	/**
+	 * Look up a Grid
+	 * @param grid - Grid to process
+	 * @return most common value of the Grid, 0 if the Grid is not known
+	 * @throws Exception
+	 */
+	@Override
+	public synchronized char process(Grid grid) throws Exception {
+		_confidence = 0.0;
+		int[] counts = _counts.get(grid);
+		if (counts == null) {
+			return 0;
+		}
+
+		int best = 0;
+		int total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			total += counts[i];
+			if (counts[i] > counts[best]) {
+				best = i;
+			}
+		}
+
+		_confidence = (double)counts[best] / total;
+		return Constants.OUTPUT[best];
+	}
+
+	/**
+	 * Get the fraction of times the last Grid processed had the value returned
+	 * @return confidence between 0 and 1
+	 */
+	@Override
+	public synchronized double getConfidence() {
+		return _confidence;
+	}
+
+	/**
+	 * Get the index of a value in Constants.OUTPUT
+	 * @param value - 0 or a capital letter
+	 * @return index
+	 * @throws Exception - throws an exception if value is not 0 or a capital letter
+	 */
+	private static int valueIndex(char value) throws Exception {
+		if (value == 0) {
+			return 0;
+		}
+		if (value < 'A' || value >= 'A' + Constants.OUTPUT.length - 1) {
+			throw new Exception(String.format(
+					"add called on ExactMatchStage with invalid value, expected 0 or a capital letter not '%c'",
+					value));
+		}
+		return value - 'A' + 1;
+	}
+}
@@ -2,7 +2,6 @@ package ocr.data;
 
 import neural.net.Network;
 import ocr.info.Constants;
-import ocr.info.Coordinate;
 import ocr.info.Grid;
 
 /**
@@ -26,18 +25,27 @@ public class GridProcessor {
 	public static double[] convertGrid(Grid grid) throws Exception {
 		int size = grid.getSize();
 		double[] inputs = new double[size * size];
+		grid.fillInputs(inputs, TRUE, FALSE);
+		return inputs;
+	}
 
-		for (int row = 0; row < size; row++) {
-			for (int col = 0; col < size; col++) {
-				if (grid.getValue(new Coordinate(row, col))) {
-					inputs[row * size + col] = TRUE;
-				} else {
-					inputs[row * size + col] = FALSE;
-				}
-			}
+	/**
+	 * Pack a Grid of up to 8x8 into the bits of a long, the cell at (row, col)
+	 * is stored in bit (row * size + col)
+	 * @param grid - Grid to pack
+	 * @return packed Grid
+	 * @throws Exception - throws an exception if the Grid is larger than 8x8
+	 */
+	public static long packGrid(Grid grid) throws Exception {
+		int size = grid.getSize();
+		if (size > Grid.MAX_LONG_SIZE) {
+			throw new Exception(String.format(
+					"packGrid called on GridProcessor with invalid grid, expected size to be within %d not %d",
+					Grid.MAX_LONG_SIZE,
+					size));
 		}
 
-		return inputs;
+		return grid.toLong();
 	}
 
 	/**
@@ -46,8 +54,18 @@ public class GridProcessor {
 	 * @return Expected Output to pass to the trainer
 	 */
 	public static double[] convertExpectedOutput(char output) {
-		// TODO: check output is 0 or a capital letter - else throw error
 		double[] expected = new double[NetworkManager.OUTPUT_SIZE];
+		fillExpectedOutput(output, expected);
+		return expected;
+	}
+
+	/**
+	 * Fill an array with the 'Expected Output' for a char, the same as convertExpectedOutput
+	 * @param output - char to convert
+	 * @param expected - array to fill, NetworkManager.OUTPUT_SIZE long
+	 */
+	public static void fillExpectedOutput(char output, double[] expected) {
+		// TODO: check output is 0 or a capital letter - else throw error
 		for (int i = 0; i < NetworkManager.OUTPUT_SIZE; i++) {
 			expected[i] = FALSE;
 		}
@@ -56,8 +74,6 @@ public class GridProcessor {
 			int index = output - 'A';
 			expected[index] = TRUE;
 		}
-
-		return expected;
 	}
 
 	/**
@@ -86,5 +102,24 @@ public class GridProcessor {
 		double[] outputs = network.fire(inputs);
 		return convertOutput(outputs);
 	}
+
+	/**
+	 * Process a batch of Grids through a Network at once (see Network.fire(double[][], int))
+	 * @param grids - Grids to process
+	 * @param count - number of Grids to process, from the start of grids
+	 * @param network - Network to process the Grids through
+	 * @param results - filled with the char result of each Grid
+	 * @throws Exception
+	 */
+	public static void process(Grid[] grids, int count, Network network, char[] results) throws Exception {
+		double[][] inputs = new double[count][];
+		for (int i = 0; i < count; i++) {
+			inputs[i] = convertGrid(grids[i]);
+		}
+		double[][] outputs = network.fire(inputs, count);
+		for (int i = 0; i < count; i++) {
+			results[i] = convertOutput(outputs[i]);
+		}
+	}
 }
 
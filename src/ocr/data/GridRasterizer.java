@@ -0,0 +1,689 @@
+package ocr.data;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+import ocr.info.Grid;
+
+/**
+ * Turns images into Grids, so letters can be recognized from captures as well
+ * as from the GridPanel. The image is divided into gridSize x gridSize areas
+ * and a cell is set when the average ink of its area (0 for blank, MAX_INK for
+ * full ink) reaches the threshold. Images are read as dark ink on a light
+ * background: the ink of a pixel is how dark it is, and transparent pixels are
+ * blank.
+ *
+ * When cropping, only the square around the glyph is divided into areas: the
+ * bounding box of the pixels whose ink reaches the threshold, widened on its
+ * shorter side so the glyph keeps its shape and stays centred, as it would be
+ * drawn on the GridPanel.
+ *
+ * The average is worked out exactly in integers: along each axis a pixel is
+ * weighted by how much of it falls within a cell, so images of any size, larger
+ * or smaller than the Grid, are averaged without floating point. The weights of
+ * the last image size are kept, so a stream of same sized images only works them
+ * out once. A GridRasterizer can be used from several threads at once.
+ *
+ * Each thread keeps its buffers (the ink of an image and the sums of the cells)
+ * from one image to the next, so rasterizing a stream of images allocates only
+ * the Grids. While the ink of an image is read, the span of pixels with ink on
+ * each row is noted, so the blank margins around a glyph are only read once.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class GridRasterizer {
+	// public constants
+	public static final int MAX_INK = 255;
+	public static final int DEFAULT_THRESHOLD = 128;
+
+	// private constants
+	private static final int WHITE = 0xFFFFFF;
+	private static final int MAX_SCRATCH_PIXELS = 1 << 20;
+	private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	// instance variables
+	private int _gridSize;
+	private int _threshold;
+	private boolean _crop;
+	private ExecutorService _executor = null;
+	private volatile Axis _columns = null;
+	private volatile Axis _rows = null;
+
+	/**
+	 * Constructor - sets cells at DEFAULT_THRESHOLD over the whole image
+	 * @param gridSize - size of a side of the Grids made
+	 */
+	public GridRasterizer(int gridSize) {
+		this(gridSize, DEFAULT_THRESHOLD, false);
+	}
+
+	/**
+	 * Constructor
+	 * @param gridSize - size of a side of the Grids made
+	 * @param threshold - average ink at which a cell is set, from 1 to MAX_INK
+	 * @param crop - true to crop to the square around the glyph, false to use the whole image
+	 */
+	public GridRasterizer(int gridSize, int threshold, boolean crop) {
+		if (threshold < 1 || threshold > MAX_INK) {
+			throw new IllegalArgumentException(String.format(
+					"GridRasterizer created with invalid threshold, expected threshold to be within 1 and %d not %d",
+					MAX_INK,
+					threshold));
+		}
+		_gridSize = gridSize;
+		_threshold = threshold;
+		_crop = crop;
+	}
+
+	/**
+	 * Get the size of a side of the Grids made
+	 * @return grid size
+	 */
+	public int getGridSize() {
+		return _gridSize;
+	}
+
+	/**
+	 * Get the average ink at which a cell is set
+	 * @return threshold
+	 */
+	public int getThreshold() {
+		return _threshold;
+	}
+
+	/**
+	 * Check whether images are cropped to the square around the glyph
+	 * @return true if they are cropped
+	 */
+	public boolean isCrop() {
+		return _crop;
+	}
+
+	/**
+	 * Get the number of longs holding the cells of a Grid
+	 * @return word count
+	 */
+	public int getWordCount() {
+		return (_gridSize * _gridSize + Long.SIZE - 1) / Long.SIZE;
+	}
+
+	/**
+	 * Make a Grid from an image
+	 * @param ink - ink of each pixel, row by row, 0 for blank and MAX_INK (as an unsigned byte) for full ink
+	 * @param width - width of the image
+	 * @param height - height of the image
+	 * @return Grid
+	 */
+	public Grid rasterize(byte[] ink, int width, int height) {
+		long[] words = new long[getWordCount()];
+		rasterize(ink, 0, width, height, words);
+		return new Grid(_gridSize, words);
+	}
+
+	/**
+	 * Make the packed cells of a Grid from an image, in the layout of Grid.toWords()
+	 * @param ink - ink of each pixel, row by row, 0 for blank and MAX_INK (as an unsigned byte) for full ink
+	 * @param offset - index of the image's first pixel in ink
+	 * @param width - width of the image
+	 * @param height - height of the image
+	 * @param words - array to fill with the packed cells, getWordCount() long
+	 */
+	public void rasterize(byte[] ink, int offset, int width, int height, long[] words) {
+		rasterize(ink, offset, width, height, null, words);
+	}
+
+	/**
+	 * Make a Grid from an image
+	 * @param image - image of dark ink on a light background
+	 * @return Grid
+	 */
+	public Grid rasterize(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		Scratch scratch = SCRATCH.get();
+		byte[] ink = scratch.ink(width * height);
+		int[] spans = scratch.spans(height);
+		readInk(image, ink, spans);
+
+		long[] words = new long[getWordCount()];
+		rasterize(ink, 0, width, height, spans, words);
+		return new Grid(_gridSize, words);
+	}
+
+	/**
+	 * Make a Grid from an image file, in any format ImageIO reads (PNG, JPEG, GIF, BMP)
+	 * @param file - image file of dark ink on a light background
+	 * @return Grid
+	 * @throws Exception - throws an exception if the file can't be read as an image
+	 */
+	public Grid rasterize(File file) throws Exception {
+		BufferedImage image = ImageIO.read(file);
+		if (image == null) {
+			throw new Exception(String.format("rasterize called on GridRasterizer with invalid file %s, expected an image", file));
+		}
+		return rasterize(image);
+	}
+
+	/**
+	 * Make a Grid from each of a batch of images, split between a thread per core
+	 * @param images - images of dark ink on a light background
+	 * @return Grid of each image, in order
+	 * @throws Exception
+	 */
+	public Grid[] rasterizeAll(final List<BufferedImage> images) throws Exception {
+		final Grid[] grids = new Grid[images.size()];
+		runAll(images.size(), new Range() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++) {
+					grids[i] = rasterize(images.get(i));
+				}
+			}
+		});
+		return grids;
+	}
+
+	/**
+	 * Read and make a Grid from each of a batch of image files, split between a thread per core
+	 * @param files - image files of dark ink on a light background
+	 * @return Grid of each image, in order
+	 * @throws Exception - throws an exception if a file can't be read as an image
+	 */
+	public Grid[] rasterizeFiles(final List<File> files) throws Exception {
+		final Grid[] grids = new Grid[files.size()];
+		runAll(files.size(), new Range() {
+			@Override
+			public void run(int start, int end) throws Exception {
+				for (int i = start; i < end; i++) {
+					grids[i] = rasterize(files.get(i));
+				}
+			}
+		});
+		return grids;
+	}
+
+	/**
+	 * Stop the worker threads, they are started again when needed
+	 */
+	public synchronized void shutdown() {
+		if (_executor != null) {
+			_executor.shutdown();
+			_executor = null;
+		}
+	}
+
+	/**
+	 * Make the packed cells of a Grid from an image, cropped to the glyph if set to
+	 * @param ink - ink of each pixel, row by row
+	 * @param offset - index of the image's first pixel in ink
+	 * @param width - width of the image
+	 * @param height - height of the image
+	 * @param spans - first column and column after the last one that may have ink of each row, ink outside them is not read, null to read every pixel
+	 * @param words - array to fill with the packed cells, getWordCount() long
+	 */
+	private void rasterize(byte[] ink, int offset, int width, int height, int[] spans, long[] words) {
+		if (!_crop) {
+			rasterize(ink, offset, width, height, spans, 0, 0, width, height, words);
+			return;
+		}
+
+		// bounding box of the glyph, each row only needs reading in from both ends to its first ink over the threshold
+		int left = width;
+		int right = -1;
+		int top = height;
+		int bottom = -1;
+		for (int y = 0; y < height; y++) {
+			int pixel = offset + y * width;
+			int from = spans == null ? 0 : spans[2 * y];
+			int to = spans == null ? width : spans[2 * y + 1];
+			int x = from;
+			while (x < to && (ink[pixel + x] & 0xFF) < _threshold) {
+				x++;
+			}
+			if (x == to) {
+				continue;
+			}
+			left = Math.min(left, x);
+			x = to - 1;
+			while ((ink[pixel + x] & 0xFF) < _threshold) {
+				x--;
+			}
+			right = Math.max(right, x);
+			top = Math.min(top, y);
+			bottom = y;
+		}
+		if (right < 0) {
+			for (int i = 0; i < words.length; i++) {
+				words[i] = 0;
+			}
+			return;
+		}
+
+		int boxWidth = right - left + 1;
+		int boxHeight = bottom - top + 1;
+		int side = Math.max(boxWidth, boxHeight);
+		rasterize(ink, offset, width, height, spans, left - (side - boxWidth) / 2, top - (side - boxHeight) / 2, side, side, words);
+	}
+
+	/**
+	 * Make the packed cells of a Grid from a square or rectangle of an image, pixels of the
+	 * area outside the image are blank
+	 * @param ink - ink of each pixel, row by row
+	 * @param offset - index of the image's first pixel in ink
+	 * @param width - width of the image
+	 * @param height - height of the image
+	 * @param spans - first column and column after the last one that may have ink of each row, ink outside them is not read, null to read every pixel
+	 * @param areaX - column of the area's top left pixel, may be outside the image
+	 * @param areaY - row of the area's top left pixel, may be outside the image
+	 * @param areaWidth - width of the area
+	 * @param areaHeight - height of the area
+	 * @param words - array to fill with the packed cells, getWordCount() long
+	 */
+	private void rasterize(byte[] ink, int offset, int width, int height, int[] spans, int areaX, int areaY, int areaWidth, int areaHeight, long[] words) {
+		Axis columns = axis(areaWidth, true);
+		Axis rows = axis(areaHeight, false);
+		Scratch scratch = SCRATCH.get();
+		long[] rowSums = scratch.rowSums(_gridSize);
+		long[] sums = scratch.sums(_gridSize * _gridSize);
+		int fromX = Math.max(0, -areaX);
+		int toX = Math.min(areaWidth, width - areaX);
+
+		for (int y = Math.max(0, -areaY); y < Math.min(areaHeight, height - areaY); y++) {
+			// weigh the pixels of the row into the columns of cells they fall within
+			int pixel = offset + (areaY + y) * width + areaX;
+			int from = fromX;
+			int to = toX;
+			if (spans != null) {
+				from = Math.max(from, spans[2 * (areaY + y)] - areaX);
+				to = Math.min(to, spans[2 * (areaY + y) + 1] - areaX);
+			}
+			if (from >= to) {
+				continue;
+			}
+
+			boolean blank = true;
+			for (int x = from; x < to; x++) {
+				int value = ink[pixel + x] & 0xFF;
+				if (value != 0) {
+					blank = false;
+					for (int s = columns._starts[x]; s < columns._starts[x + 1]; s++) {
+						rowSums[columns._cells[s]] += value * columns._weights[s];
+					}
+				}
+			}
+			if (blank) {
+				continue;
+			}
+
+			// then weigh the row into the rows of cells it falls within, clearing the row for the next one
+			for (int s = rows._starts[y]; s < rows._starts[y + 1]; s++) {
+				int cell = rows._cells[s] * _gridSize;
+				long weight = rows._weights[s];
+				for (int col = 0; col < _gridSize; col++) {
+					sums[cell + col] += rowSums[col] * weight;
+				}
+			}
+			for (int col = 0; col < _gridSize; col++) {
+				rowSums[col] = 0;
+			}
+		}
+
+		// the weights of a cell add up to the area's width * height, the sums are cleared for the next image
+		long limit = (long) _threshold * areaWidth * areaHeight;
+		int cellCount = _gridSize * _gridSize;
+		for (int i = 0, cell = 0; i < words.length; i++) {
+			long word = 0;
+			for (int bit = 0; bit < 64 && cell < cellCount; bit++, cell++) {
+				if (sums[cell] >= limit) {
+					word |= 1L << bit;
+				}
+				sums[cell] = 0;
+			}
+			words[i] = word;
+		}
+	}
+
+	/**
+	 * Read the ink of every pixel of an image: how dark it is, scaled by how opaque it is
+	 * @param image - image to read
+	 * @param ink - array to fill, row by row
+	 */
+	static void readInk(BufferedImage image, byte[] ink) {
+		readInk(image, ink, null);
+	}
+
+	/**
+	 * Read the ink of every pixel of an image, noting the span of pixels with ink on each row
+	 * @param image - image to read
+	 * @param ink - array to fill, row by row
+	 * @param spans - array to fill with the first column and column after the last one that may
+	 *   have ink of each row (equal for blank rows), 2 * height long, ink outside the spans may
+	 *   be left unwritten, null to read every pixel
+	 */
+	private static void readInk(BufferedImage image, byte[] ink, int[] spans) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		WritableRaster raster = image.getRaster();
+		int type = image.getType();
+
+		// the usual image types are read straight from their pixel arrays, getRGB converts every pixel's colour
+		if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+				&& raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+			DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+			int[] data = buffer.getData();
+			int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+			int start = buffer.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+			boolean hasAlpha = type == BufferedImage.TYPE_INT_ARGB;
+			for (int y = 0; y < height; y++) {
+				int pixel = y * width;
+				int sample = start + y * stride;
+				int first = 0;
+				int end = width;
+				if (spans != null) {
+					// captures are mostly white paper, which has no ink whatever its alpha: only the
+					//   pixels from the first to the last that are not white are read into ink
+					while (first < width && (data[sample + first] & WHITE) == WHITE) {
+						first++;
+					}
+					while (end > first && (data[sample + end - 1] & WHITE) == WHITE) {
+						end--;
+					}
+					spans[2 * y] = first;
+					spans[2 * y + 1] = end;
+				}
+				for (int x = first; x < end; x++) {
+					int argb = data[sample + x];
+					ink[pixel + x] = (argb & WHITE) == WHITE ? 0 : ink((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF, hasAlpha ? argb >>> 24 : MAX_INK);
+				}
+			}
+			return;
+		}
+
+		if ((type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR || type == BufferedImage.TYPE_BYTE_GRAY)
+				&& raster.getSampleModel() instanceof ComponentSampleModel) {
+			ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+			DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+			byte[] data = buffer.getData();
+			int stride = model.getScanlineStride();
+			int pixelStride = model.getPixelStride();
+			int[] offsets = model.getBandOffsets();
+			int start = buffer.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX() * pixelStride;
+			for (int y = 0; y < height; y++) {
+				int pixel = y * width;
+				int sample = start + y * stride;
+				int first = width;
+				int last = -1;
+				for (int x = 0; x < width; x++, sample += pixelStride) {
+					if (type == BufferedImage.TYPE_BYTE_GRAY) {
+						ink[pixel + x] = (byte) (MAX_INK - (data[sample] & 0xFF));
+					} else {
+						ink[pixel + x] = ink(
+								data[sample + offsets[0]] & 0xFF,
+								data[sample + offsets[1]] & 0xFF,
+								data[sample + offsets[2]] & 0xFF,
+								offsets.length == 4 ? data[sample + offsets[3]] & 0xFF : MAX_INK);
+					}
+					if (ink[pixel + x] != 0) {
+						first = Math.min(first, x);
+						last = x;
+					}
+				}
+				span(spans, y, first, last);
+			}
+			return;
+		}
+
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			image.getRGB(0, y, width, 1, row, 0, width);
+			int first = width;
+			int last = -1;
+			for (int x = 0; x < width; x++) {
+				int argb = row[x];
+				ink[y * width + x] = (argb & WHITE) == WHITE ? 0 : ink((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF, argb >>> 24);
+				if (ink[y * width + x] != 0) {
+					first = Math.min(first, x);
+					last = x;
+				}
+			}
+			span(spans, y, first, last);
+		}
+	}
+
+	/**
+	 * Note the span of pixels with ink on a row
+	 * @param spans - spans of each row, null to not note them
+	 * @param y - row
+	 * @param first - first column with ink, width if none
+	 * @param last - last column with ink, -1 if none
+	 */
+	private static void span(int[] spans, int y, int first, int last) {
+		if (spans != null) {
+			spans[2 * y] = first;
+			spans[2 * y + 1] = Math.max(first, last + 1);
+		}
+	}
+
+	/**
+	 * Get the ink of a pixel: how dark it is, scaled by how opaque it is
+	 * @param red - red, 0 to 255
+	 * @param green - green, 0 to 255
+	 * @param blue - blue, 0 to 255
+	 * @param alpha - opacity, 0 to 255
+	 * @return ink as an unsigned byte
+	 */
+	private static byte ink(int red, int green, int blue, int alpha) {
+		int ink = MAX_INK - ((77 * red + 150 * green + 29 * blue) >> 8);
+		if (alpha == MAX_INK) {
+			return (byte) ink;
+		}
+		// ink * alpha / 255 rounded, without dividing
+		int scaled = ink * alpha + 128;
+		return (byte) ((scaled + (scaled >> 8)) >> 8);
+	}
+
+	/**
+	 * Run a range of work split into a part per core, on the worker threads
+	 * @param count - number of items
+	 * @param range - work to run on each part
+	 * @throws Exception - rethrows the first failure
+	 */
+	private void runAll(int count, final Range range) throws Exception {
+		int threadCount = Math.min(count, Runtime.getRuntime().availableProcessors());
+		// no point handing work to other threads when there is only one core
+		if (threadCount <= 1) {
+			range.run(0, count);
+			return;
+		}
+
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (int t = 0; t < threadCount; t++) {
+			final int start = (int) ((long) count * t / threadCount);
+			final int end = (int) ((long) count * (t + 1) / threadCount);
+			futures.add(getExecutor().submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					range.run(start, end);
+					return null;
+				}
+			}));
+		}
+
+		// wait for all parts, rethrowing the first failure
+		for (Future<Void> future : futures) {
+			future.get();
+		}
+	}
+
+	/**
+	 * Get the worker pool, creating it on first use with a thread per core
+	 * @return ExecutorService
+	 */
+	private synchronized ExecutorService getExecutor() {
+		if (_executor == null) {
+			// daemon threads so an abandoned rasterizer never keeps the application alive
+			_executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "GridRasterizer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return _executor;
+	}
+
+	/**
+	 * Get the weights of an axis of the image, working them out if the last image had another size
+	 * @param length - length of the axis in pixels
+	 * @param isColumns - true for the width, false for the height
+	 * @return Axis
+	 */
+	private Axis axis(int length, boolean isColumns) {
+		Axis axis = isColumns ? _columns : _rows;
+		if (axis == null || axis._length != length) {
+			axis = new Axis(length, _gridSize);
+			if (isColumns) {
+				_columns = axis;
+			} else {
+				_rows = axis;
+			}
+		}
+		return axis;
+	}
+
+	/**
+	 * Part of a batch of work
+	 */
+	private interface Range {
+		/**
+		 * Run the work on a range of items
+		 * @param start - first item
+		 * @param end - item after the last one
+		 * @throws Exception
+		 */
+		void run(int start, int end) throws Exception;
+	}
+
+	/**
+	 * The buffers a thread reuses from one image to the next
+	 */
+	private static class Scratch {
+		// instance variables
+		private byte[] _ink = new byte[0];
+		private int[] _spans = new int[0];
+		private long[] _rowSums = new long[0];
+		private long[] _sums = new long[0];
+
+		/**
+		 * Get a buffer for the ink of an image, images over MAX_SCRATCH_PIXELS get one of their
+		 * own so a thread doesn't hold on to it
+		 * @param length - number of pixels
+		 * @return buffer, at least length long
+		 */
+		public byte[] ink(int length) {
+			if (length > MAX_SCRATCH_PIXELS) {
+				return new byte[length];
+			}
+			if (_ink.length < length) {
+				_ink = new byte[length];
+			}
+			return _ink;
+		}
+
+		/**
+		 * Get a buffer for the spans of ink of each row of an image
+		 * @param height - number of rows
+		 * @return buffer, at least 2 * height long
+		 */
+		public int[] spans(int height) {
+			if (_spans.length < 2 * height) {
+				_spans = new int[2 * height];
+			}
+			return _spans;
+		}
+
+		/**
+		 * Get a buffer for the sums of a row of pixels weighed into the columns of cells
+		 * @param length - number of columns
+		 * @return buffer, at least length long
+		 */
+		public long[] rowSums(int length) {
+			if (_rowSums.length < length) {
+				_rowSums = new long[length];
+			}
+			return _rowSums;
+		}
+
+		/**
+		 * Get the sums of the cells, all 0
+		 * @param length - number of cells
+		 * @return buffer, at least length long
+		 */
+		public long[] sums(int length) {
+			if (_sums.length < length) {
+				_sums = new long[length];
+			}
+			return _sums;
+		}
+	}
+
+	/**
+	 * The cells each pixel along an axis falls within, and by how much
+	 */
+	private static class Axis {
+		// instance variables
+		private int _length;
+		private int[] _starts;
+		private int[] _cells;
+		private int[] _weights;
+
+		/**
+		 * Constructor - measured in units of 1 / (length * gridSize), a pixel is gridSize
+		 * units long and a cell length units long, so every overlap is a whole number
+		 * @param length - length of the axis in pixels
+		 * @param gridSize - number of cells along the axis
+		 */
+		public Axis(int length, int gridSize) {
+			_length = length;
+			_starts = new int[length + 1];
+			_cells = new int[length + gridSize];
+			_weights = new int[length + gridSize];
+
+			int segment = 0;
+			for (int pixel = 0; pixel < length; pixel++) {
+				_starts[pixel] = segment;
+				long start = (long) pixel * gridSize;
+				long end = start + gridSize;
+				for (int cell = (int) (start / length); cell < gridSize && (long) cell * length < end; cell++) {
+					long overlap = Math.min(end, (long) (cell + 1) * length) - Math.max(start, (long) cell * length);
+					_cells[segment] = cell;
+					_weights[segment] = (int) overlap;
+					segment++;
+				}
+			}
+			_starts[length] = segment;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package ocr.data;
+
+import neural.net.TrainingSource;
+
+/**
+ * Base class for a stream of packed Grids and their expected values that can be
+ * passed to a Trainer as a TrainingSource. Subclasses only read the packed cells
+ * of each Grid, they are decoded into the Network's input here.
+ *
+ * The packed cells use the same layout as Grid.toWords(): the cell at (row, col)
+ * is bit (row * size + col) % 64 of word (row * size + col) / 64.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public abstract class GridSource implements TrainingSource {
+	// private constants
+	private static final double TRUE = 1.0;
+	private static final double FALSE = 0.0;
+
+	// instance variables
+	private int _gridSize;
+	private long[] _words;
+
+	/**
+	 * Constructor
+	 * @param gridSize - size of a side of every Grid in the source
+	 */
+	protected GridSource(int gridSize) {
+		_gridSize = gridSize;
+		_words = new long[getWordCount()];
+	}
+
+	/**
+	 * Read the packed cells of the next Grid
+	 * @param words - array to fill, getWordCount() long
+	 * @return true if a Grid was read, false at the end of the epoch
+	 * @throws Exception
+	 */
+	public abstract boolean nextGrid(long[] words) throws Exception;
+
+	/**
+	 * Get the expected value of the last Grid read
+	 * @return expected value
+	 */
+	public abstract char getValue();
+
+	/**
+	 * Get the size of a side of every Grid in the source
+	 * @return grid size
+	 */
+	public int getGridSize() {
+		return _gridSize;
+	}
+
+	/**
+	 * Get the number of longs holding the cells of a Grid
+	 * @return word count
+	 */
+	public int getWordCount() {
+		return (_gridSize * _gridSize + Long.SIZE - 1) / Long.SIZE;
+	}
+
+	/**
+	 * Get the size of each input, a cell per input
+	 * @return input count
+	 */
+	@Override
+	public int getInputCount() {
+		return _gridSize * _gridSize;
+	}
+
+	/**
+	 * Get the size of each expected output
+	 * @return output count
+	 */
+	@Override
+	public int getOutputCount() {
+		return NetworkManager.OUTPUT_SIZE;
+	}
+
+	/**
+	 * Read the next Grid and convert it the same as GridProcessor.convertGrid and
+	 * GridProcessor.convertExpectedOutput
+	 * @param inputs - array to fill with the input
+	 * @param expectedOutputs - array to fill with the expected output
+	 * @return true if a Grid was read, false at the end of the epoch
+	 * @throws Exception
+	 */
+	@Override
+	public boolean next(double[] inputs, double[] expectedOutputs) throws Exception {
+		if (!nextGrid(_words)) {
+			return false;
+		}
+
+		int cellCount = getInputCount();
+		for (int w = 0; w < _words.length; w++) {
+			long bits = _words[w];
+			int end = Math.min(cellCount, (w + 1) * Long.SIZE);
+			for (int i = w * Long.SIZE; i < end; i++) {
+				inputs[i] = (bits & 1L) != 0 ? TRUE : FALSE;
+				bits >>>= 1;
+			}
+		}
+		GridProcessor.fillExpectedOutput(getValue(), expectedOutputs);
+		return true;
+	}
+}
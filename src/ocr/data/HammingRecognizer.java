@@ -0,0 +1,411 @@
+package ocr.data;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import ocr.info.Grid;
+
+/**
+ * Recognize a Grid by the k nearest neighbours in a set of packed 8x8 Grids,
+ * the distance between two Grids is the number of cells that differ
+ * (Hamming distance), which is one XOR and one Long.bitCount per sample.
+ *
+ * The samples are stored in a packed long[] with a parallel char[] of labels,
+ * adding a sample makes it available immediately, there is no training.
+ *
+ * Small sets are scanned exactly. Large sets are searched through a multi-index
+ * hash: the 64 bits are split into 4 substrings of 16 bits, each with its own
+ * table of samples by substring value. A sample within distance d of the query
+ * has at least one substring within d / 4 of the query's, so searching the
+ * tables with a growing substring radius finds the exact nearest neighbours
+ * while only looking at a small number of candidates. Letters share a lot of
+ * empty rows, so the tables are searched smallest bucket first and the search
+ * stops as soon as the remaining tables cannot hold anything nearer.
+ *
+ * Each table keeps its buckets in one contiguous array holding the bits of
+ * every sample next to its id, so walking a bucket reads memory in order.
+ * Samples added after the tables were built are scanned directly, and the
+ * tables are rebuilt once enough samples have been added.
+ *
+ * Searches may rebuild the tables, so process() and nearest() are synchronized.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class HammingRecognizer implements Recognizer {
+	// public constants
+	public static final int DEFAULT_K = 3;
+
+	// private constants
+	private static final int SUBSTRING_COUNT = 4;
+	private static final int SUBSTRING_BITS = Long.SIZE / SUBSTRING_COUNT;
+	private static final int SUBSTRING_MASK = (1 << SUBSTRING_BITS) - 1;
+	private static final int BUCKET_COUNT = 1 << SUBSTRING_BITS;
+	private static final int SCAN_LIMIT = 4096;
+	private static final int MAX_SUBSTRING_RADIUS = 3;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// instance variables
+	private long[] _bits = new long[INITIAL_CAPACITY];
+	private char[] _labels = new char[INITIAL_CAPACITY];
+	private int _count = 0;
+	private int _k;
+	private int _indexedCount = 0;
+	private int[][] _bucketStarts = null;
+	private int[][] _tableIds = null;
+	private long[][] _tableBits = null;
+
+	/**
+	 * Constructor - creates an empty set
+	 * @param k - number of neighbours that vote on the result
+	 */
+	public HammingRecognizer(int k) {
+		_k = k;
+	}
+
+	/**
+	 * Constructor - creates a set from every Grid in a TrainingSet
+	 * @param trainingSet - TrainingSet to add, Grids must be at most 8x8
+	 * @param k - number of neighbours that vote on the result
+	 * @throws Exception
+	 */
+	public HammingRecognizer(TrainingSetManager trainingSet, int k) throws Exception {
+		this(k);
+		if (trainingSet.getGridSize() > Grid.MAX_LONG_SIZE) {
+			throw new Exception(String.format(
+					"HammingRecognizer created with invalid TrainingSet, expected grid size to be within %d not %d",
+					Grid.MAX_LONG_SIZE,
+					trainingSet.getGridSize()));
+		}
+		GridSource source = trainingSet.getGridSource();
+		long[] words = new long[1];
+		source.reset();
+		while (source.nextGrid(words)) {
+			add(words[0], source.getValue());
+		}
+	}
+
+	/**
+	 * Get number of samples in the set
+	 * @return count
+	 */
+	public synchronized int getCount() {
+		return _count;
+	}
+
+	/**
+	 * Add a Grid to the set
+	 * @param grid - Grid to add, must be at most 8x8
+	 * @param value - expected value of the Grid
+	 * @throws Exception
+	 */
+	public void add(Grid grid, char value) throws Exception {
+		add(GridProcessor.packGrid(grid), value);
+	}
+
+	/**
+	 * Add a packed Grid to the set, it is found by the next search
+	 * @param bits - packed Grid
+	 * @param value - expected value of the Grid
+	 */
+	public synchronized void add(long bits, char value) {
+		if (_count == _bits.length) {
+			_bits = Arrays.copyOf(_bits, _bits.length * 2);
+			_labels = Arrays.copyOf(_labels, _labels.length * 2);
+		}
+
+		_bits[_count] = bits;
+		_labels[_count] = value;
+		_count++;
+	}
+
+	/**
+	 * Get the expected value of a sample
+	 * @param id - id of the sample
+	 * @return expected value
+	 */
+	public synchronized char getValue(int id) {
+		return _labels[id];
+	}
+
+	/**
+	 * Process a Grid, the k nearest samples vote on the result
+	 * @param grid - Grid to process, must be at most 8x8
+	 * @return char with the most votes
+	 * @throws Exception
+	 */
+	@Override
+	public char process(Grid grid) throws Exception {
+		return process(GridProcessor.packGrid(grid));
+	}
+
+	/**
+	 * Process a packed Grid, the k nearest samples vote on the result. Ties go to
+	 * the value whose nearest sample is closest
+	 * @param bits - packed Grid
+	 * @return char with the most votes, 0 if the set is empty
+	 */
+	public synchronized char process(long bits) {
+		int[] nearest = nearest(bits, _k);
+		if (nearest.length == 0) {
+			return 0;
+		}
+
+		// the neighbours are sorted by distance, so the first value to reach the top count wins ties
+		char best = 0;
+		int bestVotes = 0;
+		for (int i = 0; i < nearest.length; i++) {
+			char value = _labels[nearest[i]];
+			int votes = 0;
+			for (int j = 0; j < nearest.length; j++) {
+				if (_labels[nearest[j]] == value) {
+					votes++;
+				}
+			}
+			if (votes > bestVotes) {
+				best = value;
+				bestVotes = votes;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Find the k nearest samples to a packed Grid, through the index for large sets
+	 * @param bits - packed Grid
+	 * @param k - number of samples to find
+	 * @return ids of the samples, nearest first
+	 */
+	public synchronized int[] nearest(long bits, int k) {
+		if (k <= 0 || _count <= SCAN_LIMIT) {
+			return scan(bits, k);
+		}
+
+		// rebuild the tables once the samples added since the last build are a large part of the set
+		if (_count - _indexedCount > Math.max(SCAN_LIMIT, _indexedCount / 4)) {
+			buildTables();
+		}
+		return search(bits, k);
+	}
+
+	/**
+	 * Find the k nearest samples to a packed Grid by scanning every sample
+	 * @param bits - packed Grid
+	 * @param k - number of samples to find
+	 * @return ids of the samples, nearest first
+	 */
+	public synchronized int[] scan(long bits, int k) {
+		Neighbours neighbours = new Neighbours(Math.max(0, Math.min(k, _count)));
+		for (int id = 0; id < _count; id++) {
+			neighbours.offer(id, Long.bitCount(bits ^ _bits[id]));
+		}
+		return neighbours.getIds();
+	}
+
+	/**
+	 * Find the k nearest samples through the multi-index hash. Once every table has
+	 * been searched up to substring radius r - 1 and j tables up to radius r, an
+	 * unseen sample differs from the query by at least 4 * r + j cells, so the search
+	 * stops as soon as the k-th nearest candidate is nearer than that
+	 * @param bits - packed Grid
+	 * @param k - number of samples to find
+	 * @return ids of the samples, nearest first
+	 */
+	private int[] search(long bits, int k) {
+		Neighbours neighbours = new Neighbours(Math.min(k, _count));
+
+		// samples added since the tables were built are not in them
+		for (int id = _indexedCount; id < _count; id++) {
+			neighbours.offer(id, Long.bitCount(bits ^ _bits[id]));
+		}
+
+		// search the tables with the fewest samples in the query's bucket first
+		Integer[] order = new Integer[SUBSTRING_COUNT];
+		final int[] sizes = new int[SUBSTRING_COUNT];
+		for (int m = 0; m < SUBSTRING_COUNT; m++) {
+			int bucket = substring(bits, m);
+			order[m] = m;
+			sizes[m] = _bucketStarts[m][bucket + 1] - _bucketStarts[m][bucket];
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return sizes[a] - sizes[b];
+			}
+		});
+		int[] rank = new int[SUBSTRING_COUNT];
+		for (int j = 0; j < SUBSTRING_COUNT; j++) {
+			rank[order[j]] = j;
+		}
+
+		for (int radius = 0; radius <= MAX_SUBSTRING_RADIUS; radius++) {
+			for (int j = 0; j < SUBSTRING_COUNT; j++) {
+				int m = order[j];
+				searchTable(bits, m, rank, substring(bits, m), radius, radius, 0, neighbours);
+
+				int unseenDistance = SUBSTRING_COUNT * radius + j + 1;
+				if (neighbours.isFull() && neighbours.getWorstDistance() < unseenDistance) {
+					return neighbours.getIds();
+				}
+			}
+		}
+
+		// the neighbours are too far away for the index to help
+		return scan(bits, k);
+	}
+
+	/**
+	 * Visit every bucket of a table whose value is exactly radius bits away from the
+	 * query's substring, flipping bits at or above the lowest one not yet flipped
+	 * @param bits - packed Grid being searched for
+	 * @param table - table to search
+	 * @param rank - position of each table in the search order
+	 * @param value - substring value to flip bits of
+	 * @param radius - substring radius being searched
+	 * @param flips - number of bits left to flip
+	 * @param lowest - lowest bit that may still be flipped
+	 * @param neighbours - nearest samples found so far
+	 */
+	private void searchTable(long bits, int table, int[] rank, int value, int radius, int flips, int lowest,
+			Neighbours neighbours) {
+		if (flips > 0) {
+			for (int bit = lowest; bit < SUBSTRING_BITS; bit++) {
+				searchTable(bits, table, rank, value ^ (1 << bit), radius, flips - 1, bit + 1, neighbours);
+			}
+			return;
+		}
+
+		int[] ids = _tableIds[table];
+		long[] tableBits = _tableBits[table];
+		int end = _bucketStarts[table][value + 1];
+		for (int i = _bucketStarts[table][value]; i < end; i++) {
+			long diff = bits ^ tableBits[i];
+			if (!isSeen(diff, table, rank, radius)) {
+				neighbours.offer(ids[i], Long.bitCount(diff));
+			}
+		}
+	}
+
+	/**
+	 * Check if a candidate was already found in another table, which is the case if
+	 * another table's substring is nearer than the radius, or as near and searched first
+	 * @param diff - bits that differ between the query and the candidate
+	 * @param table - table the candidate was found in
+	 * @param rank - position of each table in the search order
+	 * @param radius - substring radius being searched
+	 * @return true if the candidate was already offered
+	 */
+	private boolean isSeen(long diff, int table, int[] rank, int radius) {
+		for (int m = 0; m < SUBSTRING_COUNT; m++) {
+			if (m == table) {
+				continue;
+			}
+			int distance = Integer.bitCount(substring(diff, m));
+			if (distance < radius || (distance == radius && rank[m] < rank[table])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Build every table from all samples in the set, a counting sort by substring value
+	 */
+	private void buildTables() {
+		_indexedCount = _count;
+		_bucketStarts = new int[SUBSTRING_COUNT][BUCKET_COUNT + 1];
+		_tableIds = new int[SUBSTRING_COUNT][_indexedCount];
+		_tableBits = new long[SUBSTRING_COUNT][_indexedCount];
+
+		for (int m = 0; m < SUBSTRING_COUNT; m++) {
+			int[] starts = _bucketStarts[m];
+			for (int id = 0; id < _indexedCount; id++) {
+				starts[substring(_bits[id], m) + 1]++;
+			}
+			for (int b = 0; b < BUCKET_COUNT; b++) {
+				starts[b + 1] += starts[b];
+			}
+
+			int[] positions = Arrays.copyOf(starts, BUCKET_COUNT);
+			for (int id = 0; id < _indexedCount; id++) {
+				int position = positions[substring(_bits[id], m)]++;
+				_tableIds[m][position] = id;
+				_tableBits[m][position] = _bits[id];
+			}
+		}
+	}
+
+	/**
+	 * Get one of the substrings of a packed Grid
+	 * @param bits - packed Grid
+	 * @param index - substring to get
+	 * @return substring value
+	 */
+	private static int substring(long bits, int index) {
+		return (int)(bits >>> (index * SUBSTRING_BITS)) & SUBSTRING_MASK;
+	}
+
+	/**
+	 * Keeps the k nearest samples offered so far, sorted by distance
+	 */
+	private static class Neighbours {
+		// instance variables
+		private int[] _ids;
+		private int[] _distances;
+		private int _size = 0;
+
+		/**
+		 * Constructor
+		 * @param k - number of samples to keep
+		 */
+		public Neighbours(int k) {
+			_ids = new int[k];
+			_distances = new int[k];
+		}
+
+		/**
+		 * Check if k samples have been kept
+		 * @return true if full
+		 */
+		public boolean isFull() {
+			return _size == _ids.length;
+		}
+
+		/**
+		 * Get the distance of the furthest sample kept
+		 * @return distance
+		 */
+		public int getWorstDistance() {
+			return _distances[_size - 1];
+		}
+
+		/**
+		 * Offer a sample, it is kept if it is nearer than the furthest one kept
+		 * @param id - id of the sample
+		 * @param distance - distance of the sample
+		 */
+		public void offer(int id, int distance) {
+			if (isFull() && (_size == 0 || distance >= _distances[_size - 1])) {
+				return;
+			}
+
+			// insertion sort from the back, k is small
+			int i = isFull() ? _size - 1 : _size++;
+			while (i > 0 && _distances[i - 1] > distance) {
+				_ids[i] = _ids[i - 1];
+				_distances[i] = _distances[i - 1];
+				i--;
+			}
+			_ids[i] = id;
+			_distances[i] = distance;
+		}
+
+		/**
+		 * Get the ids of the samples kept
+		 * @return ids, nearest first
+		 */
+		public int[] getIds() {
+			return Arrays.copyOf(_ids, _size);
+		}
+	}
+}
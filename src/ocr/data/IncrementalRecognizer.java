@@ -0,0 +1,280 @@
+package ocr.data;
+
+import neural.net.ActivationFunction;
+import neural.net.Network;
+import neural.net.Neuron;
+import ocr.info.Constants;
+import ocr.info.Grid;
+
+/**
+ * Recognize a Grid that is being drawn one cell at a time, with the Network of a
+ * NetworkManager
+ *
+ * The sum of weights * inputs of every hidden neuron (its pre-activation) is kept
+ * for the current Grid. The inputs are 1 for a set cell and 0 for a blank one, so
+ * flipping a cell only adds or subtracts that cell's weight in every hidden neuron:
+ * an update costs one pass over the hidden layer instead of one over every weight
+ * of it. Recognizing then only fires the output layer off the kept sums.
+ *
+ * The hidden weights are copied out of the Network column by column (all the
+ * weights of one input side by side) whenever the NetworkManager's version
+ * changes, and the sums are recalculated from scratch every REFRESH_INTERVAL
+ * updates so rounding errors can not build up. Networks with a ConvolutionalLayer
+ * can not be updated a cell at a time, their Grids are processed by the
+ * NetworkManager as usual.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class IncrementalRecognizer implements Recognizer {
+	// public constants
+	public static final int REFRESH_INTERVAL = 4096;
+
+	// instance variables
+	private NetworkManager _networkManager;
+	private long _version = 0;
+	private int _size = 0;
+	private int _inputCount = 0;
+	private int _hiddenCount = 0;
+	private int _outputCount = 0;
+	private ActivationFunction _activationFunction;
+	private double[] _columns;
+	private double[] _offsets;
+	private double[] _outputWeights;
+	private double[] _sums;
+	private double[] _hidden;
+	private long[] _words;
+	private int _updateCount = 0;
+
+	/**
+	 * Constructor
+	 * @param networkManager - NetworkManager whose Network recognizes the Grids
+	 */
+	public IncrementalRecognizer(NetworkManager networkManager) {
+		_networkManager = networkManager;
+	}
+
+	/**
+	 * Set the NetworkManager whose Network recognizes the Grids, the current Grid is kept
+	 * @param networkManager - NetworkManager
+	 */
+	public void setNetworkManager(NetworkManager networkManager) {
+		if (networkManager != _networkManager) {
+			_networkManager = networkManager;
+			_version = 0;
+		}
+	}
+
+	/**
+	 * Get the NetworkManager whose Network recognizes the Grids
+	 * @return NetworkManager
+	 */
+	public NetworkManager getNetworkManager() {
+		return _networkManager;
+	}
+
+	/**
+	 * Check if Grids are updated a cell at a time, false for Networks with a ConvolutionalLayer
+	 * @return true if Grids are updated a cell at a time
+	 */
+	public boolean isIncremental() {
+		return _networkManager.getNetwork().getConvolutionalLayer() == null;
+	}
+
+	/**
+	 * Set the current Grid, only the cells that differ from the current Grid are updated
+	 * @param grid - Grid being drawn
+	 * @throws Exception - throws an exception if the Grid is not the size the Network processes
+	 */
+	public void setGrid(Grid grid) throws Exception {
+		if (grid.getSize() != _networkManager.getGridSize()) {
+			throw new Exception(String.format(
+					"setGrid called on IncrementalRecognizer with invalid grid, expected size %d not %d",
+					_networkManager.getGridSize(),
+					grid.getSize()));
+		}
+
+		long[] words = grid.toWords();
+		if (!refresh(words)) {
+			// update each cell that changed, lowest bit first
+			for (int i = 0; i < words.length; i++) {
+				long changed = words[i] ^ _words[i];
+				while (changed != 0) {
+					int cell = (i << 6) + Long.numberOfTrailingZeros(changed);
+					update(cell, (words[i] & (changed & -changed)) != 0);
+					changed &= changed - 1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Set a single cell of the current Grid
+	 * @param row - row of the cell
+	 * @param col - column of the cell
+	 * @param value - true if the cell is set
+	 * @throws Exception - throws an exception if the cell is not on the Grid
+	 */
+	public void setValue(int row, int col, boolean value) throws Exception {
+		int size = _networkManager.getGridSize();
+		if (row < 0 || row >= size || col < 0 || col >= size) {
+			throw new Exception(String.format(
+					"setValue called on IncrementalRecognizer with invalid cell, expected row and col to be within %d not %d, %d",
+					size,
+					row,
+					col));
+		}
+
+		refresh(null);
+		int cell = row * size + col;
+		boolean current = (_words[cell >> 6] & (1L << cell)) != 0;
+		if (current != value) {
+			update(cell, value);
+		}
+	}
+
+	/**
+	 * Recognize the current Grid
+	 * @return char result, 0 if no letter was recognized
+	 * @throws Exception
+	 */
+	public char recognize() throws Exception {
+		refresh(null);
+		if (_columns == null) {
+			return _networkManager.process(new Grid(_size, _words));
+		}
+
+		for (int h = 0; h < _hiddenCount; h++) {
+			_hidden[h] = _activationFunction.activate(_sums[h]);
+		}
+
+		// fire the output neurons in order, the first one over the confidence level is the
+		//   letter (the same rule as GridProcessor.convertOutput)
+		int weight = 0;
+		for (int o = 0; o < _outputCount; o++) {
+			double sum = 0.0;
+			for (int h = 0; h < _hiddenCount; h++) {
+				sum += _hidden[h] * _outputWeights[weight++];
+			}
+			sum += Neuron.OFFSET * _outputWeights[weight++];
+			if (_activationFunction.activate(sum) > Constants.CONFIDENCE) {
+				return (char) (o + 'A');
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Process a Grid, only the cells that differ from the last Grid processed are updated
+	 * @param grid - Grid to process
+	 * @return char result
+	 * @throws Exception - throws an exception if the Grid is not the size the Network processes
+	 */
+	@Override
+	public char process(Grid grid) throws Exception {
+		setGrid(grid);
+		return recognize();
+	}
+
+	/**
+	 * Flip a cell of the current Grid, adding or subtracting its weight column from the sums
+	 * @param cell - cell to flip (row * size + col)
+	 * @param value - new value of the cell
+	 */
+	private void update(int cell, boolean value) {
+		if (value) {
+			_words[cell >> 6] |= 1L << cell;
+		} else {
+			_words[cell >> 6] &= ~(1L << cell);
+		}
+		if (_columns == null) {
+			return;
+		}
+
+		int column = cell * _hiddenCount;
+		if (value) {
+			for (int h = 0; h < _hiddenCount; h++) {
+				_sums[h] += _columns[column + h];
+			}
+		} else {
+			for (int h = 0; h < _hiddenCount; h++) {
+				_sums[h] -= _columns[column + h];
+			}
+		}
+
+		if (++_updateCount >= REFRESH_INTERVAL) {
+			recalculate();
+		}
+	}
+
+	/**
+	 * Copy the weights out of the Network again if the NetworkManager's version changed,
+	 * and recalculate the sums for a Grid
+	 * @param words - packed cells of the new current Grid, null to keep the current Grid
+	 * @return true if the weights were copied and the sums recalculated
+	 */
+	private boolean refresh(long[] words) {
+		long version = _networkManager.getVersion();
+		int size = _networkManager.getGridSize();
+		if (version == _version && size == _size) {
+			return false;
+		}
+
+		if (words != null) {
+			_words = words;
+		} else if (size != _size || _words == null) {
+			_words = new long[(size * size + 63) >> 6];
+		}
+		_size = size;
+		_version = version;
+
+		Network network = _networkManager.getNetwork();
+		if (network.getConvolutionalLayer() != null) {
+			_columns = null;
+			return true;
+		}
+
+		// lay the hidden weights out by input, the output weights as they are
+		_inputCount = network.getInputCount();
+		_hiddenCount = network.getHiddenLayer().getNeuronCount();
+		_outputCount = network.getOutputCount();
+		_activationFunction = network.getActivationFunction();
+		double[] weights = network.getWeights();
+		_columns = new double[_inputCount * _hiddenCount];
+		_offsets = new double[_hiddenCount];
+		for (int h = 0, weight = 0; h < _hiddenCount; h++) {
+			for (int i = 0; i < _inputCount; i++) {
+				_columns[i * _hiddenCount + h] = weights[weight++];
+			}
+			_offsets[h] = weights[weight++];
+		}
+		int hiddenWeightCount = _hiddenCount * (_inputCount + 1);
+		_outputWeights = new double[weights.length - hiddenWeightCount];
+		System.arraycopy(weights, hiddenWeightCount, _outputWeights, 0, _outputWeights.length);
+		_sums = new double[_hiddenCount];
+		_hidden = new double[_hiddenCount];
+
+		recalculate();
+		return true;
+	}
+
+	/**
+	 * Recalculate the sums of every hidden neuron for the current Grid from scratch
+	 */
+	private void recalculate() {
+		for (int h = 0; h < _hiddenCount; h++) {
+			_sums[h] = Neuron.OFFSET * _offsets[h];
+		}
+		for (int i = 0; i < _words.length; i++) {
+			long word = _words[i];
+			while (word != 0) {
+				int column = ((i << 6) + Long.numberOfTrailingZeros(word)) * _hiddenCount;
+				for (int h = 0; h < _hiddenCount; h++) {
+					_sums[h] += _columns[column + h];
+				}
+				word &= word - 1;
+			}
+		}
+		_updateCount = 0;
+	}
+}
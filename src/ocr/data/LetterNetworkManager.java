@@ -0,0 +1,416 @@
+package ocr.data;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import neural.net.BackPropagator;
+import neural.net.Network;
+import ocr.info.Constants;
+import ocr.info.Grid;
+
+/**
+ * Manage a set of small one-vs-rest Networks, one per letter in Constants.OUTPUT.
+ * Each Network has a single output that is trained to be 1 for its own letter
+ * and 0 for everything else. A Grid is recognized as the letter whose Network
+ * has the highest output, if that output is above Constants.CONFIDENCE.
+ *
+ * The Networks are independent of each other, so they are all trained at the same
+ * time on separate threads, and a single letter can be retrained on its own.
+ * The samples of each letter its Network was last trained with are remembered
+ * (as a hash, saved with the Networks), so after editing a set only the letters
+ * whose samples changed need retraining. Only a letter's own samples are tracked:
+ * a sample added for one letter is also a new negative for every other letter's
+ * Network, which is not counted as a change, those Networks only learn it when
+ * they are retrained.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class LetterNetworkManager implements BatchRecognizer {
+	/**
+	 * Name of the property fired as training progresses (percent complete)
+	 */
+	public static final String PROGRESS_PROPERTY = "progress";
+
+	// public constants
+	public static final int LETTER_COUNT = Constants.OUTPUT.length - 1;
+	public static final String EXTENSION = ".lnn";
+
+	// private constants
+	private static final double TRUE = 1.0;
+	private static final double FALSE = 0.0;
+
+	// instance variables
+	private Network[] _networks;
+	private File _file = null;
+	private long[] _trainedHashes = new long[LETTER_COUNT];
+	private AtomicInteger _completedEpochs = new AtomicInteger();
+	private PropertyChangeSupport _changeSupport = new PropertyChangeSupport(this);
+
+	/**
+	 * Constructor - creates a Neural Network for each letter for Grids of Constants.GRID_SIZE
+	 */
+	public LetterNetworkManager() {
+		this(Constants.GRID_SIZE);
+	}
+
+	/**
+	 * Constructor - creates a Neural Network for each letter
+	 * @param gridSize - size of a side of the Grids to process
+	 */
+	public LetterNetworkManager(int gridSize) {
+		_networks = new Network[LETTER_COUNT];
+		for (int i = 0; i < LETTER_COUNT; i++) {
+			_networks[i] = new Network(gridSize * gridSize, 1, Constants.LETTER_HIDDEN_NEURON_COUNT);
+		}
+	}
+
+	/**
+	 * Constructor - loads the Neural Networks from File, with the hashes of the samples they
+	 * were trained with if the File has them
+	 * @param file - File to load Neural Networks from
+	 * @throws Exception
+	 */
+	public LetterNetworkManager(File file) throws Exception {
+		FileInputStream fs = new FileInputStream(file);
+		ObjectInputStream os = new ObjectInputStream(fs);
+		try {
+			_networks = (Network[]) os.readObject();
+			try {
+				_trainedHashes = (long[]) os.readObject();
+			} catch (EOFException ex) {
+				// saved before the hashes were, every letter counts as changed
+			}
+		} finally {
+			os.close();
+		}
+
+		_file = file;
+	}
+
+	/**
+	 * Check if a file has been set for the Neural Networks to save to
+	 * @return true if a file is set
+	 */
+	public boolean isFileSet() {
+		return _file != null;
+	}
+
+	/**
+	 * Get the size of a side of the Grids the Networks process
+	 * @return grid size
+	 */
+	public int getGridSize() {
+		return (int) Math.round(Math.sqrt(_networks[0].getInputCount()));
+	}
+
+	/**
+	 * Get the Network for a letter
+	 * @param letter - capital letter to get the Network for
+	 * @return the Network
+	 * @throws Exception - throws an exception if letter is not a capital letter
+	 */
+	public Network getNetwork(char letter) throws Exception {
+		return _networks[letterIndex(letter)];
+	}
+
+	/**
+	 * Add a listener for the progress of training
+	 * @param listener - listener to add
+	 */
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		_changeSupport.addPropertyChangeListener(listener);
+	}
+
+	/**
+	 * Remove a listener for the progress of training
+	 * @param listener - listener to remove
+	 */
+	public void removePropertyChangeListener(PropertyChangeListener listener) {
+		_changeSupport.removePropertyChangeListener(listener);
+	}
+
+	/**
+	 * Process a Grid through every letter's Network and take the most confident one
+	 * @param grid - Grid to process
+	 * @return char result, 0 if no Network is above Constants.CONFIDENCE
+	 * @throws Exception
+	 */
+	@Override
+	public char process(Grid grid) throws Exception {
+		double[] inputs = GridProcessor.convertGrid(grid);
+
+		int best = -1;
+		double bestOutput = Constants.CONFIDENCE;
+		for (int i = 0; i < LETTER_COUNT; i++) {
+			double output = _networks[i].fire(inputs)[0];
+			if (output > bestOutput) {
+				best = i;
+				bestOutput = output;
+			}
+		}
+
+		if (best < 0) {
+			return 0;
+		}
+		return (char)(best + 'A');
+	}
+
+	/**
+	 * Process a batch of Grids through every letter's Network, a Network at a time across the
+	 * whole batch (see Network.fire(double[][], int)), and take the most confident one for each
+	 * @param grids - Grids to process
+	 * @param count - number of Grids to process, from the start of grids
+	 * @param results - filled with the char result of each Grid, 0 if no Network is above Constants.CONFIDENCE
+	 * @throws Exception
+	 */
+	@Override
+	public void process(Grid[] grids, int count, char[] results) throws Exception {
+		double[][] inputs = new double[count][];
+		double[] bestOutputs = new double[count];
+		for (int b = 0; b < count; b++) {
+			inputs[b] = GridProcessor.convertGrid(grids[b]);
+			bestOutputs[b] = Constants.CONFIDENCE;
+			results[b] = 0;
+		}
+
+		for (int i = 0; i < LETTER_COUNT; i++) {
+			double[][] outputs = _networks[i].fire(inputs, count);
+			for (int b = 0; b < count; b++) {
+				if (outputs[b][0] > bestOutputs[b]) {
+					bestOutputs[b] = outputs[b][0];
+					results[b] = (char)(i + 'A');
+				}
+			}
+		}
+	}
+
+	/**
+	 * Train every letter's Network concurrently, blocks until training is done.
+	 * Interrupting the calling thread stops training after the current epoch
+	 * @param trainingSet - snapshot of the TrainingSet to train with
+	 * @param learningRate - the learning rate to use
+	 * @param epochCount - number of epochs to train each Network
+	 * @throws Exception
+	 */
+	public void train(TrainingSetSnapshot trainingSet, double learningRate, int epochCount) throws Exception {
+		train(trainingSet, learningRate, epochCount, allLetters());
+	}
+
+	/**
+	 * Retrain a single letter's Network, the other Networks are left as they are
+	 * @param letter - capital letter to retrain
+	 * @param trainingSet - snapshot of the TrainingSet to train with
+	 * @param learningRate - the learning rate to use
+	 * @param epochCount - number of epochs to train the Network
+	 * @throws Exception
+	 */
+	public void train(char letter, TrainingSetSnapshot trainingSet, double learningRate, int epochCount) throws Exception {
+		train(trainingSet, learningRate, epochCount, new int[] { letterIndex(letter) });
+	}
+
+	/**
+	 * Retrain the Networks of a set of letters, the other Networks are left as they are
+	 * @param letters - capital letters to retrain
+	 * @param trainingSet - snapshot of the TrainingSet to train with
+	 * @param learningRate - the learning rate to use
+	 * @param epochCount - number of epochs to train each Network
+	 * @throws Exception - throws an exception if a letter is not a capital letter
+	 */
+	public void train(String letters, TrainingSetSnapshot trainingSet, double learningRate, int epochCount) throws Exception {
+		int[] indexes = new int[letters.length()];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = letterIndex(letters.charAt(i));
+		}
+		train(trainingSet, learningRate, epochCount, indexes);
+	}
+
+	/**
+	 * Get the letters whose samples in a TrainingSet differ from the ones their Network was
+	 * last trained with (every letter never trained, or loaded from a File without hashes).
+	 * Only each letter's own samples are compared, not the other letters' samples its
+	 * Network was trained with as negatives
+	 * @param trainingSet - snapshot of the TrainingSet
+	 * @return capital letters, in order
+	 */
+	public String getChangedLetters(TrainingSetSnapshot trainingSet) {
+		long[] hashes = letterHashes(trainingSet);
+		StringBuilder letters = new StringBuilder();
+		for (int i = 0; i < LETTER_COUNT; i++) {
+			if (hashes[i] != _trainedHashes[i]) {
+				letters.append((char)(i + 'A'));
+			}
+		}
+		return letters.toString();
+	}
+
+	/**
+	 * Save the Neural Networks to a file, followed by the hashes of the samples they were
+	 * trained with
+	 * @param file - File to save Neural Networks to
+	 * @throws Exception
+	 */
+	public void saveAs(File file) throws Exception {
+		FileOutputStream fs = new FileOutputStream(file);
+		ObjectOutputStream os = new ObjectOutputStream(fs);
+		os.writeObject(_networks);
+		os.writeObject(_trainedHashes);
+		os.close();
+
+		_file = file;
+	}
+
+	/**
+	 * Save the Neural Networks to the set file
+	 * @throws Exception
+	 */
+	public void save() throws Exception {
+		saveAs(_file);
+	}
+
+	/**
+	 * Train the Networks of a set of letters, one task per letter on a pool with a thread per core
+	 * @param trainingSet - snapshot of the TrainingSet to train with
+	 * @param learningRate - the learning rate to use
+	 * @param epochCount - number of epochs to train each Network
+	 * @param letters - indexes of the letters to train
+	 * @throws Exception
+	 */
+	private void train(TrainingSetSnapshot trainingSet, final double learningRate, final int epochCount,
+			int[] letters) throws Exception {
+		// convert the set once, the arrays are only read so every task can share them
+		final int trainingCount = trainingSet.getCount();
+		final double[][] inputs = new double[trainingCount][];
+		final char[] values = new char[trainingCount];
+		GridSource source = trainingSet.getGridSource();
+		double[] expectedOutputs = new double[source.getOutputCount()];
+		source.reset();
+		for (int i = 0; i < trainingCount; i++) {
+			inputs[i] = new double[source.getInputCount()];
+			source.next(inputs[i], expectedOutputs);
+			values[i] = source.getValue();
+		}
+
+		final int totalEpochs = epochCount * letters.length;
+		_completedEpochs.set(0);
+
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(letters.length, Runtime.getRuntime().availableProcessors()));
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		try {
+			for (final int letter : letters) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						BackPropagator trainer = new BackPropagator(_networks[letter], learningRate);
+						for (int i = 0; i < trainingCount; i++) {
+							double expected = (values[i] == letter + 'A') ? TRUE : FALSE;
+							trainer.addInputOutput(inputs[i], new double[] { expected });
+						}
+
+						for (int epoch = 0; epoch < epochCount && !Thread.currentThread().isInterrupted(); epoch++) {
+							trainer.runAndUpdate();
+							reportProgress(_completedEpochs.incrementAndGet(), totalEpochs);
+						}
+						return null;
+					}
+				}));
+			}
+
+			// wait for every letter, rethrowing the first failure
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+
+			long[] hashes = letterHashes(trainingSet);
+			for (int letter : letters) {
+				_trainedHashes[letter] = hashes[letter];
+			}
+		} finally {
+			// stops any task still running if waiting was interrupted or a task failed
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Fire a progress event whenever another percent of the epochs has completed
+	 * @param completed - number of epochs completed across all letters
+	 * @param total - number of epochs to run across all letters
+	 */
+	private void reportProgress(int completed, int total) {
+		int progress = (int)((100L * completed) / total);
+		int previous = (int)((100L * (completed - 1)) / total);
+		if (progress != previous) {
+			_changeSupport.firePropertyChange(PROGRESS_PROPERTY, previous, progress);
+		}
+	}
+
+	/**
+	 * Hash the samples of each letter in a TrainingSet, regardless of their order, a letter's
+	 * hash only changes with its own samples
+	 * @param trainingSet - snapshot of the TrainingSet
+	 * @return hash of each letter, never 0
+	 */
+	private long[] letterHashes(TrainingSetSnapshot trainingSet) {
+		long[] hashes = new long[LETTER_COUNT];
+		long[] words = new long[(trainingSet.getGridSize() * trainingSet.getGridSize() + Long.SIZE - 1) / Long.SIZE];
+		for (int i = 0; i < trainingSet.getCount(); i++) {
+			int letter = trainingSet.getValue(i) - 'A';
+			if (letter < 0 || letter >= LETTER_COUNT) {
+				continue;
+			}
+			trainingSet.getWords(i, words);
+			long hash = 0;
+			for (long word : words) {
+				hash = (hash ^ word) * 0xFF51AFD7ED558CCDL;
+				hash ^= hash >>> 32;
+			}
+			// a sum, so the order of the samples doesn't matter
+			hashes[letter] += hash;
+		}
+		for (int i = 0; i < LETTER_COUNT; i++) {
+			hashes[i] = (hashes[i] ^ trainingSet.getGridSize()) * 0xC4CEB9FE1A85EC53L | 1;
+		}
+		return hashes;
+	}
+
+	/**
+	 * Get the index of every letter
+	 * @return letter indexes
+	 */
+	private int[] allLetters() {
+		int[] letters = new int[LETTER_COUNT];
+		for (int i = 0; i < LETTER_COUNT; i++) {
+			letters[i] = i;
+		}
+		return letters;
+	}
+
+	/**
+	 * Get the index of a letter's Network
+	 * @param letter - capital letter
+	 * @return index
+	 * @throws Exception - throws an exception if letter is not a capital letter
+	 */
+	private int letterIndex(char letter) throws Exception {
+		if (letter < 'A' || letter >= 'A' + LETTER_COUNT) {
+			throw new Exception(String.format(
+					"LetterNetworkManager called with invalid letter, expected a capital letter not '%c'",
+					letter));
+		}
+		return letter - 'A';
+	}
+}
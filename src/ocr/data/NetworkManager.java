@@ -1,9 +1,13 @@
 package ocr.data;
 
 import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
 
+import neural.net.ActivationFunctionSigmoid;
+import neural.net.ConvolutionalLayer;
 import neural.net.Network;
 import ocr.info.Constants;
+import ocr.info.Grid;
 
 /**
  * Manage a Network, handle creating and saving the network for OCR
@@ -11,35 +15,97 @@ import ocr.info.Constants;
  * @author Jonathan Reimels
  * @version 1.0.0
  */
-public class NetworkManager {
+public class NetworkManager implements BatchRecognizer {
 	// public constants
 	public static final int OUTPUT_SIZE = Constants.OUTPUT.length;
 	public static final int INPUT_SIZE = Constants.GRID_SIZE * Constants.GRID_SIZE;
 
 	// private constants
-	private static final int HIDDEN_NEURON_COUNT = (INPUT_SIZE * 2) / 3 + OUTPUT_SIZE + Constants.HIDDEN_LAYER_OFFSET;
+	private static final int MIN_HIDDEN_NEURON_COUNT = 8;
+	private static final AtomicLong VERSIONS = new AtomicLong();
 
 	// instance variables
-	private Network _network;
+	private volatile Network _network;
+	private int _gridSize;
 	private File _file = null;
+	private volatile long _version = VERSIONS.incrementAndGet();
+	private int _trainingCount = 0;
+	private RecognitionCache _cache = null;
 
 	/**
-	 * Constructor - creates Neural Network
+	 * Constructor - creates Neural Network for Grids of Constants.GRID_SIZE
 	 */
 	public NetworkManager() {
-		_network = new Network(INPUT_SIZE, OUTPUT_SIZE, HIDDEN_NEURON_COUNT);
+		this(Constants.GRID_SIZE);
 	}
 
 	/**
-	 * Constructor - loads Neural Network from File
-	 * @param file - File to load Neural Network from
+	 * Constructor - creates Neural Network for Grids of a given size
+	 * @param gridSize - size of a side of the Grids to process
+	 */
+	public NetworkManager(int gridSize) {
+		int inputCount = gridSize * gridSize;
+		_network = new Network(inputCount, OUTPUT_SIZE, hiddenNeuronCount(inputCount));
+		_gridSize = gridSize;
+	}
+
+	/**
+	 * Constructor - creates Neural Network with a ConvolutionalLayer ahead of the hidden layer
+	 * for Grids of Constants.GRID_SIZE
+	 * @param kernelCount - number of kernels in the ConvolutionalLayer
+	 * @param kernelSize - size of a side of each kernel
+	 * @param poolSize - size of a side of each max-pooling window
+	 * @throws Exception
+	 */
+	public NetworkManager(int kernelCount, int kernelSize, int poolSize) throws Exception {
+		this(Constants.GRID_SIZE, kernelCount, kernelSize, poolSize);
+	}
+
+	/**
+	 * Constructor - creates Neural Network with a ConvolutionalLayer ahead of the hidden layer
+	 * @param gridSize - size of a side of the Grids to process
+	 * @param kernelCount - number of kernels in the ConvolutionalLayer
+	 * @param kernelSize - size of a side of each kernel
+	 * @param poolSize - size of a side of each max-pooling window
 	 * @throws Exception
 	 */
+	public NetworkManager(int gridSize, int kernelCount, int kernelSize, int poolSize) throws Exception {
+		ActivationFunctionSigmoid activationFunction = new ActivationFunctionSigmoid();
+		ConvolutionalLayer convolutionalLayer = new ConvolutionalLayer(
+				gridSize, kernelCount, kernelSize, poolSize, activationFunction);
+
+		// size the hidden layer off of the convolutional output rather than the grid
+		_network = new Network(convolutionalLayer, OUTPUT_SIZE,
+				hiddenNeuronCount(convolutionalLayer.getOutputCount()), activationFunction);
+		_gridSize = gridSize;
+	}
+
+	/**
+	 * Constructor - loads Neural Network from File, the Grid size is taken from its input count
+	 * @param file - File to load Neural Network from
+	 * @throws Exception - throws an exception if the Network's input count is not a square
+	 */
 	public NetworkManager(File file) throws Exception {
-		_network = Network.load(file);
+		this(Network.load(file));
 		_file = file;
 	}
 
+	/**
+	 * Constructor - manages an existing Neural Network (for example one resumed from a
+	 * TrainingCheckpoint), the Grid size is taken from its input count
+	 * @param network - Network to manage
+	 * @throws Exception - throws an exception if the Network's input count is not a square
+	 */
+	public NetworkManager(Network network) throws Exception {
+		_network = network;
+		_gridSize = (int) Math.round(Math.sqrt(_network.getInputCount()));
+		if (_gridSize * _gridSize != _network.getInputCount()) {
+			throw new Exception(String.format(
+					"NetworkManager loaded invalid network, expected a square number of inputs not %d",
+					_network.getInputCount()));
+		}
+	}
+
 	/**
 	 * Check if a file has been set for the Neural Network to save to
 	 * @return true if a file is set
@@ -56,6 +122,171 @@ public class NetworkManager {
 		return _network;
 	}
 
+	/**
+	 * Replace the Network with one trained from a copy of it (see OnlineTrainer), unless the
+	 * Network changed since the copy was taken or is being trained. The new Network gets a
+	 * new version
+	 * @param network - Network to use from now on, with the same inputs and outputs
+	 * @param version - version of the Network the copy was taken from
+	 * @return true if the Network was replaced, false if it changed since the copy was taken
+	 *   or is being trained
+	 * @throws Exception - throws an exception if the Network has different inputs or outputs
+	 */
+	public synchronized boolean replaceNetwork(Network network, long version) throws Exception {
+		if (network.getInputCount() != _network.getInputCount() || network.getOutputCount() != _network.getOutputCount()) {
+			throw new Exception(String.format(
+					"replaceNetwork called on NetworkManager with invalid network, expected %d inputs and %d outputs not %d and %d",
+					_network.getInputCount(),
+					_network.getOutputCount(),
+					network.getInputCount(),
+					network.getOutputCount()));
+		}
+		if (version != _version || _trainingCount > 0) {
+			return false;
+		}
+
+		_network = network;
+		networkChanged();
+		return true;
+	}
+
+	/**
+	 * Get the size of a side of the Grids the Network processes
+	 * @return grid size
+	 */
+	public int getGridSize() {
+		return _gridSize;
+	}
+
+	/**
+	 * Get the version of the Network, every NetworkManager starts with a version of its own
+	 * and gets a new one whenever its Network is trained
+	 * @return version, at least 1
+	 */
+	public long getVersion() {
+		return _version;
+	}
+
+	/**
+	 * Give the Network a new version, for when it has been changed (trained), so results
+	 * cached for the old version are not used again
+	 */
+	public void networkChanged() {
+		_version = VERSIONS.incrementAndGet();
+	}
+
+	/**
+	 * Mark the Network as being trained (see TrainingManager), it gets a new version and
+	 * can not be replaced until trainingEnded() is called as many times
+	 */
+	synchronized void trainingStarted() {
+		_trainingCount++;
+		networkChanged();
+	}
+
+	/**
+	 * Mark a training of the Network as ended, it gets a new version
+	 */
+	synchronized void trainingEnded() {
+		_trainingCount--;
+		networkChanged();
+	}
+
+	/**
+	 * Set a cache of recognized letters to look Grids of up to 8x8 up in before processing them
+	 * @param cache - RecognitionCache, null to always process Grids
+	 */
+	public void setRecognitionCache(RecognitionCache cache) {
+		_cache = cache;
+	}
+
+	/**
+	 * Get the cache of recognized letters
+	 * @return RecognitionCache, null if none is set
+	 */
+	public RecognitionCache getRecognitionCache() {
+		return _cache;
+	}
+
+	/**
+	 * Process a Grid through the Network, or find it in the recognition cache
+	 * @param grid - Grid to process
+	 * @return char result
+	 * @throws Exception - throws an exception if the Grid is not the size the Network processes
+	 */
+	@Override
+	public char process(Grid grid) throws Exception {
+		if (grid.getSize() != _gridSize) {
+			throw new Exception(String.format(
+					"process called on NetworkManager with invalid grid, expected size %d not %d",
+					_gridSize,
+					grid.getSize()));
+		}
+
+		RecognitionCache cache = _cache;
+		if (cache == null || _gridSize > Grid.MAX_LONG_SIZE) {
+			return GridProcessor.process(grid, _network);
+		}
+
+		long bits = grid.toLong();
+		long version = _version;
+		int cached = cache.get(bits, version);
+		if (cached != RecognitionCache.NOT_FOUND) {
+			return (char) cached;
+		}
+		char result = GridProcessor.process(grid, _network);
+		cache.put(bits, version, result);
+		return result;
+	}
+
+	/**
+	 * Process a batch of Grids through the Network at once, the Grids not found in the
+	 * recognition cache are fired together (see Network.fire(double[][], int))
+	 * @param grids - Grids to process
+	 * @param count - number of Grids to process, from the start of grids
+	 * @param results - filled with the char result of each Grid
+	 * @throws Exception - throws an exception if a Grid is not the size the Network processes
+	 */
+	@Override
+	public void process(Grid[] grids, int count, char[] results) throws Exception {
+		for (int i = 0; i < count; i++) {
+			if (grids[i].getSize() != _gridSize) {
+				throw new Exception(String.format(
+						"process called on NetworkManager with invalid grid, expected size %d not %d",
+						_gridSize,
+						grids[i].getSize()));
+			}
+		}
+
+		RecognitionCache cache = _cache;
+		if (cache == null || _gridSize > Grid.MAX_LONG_SIZE) {
+			GridProcessor.process(grids, count, _network, results);
+			return;
+		}
+
+		// fire only the Grids that are not cached
+		long version = _version;
+		Grid[] missed = new Grid[count];
+		int[] missedIndexes = new int[count];
+		int missedCount = 0;
+		for (int i = 0; i < count; i++) {
+			int cached = cache.get(grids[i].toLong(), version);
+			if (cached != RecognitionCache.NOT_FOUND) {
+				results[i] = (char) cached;
+			} else {
+				missedIndexes[missedCount] = i;
+				missed[missedCount++] = grids[i];
+			}
+		}
+
+		char[] missedResults = new char[missedCount];
+		GridProcessor.process(missed, missedCount, _network, missedResults);
+		for (int i = 0; i < missedCount; i++) {
+			results[missedIndexes[i]] = missedResults[i];
+			cache.put(missed[i].toLong(), version, missedResults[i]);
+		}
+	}
+
 	/**
 	 * Save a Neural Network to a file
 	 * @param file - File to save Neural Network to
@@ -73,5 +304,13 @@ public class NetworkManager {
 	public void save() throws Exception {
 		_network.save(_file);
 	}
-}
 
+	/**
+	 * Get the number of neurons to use in the hidden layer, normally (input count) * (2/3) + (output size)
+	 * @param inputCount - number of inputs to the hidden layer
+	 * @return hidden neuron count
+	 */
+	private static int hiddenNeuronCount(int inputCount) {
+		return Math.max(MIN_HIDDEN_NEURON_COUNT, (inputCount * 2) / 3 + OUTPUT_SIZE + Constants.HIDDEN_LAYER_OFFSET);
+	}
+}
@@ -0,0 +1,69 @@
+package ocr.data;
+
+import neural.net.Network;
+import ocr.info.Grid;
+
+/**
+ * Cascade stage that recognizes a Grid with a Network (normally a small one),
+ * the letter is the highest output and the confidence is how far that output
+ * is ahead of the second highest, so a Grid that looks like two letters is
+ * passed on to the next stage.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class NetworkStage implements CascadeStage {
+	// instance variables
+	private Network _network;
+	private double _confidence = 0.0;
+
+	/**
+	 * Constructor
+	 * @param network - Network to recognize with, with an output per capital letter
+	 */
+	public NetworkStage(Network network) {
+		_network = network;
+	}
+
+	/**
+	 * Get the Network being used
+	 * @return the Network
+	 */
+	public Network getNetwork() {
+		return _network;
+	}
+
+	/**
+	 * Process a Grid through the Network
+	 * @param grid - Grid to process
+	 * @return letter with the highest output
+	 * @throws Exception
+	 */
+	@Override
+	public synchronized char process(Grid grid) throws Exception {
+		double[] outputs = _network.fire(GridProcessor.convertGrid(grid));
+
+		int best = 0;
+		double second = 0.0;
+		for (int i = 1; i < outputs.length; i++) {
+			if (outputs[i] > outputs[best]) {
+				second = outputs[best];
+				best = i;
+			} else if (outputs[i] > second) {
+				second = outputs[i];
+			}
+		}
+
+		_confidence = Math.max(0.0, outputs[best] - second);
+		return (char)(best + 'A');
+	}
+
+	/**
+	 * Get how far the highest output of the last Grid processed was ahead of the second highest
+	 * @return confidence between 0 and 1
+	 */
+	@Override
+	public synchronized double getConfidence() {
+		return _confidence;
+	}
+}
@@ -0,0 +1,300 @@
+package ocr.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import neural.net.BackPropagator;
+import neural.net.Network;
+import ocr.info.TrainingGrid;
+
+/**
+ * Fine-tune the Network of a NetworkManager right after TrainingGrids are added
+ * to a set, instead of retraining it from scratch.
+ *
+ * A copy of the Network is trained on a background thread for a few hundred
+ * passes over the new TrainingGrids (a handful, so this takes a fraction of a
+ * second), each pass mixed with TrainingGrids drawn at random from the set
+ * (replay), so the Network learns the new TrainingGrids without forgetting the
+ * rest of the set. The copy then replaces the NetworkManager's
+ * Network, unless the Network was changed in the meantime (trained, or replaced
+ * by another fine-tuning), in which case the fine-tuned copy is dropped.
+ *
+ * TrainingGrids added while a fine-tuning runs are queued and fine-tuned together
+ * as soon as it is done. The set is read through a TrainingSetSnapshot, so it can
+ * keep being edited while the Network is fine-tuned.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class OnlineTrainer {
+	// public constants
+	public static final int DEFAULT_PASS_COUNT = 300;
+	public static final int DEFAULT_REPLAY_RATIO = 4;
+	public static final double DEFAULT_LEARNING_RATE = 0.7;
+
+	// instance variables
+	private NetworkManager _networkManager;
+	private TrainingSetSnapshot _replaySet = null;
+	private ArrayList<TrainingGrid> _pending = new ArrayList<TrainingGrid>();
+	private boolean _isScheduled = false;
+	private int _passCount = DEFAULT_PASS_COUNT;
+	private int _replayRatio = DEFAULT_REPLAY_RATIO;
+	private double _learningRate = DEFAULT_LEARNING_RATE;
+	private Random _rnd;
+	private int _tuneCount = 0;
+	private int _droppedCount = 0;
+	private double _lastError = 0.0;
+	private long _lastTuneNanos = 0;
+	private ExecutorService _executor = null;
+
+	/**
+	 * Constructor
+	 * @param networkManager - NetworkManager whose Network is fine-tuned
+	 */
+	public OnlineTrainer(NetworkManager networkManager) {
+		this(networkManager, new Random());
+	}
+
+	/**
+	 * Constructor
+	 * @param networkManager - NetworkManager whose Network is fine-tuned
+	 * @param rnd - Random to draw replayed TrainingGrids and shuffle each pass with
+	 */
+	public OnlineTrainer(NetworkManager networkManager, Random rnd) {
+		_networkManager = networkManager;
+		_rnd = rnd;
+	}
+
+	/**
+	 * Set the NetworkManager whose Network is fine-tuned from the next fine-tuning on
+	 * @param networkManager - NetworkManager
+	 */
+	public synchronized void setNetworkManager(NetworkManager networkManager) {
+		_networkManager = networkManager;
+	}
+
+	/**
+	 * Set the number of passes over the new TrainingGrids
+	 * @param passCount - number of passes
+	 */
+	public synchronized void setPassCount(int passCount) {
+		_passCount = passCount;
+	}
+
+	/**
+	 * Set the number of TrainingGrids replayed from the set for each new TrainingGrid in a pass
+	 * @param replayRatio - replayed TrainingGrids per new TrainingGrid, 0 to not replay
+	 */
+	public synchronized void setReplayRatio(int replayRatio) {
+		_replayRatio = replayRatio;
+	}
+
+	/**
+	 * Set the learning rate to fine-tune with
+	 * @param learningRate - learning rate (should be between 0 and 1)
+	 */
+	public synchronized void setLearningRate(double learningRate) {
+		_learningRate = learningRate;
+	}
+
+	/**
+	 * Queue a TrainingGrid that was added to a set, and start fine-tuning if it is not running
+	 * @param trainingGrid - TrainingGrid added
+	 * @param replaySet - snapshot of the set to replay TrainingGrids from, taken after the add
+	 */
+	public synchronized void add(TrainingGrid trainingGrid, TrainingSetSnapshot replaySet) {
+		_pending.add(trainingGrid);
+		_replaySet = replaySet;
+		if (_isScheduled) {
+			return;
+		}
+
+		_isScheduled = true;
+		schedule();
+	}
+
+	/**
+	 * Wait until every queued TrainingGrid has been fine-tuned
+	 * @throws InterruptedException
+	 */
+	public synchronized void await() throws InterruptedException {
+		while (_isScheduled) {
+			wait();
+		}
+	}
+
+	/**
+	 * Get the number of fine-tunings whose Network replaced the NetworkManager's
+	 * @return tune count
+	 */
+	public synchronized int getTuneCount() {
+		return _tuneCount;
+	}
+
+	/**
+	 * Get the number of fine-tunings dropped because the Network changed while they ran
+	 * @return dropped count
+	 */
+	public synchronized int getDroppedCount() {
+		return _droppedCount;
+	}
+
+	/**
+	 * Get the average error of the last pass of the last fine-tuning
+	 * @return error
+	 */
+	public synchronized double getLastError() {
+		return _lastError;
+	}
+
+	/**
+	 * Get how long the last fine-tuning took
+	 * @return milliseconds
+	 */
+	public synchronized double getLastTuneTime() {
+		return _lastTuneNanos / 1e6;
+	}
+
+	/**
+	 * Stop the background thread, it is started again by the next add
+	 */
+	public synchronized void shutdown() {
+		if (_executor != null) {
+			_executor.shutdown();
+			_executor = null;
+		}
+	}
+
+	/**
+	 * Fine-tune a copy of the Network on every queued TrainingGrid and swap it in
+	 * @throws Exception
+	 */
+	private void tune() throws Exception {
+		long start = System.nanoTime();
+		List<TrainingGrid> samples;
+		TrainingSetSnapshot replaySet;
+		NetworkManager networkManager;
+		int passCount;
+		int replayRatio;
+		double learningRate;
+		synchronized (this) {
+			samples = new ArrayList<TrainingGrid>(_pending);
+			_pending.clear();
+			replaySet = _replaySet;
+			networkManager = _networkManager;
+			passCount = _passCount;
+			replayRatio = _replayRatio;
+			learningRate = _learningRate;
+		}
+
+		try {
+			// TrainingGrids of another size than the Network's can not be learned
+			int gridSize = networkManager.getGridSize();
+			ArrayList<double[]> inputs = new ArrayList<double[]>();
+			ArrayList<double[]> expectedOutputs = new ArrayList<double[]>();
+			for (TrainingGrid sample : samples) {
+				if (sample.getGrid().getSize() == gridSize) {
+					inputs.add(GridProcessor.convertGrid(sample.getGrid()));
+					expectedOutputs.add(GridProcessor.convertExpectedOutput(sample.getValue()));
+				}
+			}
+			if (inputs.isEmpty()) {
+				return;
+			}
+			if (replaySet == null || replaySet.getGridSize() != gridSize || replaySet.getCount() == 0) {
+				replayRatio = 0;
+			}
+
+			long version = networkManager.getVersion();
+			Network network = networkManager.getNetwork().copy();
+			int newCount = inputs.size();
+			int replayCount = newCount * replayRatio;
+			Integer[] order = new Integer[newCount + replayCount];
+			double error = 0.0;
+			for (int pass = 0; pass < passCount; pass++) {
+				// draw new TrainingGrids to replay every pass, and shuffle them in with the new ones
+				inputs.subList(newCount, inputs.size()).clear();
+				expectedOutputs.subList(newCount, expectedOutputs.size()).clear();
+				synchronized (this) {
+					for (int i = 0; i < replayCount; i++) {
+						TrainingGrid replay = replaySet.getGrid(_rnd.nextInt(replaySet.getCount()));
+						inputs.add(GridProcessor.convertGrid(replay.getGrid()));
+						expectedOutputs.add(GridProcessor.convertExpectedOutput(replay.getValue()));
+					}
+					for (int i = 0; i < order.length; i++) {
+						order[i] = i;
+					}
+					Collections.shuffle(Arrays.asList(order), _rnd);
+				}
+
+				BackPropagator trainer = new BackPropagator(network, learningRate);
+				for (int i = 0; i < order.length; i++) {
+					trainer.addInputOutput(inputs.get(order[i]), expectedOutputs.get(order[i]));
+				}
+				error = trainer.runAndUpdate();
+			}
+
+			boolean replaced = networkManager.replaceNetwork(network, version);
+			synchronized (this) {
+				if (replaced) {
+					_tuneCount++;
+				} else {
+					_droppedCount++;
+				}
+				_lastError = error;
+				_lastTuneNanos = System.nanoTime() - start;
+			}
+		} finally {
+			synchronized (this) {
+				// TrainingGrids added while this ran are fine-tuned next
+				if (_pending.isEmpty()) {
+					_isScheduled = false;
+					notifyAll();
+				} else {
+					schedule();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run a fine-tuning of the queued TrainingGrids on the background thread
+	 */
+	private synchronized void schedule() {
+		getExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					tune();
+				} catch (Exception ex) {
+					ex.printStackTrace();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Get the background thread, starting it on first use
+	 * @return ExecutorService
+	 */
+	private synchronized ExecutorService getExecutor() {
+		if (_executor == null) {
+			// a daemon thread so fine-tuning never keeps the application alive
+			_executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "OnlineTrainer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return _executor;
+	}
+}
@@ -0,0 +1,337 @@
+package ocr.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import neural.net.Trainer;
+import ocr.info.Grid;
+import ocr.info.TrainingGrid;
+
+/**
+ * A TrainingSet stored in a packed binary file (.tsp) and read through a
+ * memory-mapped buffer, so opening a set only reads its header and samples
+ * are decoded straight from the file when they are used.
+ *
+ * The file is a header (magic number, version, grid size and sample count, an
+ * int each) followed by a fixed size record per sample: the packed cells of the
+ * Grid as longs (8 bytes for a Grid of up to 8x8) and the expected value as a
+ * 2 byte char. Everything is big-endian.
+ *
+ * Running main converts a serialized TrainingSet (.ts) to this format.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class PackedTrainingSet {
+	// public constants
+	public static final String EXTENSION = ".tsp";
+	public static final int MAGIC = 0x4F435250; // "OCRP"
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 16;
+
+	// private constants
+	private static final double TRUE = 1.0;
+	private static final double FALSE = 0.0;
+
+	// instance variables
+	private MappedByteBuffer _buffer;
+	private int _gridSize;
+	private int _count;
+	private int _wordCount;
+	private int _recordSize;
+
+	/**
+	 * Constructor - maps a packed TrainingSet file
+	 * @param file - File to map
+	 * @throws Exception - throws an exception if the file is not a packed TrainingSet
+	 */
+	public PackedTrainingSet(File file) throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long length = channel.size();
+			if (length > Integer.MAX_VALUE) {
+				throw new Exception(String.format(
+						"PackedTrainingSet loaded invalid file, expected it to be within %d bytes not %d",
+						Integer.MAX_VALUE,
+						length));
+			}
+			if (length < HEADER_SIZE) {
+				throw new Exception("PackedTrainingSet loaded invalid file, it is shorter than the header");
+			}
+
+			// the mapping stays valid after the channel is closed
+			_buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+		} finally {
+			raf.close();
+		}
+
+		int magic = _buffer.getInt(0);
+		int version = _buffer.getInt(4);
+		if (magic != MAGIC || version != VERSION) {
+			throw new Exception(String.format(
+					"PackedTrainingSet loaded invalid file, expected magic %08x version %d not %08x version %d",
+					MAGIC,
+					VERSION,
+					magic,
+					version));
+		}
+
+		_gridSize = _buffer.getInt(8);
+		_count = _buffer.getInt(12);
+		_wordCount = wordCount(_gridSize);
+		_recordSize = recordSize(_gridSize);
+		long expected = HEADER_SIZE + (long) _count * _recordSize;
+		if (_gridSize < 1 || _count < 0 || _buffer.capacity() != expected) {
+			throw new Exception(String.format(
+					"PackedTrainingSet loaded invalid file, expected %d bytes for %d Grids of size %d not %d",
+					expected,
+					_count,
+					_gridSize,
+					_buffer.capacity()));
+		}
+	}
+
+	/**
+	 * Check if a file starts with the packed TrainingSet magic number
+	 * @param file - File to check
+	 * @return true if the file is a packed TrainingSet
+	 * @throws Exception
+	 */
+	public static boolean isPacked(File file) throws Exception {
+		if (file.length() < HEADER_SIZE) {
+			return false;
+		}
+		DataInputStream is = new DataInputStream(new FileInputStream(file));
+		try {
+			return is.readInt() == MAGIC;
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Write TrainingGrids to a packed TrainingSet file
+	 * @param file - File to write
+	 * @param gridSize - size of a side of every Grid
+	 * @param trainingGrids - TrainingGrids to write
+	 * @throws Exception - throws an exception if a Grid is not of gridSize
+	 */
+	public static void write(File file, int gridSize, List<TrainingGrid> trainingGrids) throws Exception {
+		DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			os.writeInt(MAGIC);
+			os.writeInt(VERSION);
+			os.writeInt(gridSize);
+			os.writeInt(trainingGrids.size());
+
+			for (TrainingGrid t : trainingGrids) {
+				Grid grid = t.getGrid();
+				if (grid.getSize() != gridSize) {
+					throw new Exception(String.format(
+							"write called on PackedTrainingSet with invalid grid, expected size %d not %d",
+							gridSize,
+							grid.getSize()));
+				}
+				for (long word : grid.toWords()) {
+					os.writeLong(word);
+				}
+				os.writeChar(t.getValue());
+			}
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Write every Grid of a GridSource to a packed TrainingSet file
+	 * @param file - File to write
+	 * @param source - GridSource to write, it is reset first
+	 * @throws Exception
+	 */
+	public static void write(File file, GridSource source) throws Exception {
+		DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			os.writeInt(MAGIC);
+			os.writeInt(VERSION);
+			os.writeInt(source.getGridSize());
+			os.writeInt((int) source.getCount());
+
+			long[] words = new long[source.getWordCount()];
+			source.reset();
+			while (source.nextGrid(words)) {
+				for (long word : words) {
+					os.writeLong(word);
+				}
+				os.writeChar(source.getValue());
+			}
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Get the number of samples in the set
+	 * @return count
+	 */
+	public int getCount() {
+		return _count;
+	}
+
+	/**
+	 * Get the size of a side of every Grid in the set
+	 * @return grid size
+	 */
+	public int getGridSize() {
+		return _gridSize;
+	}
+
+	/**
+	 * Get the expected value of a sample
+	 * @param index - index of the sample
+	 * @return expected value
+	 */
+	public char getValue(int index) {
+		return _buffer.getChar(offset(index) + _wordCount * 8);
+	}
+
+	/**
+	 * Get the packed cells of a sample
+	 * @param index - index of the sample
+	 * @param words - array to copy the cells into, a long per 64 cells
+	 */
+	public void getWords(int index, long[] words) {
+		int offset = offset(index);
+		for (int w = 0; w < _wordCount; w++) {
+			words[w] = _buffer.getLong(offset + w * 8);
+		}
+	}
+
+	/**
+	 * Create a TrainingGrid for a sample
+	 * @param index - index of the sample
+	 * @return TrainingGrid
+	 */
+	public TrainingGrid getGrid(int index) {
+		long[] words = new long[_wordCount];
+		getWords(index, words);
+		return new TrainingGrid(new Grid(_gridSize, words), getValue(index));
+	}
+
+	/**
+	 * Create a TrainingGrid for every sample
+	 * @return list of TrainingGrids
+	 */
+	public ArrayList<TrainingGrid> toList() {
+		ArrayList<TrainingGrid> trainingGrids = new ArrayList<TrainingGrid>(_count);
+		for (int i = 0; i < _count; i++) {
+			trainingGrids.add(getGrid(i));
+		}
+		return trainingGrids;
+	}
+
+	/**
+	 * Decode a sample into the inputs of a Network, the same as GridProcessor.convertGrid
+	 * @param index - index of the sample
+	 * @param inputs - array to fill, at least size * size long
+	 */
+	public void fillInputs(int index, double[] inputs) {
+		int offset = offset(index);
+		int cellCount = _gridSize * _gridSize;
+		for (int w = 0; w < _wordCount; w++) {
+			long bits = _buffer.getLong(offset + w * 8);
+			int end = Math.min(cellCount, (w + 1) * Long.SIZE);
+			for (int i = w * Long.SIZE; i < end; i++) {
+				inputs[i] = (bits & 1L) != 0 ? TRUE : FALSE;
+				bits >>>= 1;
+			}
+		}
+	}
+
+	/**
+	 * Add every sample to a Trainer, decoded straight from the file without creating Grids
+	 * @param trainer - Trainer to add the inputs and expected outputs to
+	 * @throws Exception
+	 */
+	public void fillTrainer(Trainer trainer) throws Exception {
+		int cellCount = _gridSize * _gridSize;
+		for (int i = 0; i < _count; i++) {
+			double[] inputs = new double[cellCount];
+			fillInputs(i, inputs);
+			trainer.addInputOutput(inputs, GridProcessor.convertExpectedOutput(getValue(i)));
+		}
+	}
+
+	/**
+	 * Convert a serialized TrainingSet to a packed TrainingSet
+	 * @param args - the .ts file to convert, and optionally the .tsp file to write
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("usage: PackedTrainingSet <set.ts> [<set.tsp>]");
+			System.exit(1);
+		}
+
+		File source = new File(args[0]);
+		File target;
+		if (args.length == 2) {
+			target = new File(args[1]);
+		} else {
+			String name = source.getName().replaceFirst("\\.ts$", "") + EXTENSION;
+			target = new File(source.getAbsoluteFile().getParentFile(), name);
+		}
+
+		TrainingSetManager trainingSet = new TrainingSetManager();
+		trainingSet.load(source);
+		trainingSet.saveAs(target);
+		System.out.println(String.format("Converted %d Grids from %s (%d bytes) to %s (%d bytes)",
+				trainingSet.getCount(),
+				source,
+				source.length(),
+				target,
+				target.length()));
+	}
+
+	/**
+	 * Get the offset of a sample's record in the file
+	 * @param index - index of the sample
+	 * @return byte offset
+	 */
+	private int offset(int index) {
+		if (index < 0 || index >= _count) {
+			throw new IndexOutOfBoundsException(String.format(
+					"PackedTrainingSet called with invalid index, expected index to be within %d not %d",
+					_count,
+					index));
+		}
+		return HEADER_SIZE + index * _recordSize;
+	}
+
+	/**
+	 * Get the number of longs used to store a Grid
+	 * @param gridSize - size of a side of the Grid
+	 * @return word count
+	 */
+	private static int wordCount(int gridSize) {
+		return (gridSize * gridSize + Long.SIZE - 1) / Long.SIZE;
+	}
+
+	/**
+	 * Get the size of the record of a sample
+	 * @param gridSize - size of a side of the Grid
+	 * @return record size in bytes
+	 */
+	private static int recordSize(int gridSize) {
+		return wordCount(gridSize) * 8 + 2;
+	}
+}
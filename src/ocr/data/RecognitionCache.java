@@ -0,0 +1,219 @@
+package ocr.data;
+
+/**
+ * Bounded cache of recognized letters, keyed by the packed cells of a Grid of
+ * up to 8x8 (see Grid.toLong()) and the version of the model that recognized
+ * it (see NetworkManager.getVersion()). A model gets a new version whenever it
+ * is loaded or trained, so its old results are never found again and simply
+ * age out of the cache.
+ *
+ * The table is open addressing over primitive arrays, nothing is boxed: a key
+ * is looked for in the block of WINDOW slots its hash picks, and a new key takes
+ * the first empty slot of its block. When the block is full one of its keys is
+ * evicted with the clock (second chance) rule: every hit marks its slot as
+ * referenced, and the block's clock hand passes over referenced slots, clearing
+ * the mark, until it finds one that has not been used since it was last passed.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class RecognitionCache {
+	// public constants
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	public static final int NOT_FOUND = -1;
+
+	// private constants
+	private static final int WINDOW = 8;
+	private static final int BYTES_PER_SLOT = 8 + 8 + 2 + 1;
+
+	// instance variables
+	private int _mask;
+	private long[] _keys;
+	private long[] _versions;
+	private char[] _values;
+	private boolean[] _referenced;
+	private int[] _hands;
+	private int _size = 0;
+	private long _hitCount = 0;
+	private long _missCount = 0;
+	private long _evictionCount = 0;
+
+	/**
+	 * Constructor - holds up to DEFAULT_CAPACITY results
+	 */
+	public RecognitionCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 * @param capacity - largest number of results held, rounded up to a power of two of at least WINDOW
+	 */
+	public RecognitionCache(int capacity) {
+		int slots = Integer.highestOneBit(Math.max(WINDOW, capacity) - 1) << 1;
+		_mask = slots - 1;
+		_keys = new long[slots];
+		_versions = new long[slots];
+		_values = new char[slots];
+		_referenced = new boolean[slots];
+		_hands = new int[slots / WINDOW];
+	}
+
+	/**
+	 * Find the letter a model recognized for a Grid
+	 * @param bits - packed cells of the Grid
+	 * @param version - version of the model, at least 1
+	 * @return letter, 0 if nothing was recognized, NOT_FOUND if it is not cached
+	 */
+	public synchronized int get(long bits, long version) {
+		int start = slot(bits, version);
+		for (int i = 0; i < WINDOW; i++) {
+			int slot = (start + i) & _mask;
+			if (_versions[slot] == 0) {
+				break;
+			}
+			if (_keys[slot] == bits && _versions[slot] == version) {
+				_referenced[slot] = true;
+				_hitCount++;
+				return _values[slot];
+			}
+		}
+		_missCount++;
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Cache the letter a model recognized for a Grid
+	 * @param bits - packed cells of the Grid
+	 * @param version - version of the model, at least 1
+	 * @param value - letter recognized, 0 if nothing was recognized
+	 */
+	public synchronized void put(long bits, long version, char value) {
+		int start = slot(bits, version);
+		for (int i = 0; i < WINDOW; i++) {
+			int slot = (start + i) & _mask;
+			if (_versions[slot] == 0) {
+				set(slot, bits, version, value);
+				_size++;
+				return;
+			}
+			if (_keys[slot] == bits && _versions[slot] == version) {
+				_values[slot] = value;
+				return;
+			}
+		}
+
+		// the block is full, its clock hand picks the slot to evict
+		int block = start / WINDOW;
+		int hand = _hands[block];
+		while (_referenced[(start + hand) & _mask]) {
+			_referenced[(start + hand) & _mask] = false;
+			hand = (hand + 1) % WINDOW;
+		}
+		set((start + hand) & _mask, bits, version, value);
+		_hands[block] = (hand + 1) % WINDOW;
+		_evictionCount++;
+	}
+
+	/**
+	 * Drop every cached result
+	 */
+	public synchronized void clear() {
+		for (int slot = 0; slot <= _mask; slot++) {
+			_versions[slot] = 0;
+			_referenced[slot] = false;
+		}
+		_size = 0;
+	}
+
+	/**
+	 * Get the number of results held
+	 * @return size
+	 */
+	public synchronized int getSize() {
+		return _size;
+	}
+
+	/**
+	 * Get the largest number of results held
+	 * @return capacity
+	 */
+	public int getCapacity() {
+		return _mask + 1;
+	}
+
+	/**
+	 * Get the number of lookups that found a result
+	 * @return hit count
+	 */
+	public synchronized long getHitCount() {
+		return _hitCount;
+	}
+
+	/**
+	 * Get the number of lookups that found nothing
+	 * @return miss count
+	 */
+	public synchronized long getMissCount() {
+		return _missCount;
+	}
+
+	/**
+	 * Get the share of lookups that found a result
+	 * @return hit rate, from 0 to 1
+	 */
+	public synchronized double getHitRate() {
+		long lookups = _hitCount + _missCount;
+		return lookups == 0 ? 0.0 : (double) _hitCount / lookups;
+	}
+
+	/**
+	 * Get the number of results evicted to make room for others
+	 * @return eviction count
+	 */
+	public synchronized long getEvictionCount() {
+		return _evictionCount;
+	}
+
+	/**
+	 * Get the number of bytes held by the table
+	 * @return bytes
+	 */
+	public long getByteCount() {
+		return (long) BYTES_PER_SLOT * (_mask + 1);
+	}
+
+	/**
+	 * Reset the hit, miss and eviction counts
+	 */
+	public synchronized void resetStatistics() {
+		_hitCount = 0;
+		_missCount = 0;
+		_evictionCount = 0;
+	}
+
+	/**
+	 * Fill a slot with a result
+	 * @param slot - slot to fill
+	 * @param bits - packed cells of the Grid
+	 * @param version - version of the model
+	 * @param value - letter recognized
+	 */
+	private void set(int slot, long bits, long version, char value) {
+		_keys[slot] = bits;
+		_versions[slot] = version;
+		_values[slot] = value;
+		_referenced[slot] = false;
+	}
+
+	/**
+	 * Get the first slot of a key's block
+	 * @param bits - packed cells of the Grid
+	 * @param version - version of the model
+	 * @return slot
+	 */
+	private int slot(long bits, long version) {
+		long hash = (bits ^ (version * 0x9E3779B97F4A7C15L)) * 0xFF51AFD7ED558CCDL;
+		return (int) (hash ^ (hash >>> 32)) & _mask & ~(WINDOW - 1);
+	}
+}
@@ -0,0 +1,19 @@
+package ocr.data;
+
+import ocr.info.Grid;
+
+/**
+ * Interface to implement for anything that can recognize the letter drawn on a Grid
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public interface Recognizer {
+	/**
+	 * Process a Grid and return the letter it represents
+	 * @param grid - Grid to process
+	 * @return char result, 0 if no letter was recognized
+	 * @throws Exception
+	 */
+	char process(Grid grid) throws Exception;
+}
@@ -0,0 +1,265 @@
+package ocr.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * A GridSource that streams one or more shard files, each a packed TrainingSet
+ * (.tsp, see PackedTrainingSet). Each epoch reads the shards one after another
+ * through a small buffer, so only one Grid is held in memory at a time and the
+ * shards together can be far larger than the heap.
+ *
+ * The order of the shards can be shuffled every epoch, and write() splits any
+ * GridSource (for example an augmented one) into shards.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class ShardedGridSource extends GridSource {
+	// public constants
+	public static final int DEFAULT_SHARD_SIZE = 1 << 20;
+
+	// private constants
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// instance variables
+	private File[] _shards;
+	private long _count = 0;
+	private int[] _order;
+	private Random _rnd = null;
+	private int _shard = -1;
+	private DataInputStream _stream = null;
+	private int _remaining = 0;
+	private char _value = 0;
+
+	/**
+	 * Constructor - reads the header of every shard
+	 * @param shards - packed TrainingSet files to stream, in order
+	 * @throws Exception - throws an exception if a shard is not a packed TrainingSet or
+	 * its Grids are not the same size as the first shard's
+	 */
+	public ShardedGridSource(File[] shards) throws Exception {
+		super(readGridSize(shards));
+		_shards = shards.clone();
+		_order = new int[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			_order[i] = i;
+			int[] header = readHeader(shards[i]);
+			if (header[0] != getGridSize()) {
+				throw new Exception(String.format(
+						"ShardedGridSource loaded invalid shard %s, expected grid size %d not %d",
+						shards[i],
+						getGridSize(),
+						header[0]));
+			}
+			_count += header[1];
+		}
+	}
+
+	/**
+	 * Shuffle the order of the shards at the start of every epoch
+	 * @param rnd - Random to shuffle with, null to keep the shards in order
+	 */
+	public void setShuffle(Random rnd) {
+		_rnd = rnd;
+	}
+
+	/**
+	 * Get the number of shards
+	 * @return shard count
+	 */
+	public int getShardCount() {
+		return _shards.length;
+	}
+
+	/**
+	 * Get the number of Grids across all shards
+	 * @return count
+	 */
+	@Override
+	public long getCount() {
+		return _count;
+	}
+
+	/**
+	 * Go back to the first shard for the next epoch
+	 * @throws Exception
+	 */
+	@Override
+	public void reset() throws Exception {
+		close();
+		_shard = -1;
+		_remaining = 0;
+
+		if (_rnd != null) {
+			for (int i = _order.length - 1; i > 0; i--) {
+				int j = _rnd.nextInt(i + 1);
+				int swap = _order[i];
+				_order[i] = _order[j];
+				_order[j] = swap;
+			}
+		}
+	}
+
+	/**
+	 * Read the next Grid, moving on to the next shard when one runs out
+	 * @param words - array to fill, getWordCount() long
+	 * @return true if a Grid was read, false after the last shard
+	 * @throws Exception
+	 */
+	@Override
+	public boolean nextGrid(long[] words) throws Exception {
+		while (_remaining == 0) {
+			close();
+			if (_shard + 1 >= _shards.length) {
+				return false;
+			}
+			_shard++;
+			openShard(_shards[_order[_shard]]);
+		}
+
+		for (int w = 0; w < words.length; w++) {
+			words[w] = _stream.readLong();
+		}
+		_value = _stream.readChar();
+		_remaining--;
+		return true;
+	}
+
+	/**
+	 * Get the expected value of the last Grid read
+	 * @return expected value
+	 */
+	@Override
+	public char getValue() {
+		return _value;
+	}
+
+	/**
+	 * Close the shard being read, it is opened again by the next epoch
+	 * @throws Exception
+	 */
+	public void close() throws Exception {
+		if (_stream != null) {
+			_stream.close();
+			_stream = null;
+		}
+	}
+
+	/**
+	 * Write every Grid of a GridSource to shards of at most shardSize Grids, named
+	 * prefix-00000.tsp, prefix-00001.tsp, ...
+	 * @param source - GridSource to write, it is reset first
+	 * @param directory - directory to write the shards to
+	 * @param prefix - start of the name of each shard
+	 * @param shardSize - largest number of Grids in a shard
+	 * @return shards written
+	 * @throws Exception
+	 */
+	public static File[] write(GridSource source, File directory, String prefix, int shardSize) throws Exception {
+		if (shardSize < 1) {
+			throw new Exception(String.format(
+					"write called on ShardedGridSource with invalid shardSize, expected at least 1 not %d",
+					shardSize));
+		}
+
+		ArrayList<File> shards = new ArrayList<File>();
+		long[] words = new long[source.getWordCount()];
+		source.reset();
+
+		boolean more = source.nextGrid(words);
+		while (more) {
+			File shard = new File(directory, String.format("%s-%05d%s", prefix, shards.size(), PackedTrainingSet.EXTENSION));
+			DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(shard), BUFFER_SIZE));
+			int count = 0;
+			try {
+				// the count is filled in once the shard is full
+				os.writeInt(PackedTrainingSet.MAGIC);
+				os.writeInt(PackedTrainingSet.VERSION);
+				os.writeInt(source.getGridSize());
+				os.writeInt(0);
+				while (more && count < shardSize) {
+					for (long word : words) {
+						os.writeLong(word);
+					}
+					os.writeChar(source.getValue());
+					count++;
+					more = source.nextGrid(words);
+				}
+			} finally {
+				os.close();
+			}
+
+			RandomAccessFile raf = new RandomAccessFile(shard, "rw");
+			try {
+				raf.seek(12);
+				raf.writeInt(count);
+			} finally {
+				raf.close();
+			}
+			shards.add(shard);
+		}
+
+		return shards.toArray(new File[shards.size()]);
+	}
+
+	/**
+	 * Open a shard and read its header
+	 * @param shard - shard to open
+	 * @throws Exception
+	 */
+	private void openShard(File shard) throws Exception {
+		_stream = new DataInputStream(new BufferedInputStream(new FileInputStream(shard), BUFFER_SIZE));
+		_stream.readInt();
+		_stream.readInt();
+		_stream.readInt();
+		_remaining = _stream.readInt();
+	}
+
+	/**
+	 * Read the grid size from the first shard
+	 * @param shards - shards to stream
+	 * @return grid size
+	 * @throws Exception - throws an exception if there are no shards
+	 */
+	private static int readGridSize(File[] shards) throws Exception {
+		if (shards.length == 0) {
+			throw new Exception("ShardedGridSource created with no shards");
+		}
+		return readHeader(shards[0])[0];
+	}
+
+	/**
+	 * Read the header of a shard
+	 * @param shard - shard to read
+	 * @return grid size and count
+	 * @throws Exception - throws an exception if the shard is not a packed TrainingSet
+	 */
+	private static int[] readHeader(File shard) throws Exception {
+		DataInputStream is = new DataInputStream(new FileInputStream(shard));
+		try {
+			int magic = is.readInt();
+			int version = is.readInt();
+			if (magic != PackedTrainingSet.MAGIC || version != PackedTrainingSet.VERSION) {
+				throw new Exception(String.format(
+						"ShardedGridSource loaded invalid shard %s, expected magic %08x version %d not %08x version %d",
+						shard,
+						PackedTrainingSet.MAGIC,
+						PackedTrainingSet.VERSION,
+						magic,
+						version));
+			}
+			return new int[] { is.readInt(), is.readInt() };
+		} finally {
+			is.close();
+		}
+	}
+}
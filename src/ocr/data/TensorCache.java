@@ -0,0 +1,375 @@
+package ocr.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import neural.net.Trainer;
+
+/**
+ * Cache of TrainingSets converted into the inputs and expected outputs of a
+ * Network (the same as GridProcessor.convertGrid and convertExpectedOutput), so
+ * training the same set again doesn't convert it again. Entries are keyed by the
+ * content hash of the set and its grid size, so an edited set is converted
+ * afresh while an unchanged one (even reloaded from its file) is found again.
+ *
+ * Entries are kept in memory up to a size limit, least recently used first
+ * out, and can also be written to a directory so they outlive the program.
+ * Trainers only read the arrays of an entry, so every run shares them, and the
+ * expected outputs are shared between every sample with the same value.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class TensorCache {
+	// public constants
+	public static final long DEFAULT_MAX_BYTES = 256L << 20;
+	public static final String EXTENSION = ".tensors";
+
+	// private constants
+	private static final int MAGIC = 0x4F435254; // "OCRT"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 20;
+
+	// instance variables
+	private long _maxBytes;
+	private long _bytes = 0;
+	private File _directory = null;
+	private LinkedHashMap<String, Tensors> _entries = new LinkedHashMap<String, Tensors>(16, 0.75f, true);
+	private int _hitCount = 0;
+	private int _diskHitCount = 0;
+	private int _missCount = 0;
+
+	/**
+	 * Constructor - creates a cache that holds up to DEFAULT_MAX_BYTES in memory
+	 */
+	public TensorCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Constructor
+	 * @param maxBytes - largest number of bytes of arrays to keep in memory
+	 */
+	public TensorCache(long maxBytes) {
+		_maxBytes = maxBytes;
+	}
+
+	/**
+	 * Set a directory to keep converted sets in as well as memory
+	 * @param directory - directory to write entries to, null to only keep them in memory
+	 */
+	public synchronized void setDirectory(File directory) {
+		_directory = directory;
+	}
+
+	/**
+	 * Get the directory converted sets are kept in
+	 * @return directory, null if entries are only kept in memory
+	 */
+	public synchronized File getDirectory() {
+		return _directory;
+	}
+
+	/**
+	 * Get the number of sets found in memory
+	 * @return hit count
+	 */
+	public synchronized int getHitCount() {
+		return _hitCount;
+	}
+
+	/**
+	 * Get the number of sets read back from the directory
+	 * @return disk hit count
+	 */
+	public synchronized int getDiskHitCount() {
+		return _diskHitCount;
+	}
+
+	/**
+	 * Get the number of sets that had to be converted
+	 * @return miss count
+	 */
+	public synchronized int getMissCount() {
+		return _missCount;
+	}
+
+	/**
+	 * Get the number of bytes of arrays held in memory
+	 * @return bytes
+	 */
+	public synchronized long getByteCount() {
+		return _bytes;
+	}
+
+	/**
+	 * Drop every entry held in memory, entries in the directory are kept
+	 */
+	public synchronized void clear() {
+		_entries.clear();
+		_bytes = 0;
+	}
+
+	/**
+	 * Get a TrainingSet converted for a Network: from memory, from the directory, or converted now
+	 * @param trainingSet - snapshot of the TrainingSet to convert
+	 * @return converted set
+	 * @throws Exception
+	 */
+	public synchronized Tensors get(TrainingSetSnapshot trainingSet) throws Exception {
+		String key = String.format("%016x-%d", trainingSet.getContentHash(), trainingSet.getGridSize());
+		Tensors tensors = _entries.get(key);
+		if (tensors != null) {
+			_hitCount++;
+			return tensors;
+		}
+
+		File file = _directory == null ? null : new File(_directory, key + EXTENSION);
+		if (file != null && file.exists()) {
+			tensors = read(file);
+			_diskHitCount++;
+		} else {
+			tensors = convert(trainingSet);
+			_missCount++;
+			if (file != null && fileSize(tensors) <= Integer.MAX_VALUE) {
+				write(file, tensors);
+			}
+		}
+
+		put(key, tensors);
+		return tensors;
+	}
+
+	/**
+	 * Keep an entry in memory, dropping the least recently used entries to stay within the limit
+	 * @param key - key of the entry
+	 * @param tensors - converted set
+	 */
+	private void put(String key, Tensors tensors) {
+		long bytes = tensors.getByteCount();
+		if (bytes > _maxBytes) {
+			return;
+		}
+
+		_entries.put(key, tensors);
+		_bytes += bytes;
+		Iterator<Map.Entry<String, Tensors>> it = _entries.entrySet().iterator();
+		while (_bytes > _maxBytes && it.hasNext()) {
+			Map.Entry<String, Tensors> eldest = it.next();
+			_bytes -= eldest.getValue().getByteCount();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Convert every TrainingGrid of a set
+	 * @param trainingSet - snapshot of the TrainingSet to convert
+	 * @return converted set
+	 * @throws Exception
+	 */
+	private static Tensors convert(TrainingSetSnapshot trainingSet) throws Exception {
+		int count = trainingSet.getCount();
+		GridSource source = trainingSet.getGridSource();
+		double[][] inputs = new double[count][];
+		double[][] expectedOutputs = new double[count][];
+		HashMap<Character, double[]> outputs = new HashMap<Character, double[]>();
+
+		double[] expected = new double[source.getOutputCount()];
+		source.reset();
+		for (int i = 0; i < count; i++) {
+			inputs[i] = new double[source.getInputCount()];
+			source.next(inputs[i], expected);
+			expectedOutputs[i] = sharedOutput(outputs, source.getValue(), expected);
+		}
+		return new Tensors(inputs, expectedOutputs, outputs.size());
+	}
+
+	/**
+	 * Get the expected output array shared by every sample with a value
+	 * @param outputs - arrays shared so far, by value
+	 * @param value - expected value of the sample
+	 * @param expected - expected output of the sample, copied the first time a value is seen
+	 * @return shared array
+	 */
+	private static double[] sharedOutput(HashMap<Character, double[]> outputs, char value, double[] expected) {
+		double[] output = outputs.get(value);
+		if (output == null) {
+			output = expected.clone();
+			outputs.put(value, output);
+		}
+		return output;
+	}
+
+	/**
+	 * Get the size of the file a converted set is written to, it is mapped to be read back so
+	 * only sets within Integer.MAX_VALUE bytes are written
+	 * @param tensors - converted set
+	 * @return bytes
+	 */
+	private static long fileSize(Tensors tensors) {
+		double[][] inputs = tensors.getInputs();
+		if (inputs.length == 0) {
+			return HEADER_SIZE;
+		}
+		return HEADER_SIZE + 8L * inputs.length * (inputs[0].length + tensors.getExpectedOutputs()[0].length);
+	}
+
+	/**
+	 * Write a converted set to a file: a header (magic number, version, count, input and output
+	 * size) then the inputs and expected outputs of each sample as doubles
+	 * @param file - File to write
+	 * @param tensors - converted set
+	 * @throws Exception
+	 */
+	private static void write(File file, Tensors tensors) throws Exception {
+		double[][] inputs = tensors.getInputs();
+		double[][] expectedOutputs = tensors.getExpectedOutputs();
+		File temp = TrainingSetJournal.tempFile(file);
+		DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+		try {
+			os.writeInt(MAGIC);
+			os.writeInt(VERSION);
+			os.writeInt(inputs.length);
+			os.writeInt(inputs.length == 0 ? 0 : inputs[0].length);
+			os.writeInt(inputs.length == 0 ? 0 : expectedOutputs[0].length);
+			for (int i = 0; i < inputs.length; i++) {
+				for (double input : inputs[i]) {
+					os.writeDouble(input);
+				}
+				for (double output : expectedOutputs[i]) {
+					os.writeDouble(output);
+				}
+			}
+		} finally {
+			os.close();
+		}
+
+		// another program reading the directory only ever sees whole entries
+		TrainingSetJournal.replaceAtomically(temp, file);
+	}
+
+	/**
+	 * Read a converted set from a file
+	 * @param file - File to read
+	 * @return converted set
+	 * @throws Exception - throws an exception if the file is not a converted set
+	 */
+	private static Tensors read(File file) throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer;
+		try {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+
+		int magic = buffer.getInt(0);
+		int version = buffer.getInt(4);
+		int count = buffer.getInt(8);
+		int inputCount = buffer.getInt(12);
+		int outputCount = buffer.getInt(16);
+		long expected = HEADER_SIZE + 8L * count * (inputCount + outputCount);
+		if (magic != MAGIC || version != VERSION || buffer.capacity() != expected) {
+			throw new Exception(String.format(
+					"TensorCache loaded invalid file %s, expected magic %08x version %d and %d bytes not %08x version %d and %d bytes",
+					file,
+					MAGIC,
+					VERSION,
+					expected,
+					magic,
+					version,
+					buffer.capacity()));
+		}
+
+		buffer.position(HEADER_SIZE);
+		DoubleBuffer doubles = buffer.asDoubleBuffer();
+		double[][] inputs = new double[count][];
+		double[][] expectedOutputs = new double[count][];
+		HashMap<String, double[]> outputs = new HashMap<String, double[]>();
+		double[] output = new double[outputCount];
+		for (int i = 0; i < count; i++) {
+			inputs[i] = new double[inputCount];
+			doubles.get(inputs[i]);
+			doubles.get(output);
+
+			// share the expected outputs again, they are the same for every sample with a value
+			String outputKey = Arrays.toString(output);
+			expectedOutputs[i] = outputs.get(outputKey);
+			if (expectedOutputs[i] == null) {
+				expectedOutputs[i] = output.clone();
+				outputs.put(outputKey, expectedOutputs[i]);
+			}
+		}
+		return new Tensors(inputs, expectedOutputs, outputs.size());
+	}
+
+	/**
+	 * The inputs and expected outputs of a converted TrainingSet, the arrays must only be read
+	 */
+	public static class Tensors {
+		// instance variables
+		private double[][] _inputs;
+		private double[][] _expectedOutputs;
+		private long _byteCount;
+
+		/**
+		 * Constructor
+		 * @param inputs - input of each sample
+		 * @param expectedOutputs - expected output of each sample
+		 * @param outputCount - number of distinct expected output arrays
+		 */
+		private Tensors(double[][] inputs, double[][] expectedOutputs, int outputCount) {
+			_inputs = inputs;
+			_expectedOutputs = expectedOutputs;
+			int inputSize = inputs.length == 0 ? 0 : inputs[0].length;
+			int outputSize = inputs.length == 0 ? 0 : expectedOutputs[0].length;
+			_byteCount = 8L * inputs.length * inputSize + 8L * outputCount * outputSize;
+		}
+
+		/**
+		 * Get the input of each sample
+		 * @return inputs
+		 */
+		public double[][] getInputs() {
+			return _inputs;
+		}
+
+		/**
+		 * Get the expected output of each sample
+		 * @return expected outputs
+		 */
+		public double[][] getExpectedOutputs() {
+			return _expectedOutputs;
+		}
+
+		/**
+		 * Get the number of bytes held by the arrays
+		 * @return bytes
+		 */
+		public long getByteCount() {
+			return _byteCount;
+		}
+
+		/**
+		 * Add every sample to a Trainer
+		 * @param trainer - Trainer to add the inputs and expected outputs to
+		 * @throws Exception
+		 */
+		public void fillTrainer(Trainer trainer) throws Exception {
+			for (int i = 0; i < _inputs.length; i++) {
+				trainer.addInputOutput(_inputs[i], _expectedOutputs[i]);
+			}
+		}
+	}
+}
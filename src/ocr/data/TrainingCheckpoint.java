@@ -0,0 +1,121 @@
+package ocr.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import neural.net.Network;
+import neural.net.Trainer;
+
+/**
+ * The state of a training run after a number of epochs: the Trainer with its
+ * Network and everything it needs to carry on exactly where it stopped (the
+ * population and Random of an EvolutionaryTrainer), the number of epochs run and
+ * the number the run was set to. The inputs are not part of a checkpoint, the
+ * Trainer is filled from the same TrainingSet again when the run is resumed.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class TrainingCheckpoint implements Serializable {
+	/**
+	 * generated Serial Version UID
+	 */
+	private static final long serialVersionUID = -3371629472145902188L;
+
+	// public constants
+	public static final String EXTENSION = ".ckpt";
+
+	// instance variables
+	private Trainer _trainer;
+	private int _epoch;
+	private int _epochCount;
+	private long _time;
+
+	/**
+	 * Constructor
+	 * @param trainer - Trainer of the run, it is kept as it is (see toBytes() for a copy)
+	 * @param epoch - number of epochs run
+	 * @param epochCount - number of epochs the run was set to
+	 */
+	public TrainingCheckpoint(Trainer trainer, int epoch, int epochCount) {
+		_trainer = trainer;
+		_epoch = epoch;
+		_epochCount = epochCount;
+		_time = System.currentTimeMillis();
+	}
+
+	/**
+	 * Get the Trainer of the run, without its inputs when the checkpoint was loaded
+	 * @return Trainer
+	 */
+	public Trainer getTrainer() {
+		return _trainer;
+	}
+
+	/**
+	 * Get the Network being trained
+	 * @return Network
+	 */
+	public Network getNetwork() {
+		return _trainer.getNetwork();
+	}
+
+	/**
+	 * Get the number of epochs run
+	 * @return epoch
+	 */
+	public int getEpoch() {
+		return _epoch;
+	}
+
+	/**
+	 * Get the number of epochs the run was set to
+	 * @return epoch count
+	 */
+	public int getEpochCount() {
+		return _epochCount;
+	}
+
+	/**
+	 * Get the time the checkpoint was taken
+	 * @return milliseconds since the epoch (as System.currentTimeMillis())
+	 */
+	public long getTime() {
+		return _time;
+	}
+
+	/**
+	 * Serialize the checkpoint, the bytes are a copy of the Trainer as it is now, so training
+	 * can carry on while they are written out
+	 * @return serialized checkpoint
+	 * @throws IOException
+	 */
+	public byte[] toBytes() throws IOException {
+		ByteArrayOutputStream bs = new ByteArrayOutputStream();
+		ObjectOutputStream os = new ObjectOutputStream(bs);
+		os.writeObject(this);
+		os.close();
+		return bs.toByteArray();
+	}
+
+	/**
+	 * Load a checkpoint from a file
+	 * @param file - File to load
+	 * @return TrainingCheckpoint
+	 * @throws Exception
+	 */
+	public static TrainingCheckpoint load(File file) throws Exception {
+		FileInputStream fs = new FileInputStream(file);
+		ObjectInputStream os = new ObjectInputStream(fs);
+		try {
+			return (TrainingCheckpoint)os.readObject();
+		} finally {
+			os.close();
+		}
+	}
+}
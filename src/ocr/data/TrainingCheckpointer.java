@@ -0,0 +1,234 @@
+package ocr.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import neural.net.Trainer;
+
+/**
+ * Write TrainingCheckpoints of a run to a file every so many epochs or seconds,
+ * whichever comes first, so a run that is cancelled or dies can be resumed.
+ *
+ * Taking a checkpoint serializes the Trainer into memory on the training thread
+ * (a copy, so training can carry on), and a background thread writes it to a
+ * temporary file, forces it to disk and renames it over the last checkpoint, so
+ * the file always holds a whole checkpoint even after a crash. If the last
+ * checkpoint is still being written when the next one is due, the next one is
+ * skipped rather than making training wait, and is taken after the next epoch.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class TrainingCheckpointer {
+	// public constants
+	public static final int DEFAULT_EPOCH_INTERVAL = 100;
+	public static final long DEFAULT_TIME_INTERVAL = 60 * 1000;
+
+	// instance variables
+	private File _file;
+	private int _epochInterval = DEFAULT_EPOCH_INTERVAL;
+	private long _timeInterval = DEFAULT_TIME_INTERVAL;
+	private int _lastEpoch = 0;
+	private long _lastTime = System.currentTimeMillis();
+	private Thread _writer = null;
+	private Exception _writeError = null;
+	private int _writeCount = 0;
+	private int _skippedCount = 0;
+	private long _captureNanos = 0;
+	private long _writeNanos = 0;
+
+	/**
+	 * Constructor - checkpoints every DEFAULT_EPOCH_INTERVAL epochs or DEFAULT_TIME_INTERVAL milliseconds
+	 * @param file - File to write the checkpoints to, each one replaces the last
+	 */
+	public TrainingCheckpointer(File file) {
+		_file = file;
+	}
+
+	/**
+	 * Get the file the checkpoints are written to
+	 * @return File
+	 */
+	public File getFile() {
+		return _file;
+	}
+
+	/**
+	 * Set how often checkpoints are taken
+	 * @param epochInterval - number of epochs between checkpoints, 0 to not count epochs
+	 * @param timeInterval - milliseconds between checkpoints, 0 to not count time
+	 */
+	public synchronized void setInterval(int epochInterval, long timeInterval) {
+		_epochInterval = epochInterval;
+		_timeInterval = timeInterval;
+	}
+
+	/**
+	 * Start counting the intervals from the start (or resume) of a run
+	 * @param epoch - number of epochs already run
+	 */
+	public synchronized void start(int epoch) {
+		_lastEpoch = epoch;
+		_lastTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Check if a checkpoint is due
+	 * @param epoch - number of epochs run
+	 * @return true if an interval has passed since the last checkpoint
+	 */
+	public synchronized boolean isDue(int epoch) {
+		return (_epochInterval > 0 && epoch - _lastEpoch >= _epochInterval) ||
+				(_timeInterval > 0 && System.currentTimeMillis() - _lastTime >= _timeInterval);
+	}
+
+	/**
+	 * Take a checkpoint if one is due and the last one has been written, it is written on a
+	 * background thread
+	 * @param trainer - Trainer of the run, after its last epoch
+	 * @param epoch - number of epochs run
+	 * @param epochCount - number of epochs the run was set to
+	 * @return true if a checkpoint was taken
+	 * @throws Exception - throws an exception if writing the last checkpoint failed
+	 */
+	public synchronized boolean checkpoint(Trainer trainer, int epoch, int epochCount) throws Exception {
+		throwWriteError();
+		if (!isDue(epoch)) {
+			return false;
+		}
+		if (_writer != null) {
+			_skippedCount++;
+			return false;
+		}
+
+		write(trainer, epoch, epochCount);
+		return true;
+	}
+
+	/**
+	 * Take a checkpoint now, waiting for the last one to be written first, it is written on a
+	 * background thread (see await())
+	 * @param trainer - Trainer of the run, after its last epoch
+	 * @param epoch - number of epochs run
+	 * @param epochCount - number of epochs the run was set to
+	 * @throws Exception - throws an exception if writing the last checkpoint failed
+	 */
+	public synchronized void save(Trainer trainer, int epoch, int epochCount) throws Exception {
+		await();
+		write(trainer, epoch, epochCount);
+	}
+
+	/**
+	 * Wait for the checkpoint being written to finish
+	 * @throws Exception - throws an exception if writing it failed
+	 */
+	public synchronized void await() throws Exception {
+		while (_writer != null) {
+			wait();
+		}
+		throwWriteError();
+	}
+
+	/**
+	 * Get the number of checkpoints written
+	 * @return checkpoint count
+	 */
+	public synchronized int getCheckpointCount() {
+		return _writeCount;
+	}
+
+	/**
+	 * Get the number of checkpoints skipped because the last one was still being written
+	 * @return skipped count
+	 */
+	public synchronized int getSkippedCount() {
+		return _skippedCount;
+	}
+
+	/**
+	 * Get the time training spent taking checkpoints (serializing the Trainer)
+	 * @return milliseconds
+	 */
+	public synchronized double getCaptureTime() {
+		return _captureNanos / 1e6;
+	}
+
+	/**
+	 * Get the time the background thread spent writing checkpoints
+	 * @return milliseconds
+	 */
+	public synchronized double getWriteTime() {
+		return _writeNanos / 1e6;
+	}
+
+	/**
+	 * Serialize a checkpoint and start writing it
+	 * @param trainer - Trainer of the run
+	 * @param epoch - number of epochs run
+	 * @param epochCount - number of epochs the run was set to
+	 * @throws Exception
+	 */
+	private void write(Trainer trainer, int epoch, int epochCount) throws Exception {
+		long start = System.nanoTime();
+		final byte[] bytes = new TrainingCheckpoint(trainer, epoch, epochCount).toBytes();
+		_captureNanos += System.nanoTime() - start;
+		_lastEpoch = epoch;
+		_lastTime = System.currentTimeMillis();
+
+		_writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.nanoTime();
+				boolean written = false;
+				try {
+					writeAtomically(bytes);
+					written = true;
+				} catch (Exception ex) {
+					synchronized (TrainingCheckpointer.this) {
+						_writeError = ex;
+					}
+				} finally {
+					synchronized (TrainingCheckpointer.this) {
+						if (written) {
+							_writeCount++;
+						}
+						_writeNanos += System.nanoTime() - start;
+						_writer = null;
+						TrainingCheckpointer.this.notifyAll();
+					}
+				}
+			}
+		}, "TrainingCheckpointer");
+		_writer.setDaemon(true);
+		_writer.start();
+	}
+
+	/**
+	 * Write a checkpoint to the temporary file, force it to disk and rename it over the file
+	 * @param bytes - serialized checkpoint
+	 * @throws Exception
+	 */
+	private void writeAtomically(byte[] bytes) throws Exception {
+		File temp = TrainingSetJournal.tempFile(_file);
+		FileOutputStream fs = new FileOutputStream(temp);
+		try {
+			fs.write(bytes);
+			fs.getChannel().force(false);
+		} finally {
+			fs.close();
+		}
+		TrainingSetJournal.replaceAtomically(temp, _file);
+	}
+
+	/**
+	 * Throw the error of the last write, once
+	 * @throws Exception
+	 */
+	private void throwWriteError() throws Exception {
+		if (_writeError != null) {
+			Exception error = _writeError;
+			_writeError = null;
+			throw error;
+		}
+	}
+}
@@ -1,10 +1,17 @@
 package ocr.data;
 
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+
 import javax.swing.SwingWorker;
 
 import neural.net.BackPropagator;
+import neural.net.EvolutionaryTrainer;
 import neural.net.Network;
-import ocr.info.TrainingGrid;
+import neural.net.PrefetchingSource;
+import neural.net.Trainer;
+import neural.net.TrainingSource;
+import ocr.info.Constants;
 
 /**
  * Manage training of a Neural Network
@@ -13,11 +20,33 @@ import ocr.info.TrainingGrid;
  * @version 1.0.0
  */
 public class TrainingManager extends SwingWorker<Void, Void> {
+	/**
+	 * Name of the property fired with a status message after each epoch
+	 */
+	public static final String STATUS_PROPERTY = "status";
+
+	/**
+	 * Methods available to train a Network with
+	 */
+	public enum Method {
+		BACK_PROPAGATION,
+		EVOLUTION
+	}
+
 	// instance variables
-	private TrainingSetManager _trainingSet;
-	private Network _network; // TODO: should this be NetworkManager
+	private TrainingSetSnapshot _trainingSet;
+	private TrainingSource _trainingSource = null;
+	private TensorCache _tensorCache = null;
+	private Network _network;
+	private NetworkManager _networkManager = null;
+	private LetterNetworkManager _letterNetworks = null;
+	private String _letters = null;
+	private Method _method = Method.BACK_PROPAGATION;
 	private double _learningRate = 0.7;
+	private int _populationSize = Constants.POPULATION_SIZE;
 	private int _epochCount = 0;
+	private TrainingCheckpointer _checkpointer = null;
+	private TrainingCheckpoint _checkpoint = null;
 	
 	/**
 	 * Set the number of epochs to train
@@ -36,13 +65,110 @@ public class TrainingManager extends SwingWorker<Void, Void> {
 	}
 
 	/**
-	 * Set the TrainingSet to use for training
+	 * Set the Network of a NetworkManager to use for training, the NetworkManager is told
+	 * its Network changed now and when training ends, and its Network can not be replaced
+	 * (by an OnlineTrainer) while training runs. The Network is read again when training
+	 * starts, so it is the NetworkManager's Network that gets trained
+	 * @param networkManager - the NetworkManager to train
+	 */
+	public void setNetworkManager(NetworkManager networkManager) {
+		_network = networkManager.getNetwork();
+		_networkManager = networkManager;
+		// fine-tunings copied from the Network before now can no longer replace it
+		networkManager.networkChanged();
+	}
+
+	/**
+	 * Set one-vs-rest letter Networks to train instead of the Network, the letters are
+	 * trained concurrently with back-propagation
+	 * @param letterNetworks - the LetterNetworkManager to train
+	 * @param letter - the only letter to retrain, 0 to train every letter
+	 */
+	public void setLetterNetworks(LetterNetworkManager letterNetworks, char letter) {
+		setLetterNetworks(letterNetworks, letter == 0 ? null : String.valueOf(letter));
+	}
+
+	/**
+	 * Set one-vs-rest letter Networks to train instead of the Network, the letters are
+	 * trained concurrently with back-propagation
+	 * @param letterNetworks - the LetterNetworkManager to train
+	 * @param letters - the letters to retrain (see LetterNetworkManager.getChangedLetters()),
+	 *   null to train every letter
+	 */
+	public void setLetterNetworks(LetterNetworkManager letterNetworks, String letters) {
+		_letterNetworks = letterNetworks;
+		_letters = letters;
+	}
+
+	/**
+	 * Set the TrainingSet to use for training, training uses a snapshot of the set as it is
+	 * now so the set can keep being edited while the training runs
 	 * @param trainingSet - the TrainingSet to set
 	 */
 	public void setTrainingSet(TrainingSetManager trainingSet) {
+		_trainingSet = trainingSet.snapshot();
+	}
+
+	/**
+	 * Set the snapshot of a TrainingSet to use for training
+	 * @param trainingSet - the TrainingSetSnapshot to set
+	 */
+	public void setTrainingSet(TrainingSetSnapshot trainingSet) {
 		_trainingSet = trainingSet;
 	}
 
+	/**
+	 * Set a TrainingSource to stream each epoch from instead of the TrainingSet, for
+	 * sets too large to hold in memory (for example a ShardedGridSource). Wrap it in a
+	 * PrefetchingSource to prepare the samples on another thread. Only back-propagation
+	 * can train from a stream
+	 * @param trainingSource - the TrainingSource to set, null to use the TrainingSet
+	 */
+	public void setTrainingSource(TrainingSource trainingSource) {
+		_trainingSource = trainingSource;
+	}
+
+	/**
+	 * Set a cache to take the converted TrainingSet from, so training the same set again
+	 * doesn't convert it again
+	 * @param tensorCache - the TensorCache to use, null to convert the set every time
+	 */
+	public void setTensorCache(TensorCache tensorCache) {
+		_tensorCache = tensorCache;
+	}
+
+	/**
+	 * Set a TrainingCheckpointer to write checkpoints of the run to as it trains, and when it
+	 * ends or is cancelled, so it can be resumed (see resume())
+	 * @param checkpointer - the TrainingCheckpointer to use, null to not take checkpoints
+	 */
+	public void setCheckpointer(TrainingCheckpointer checkpointer) {
+		_checkpointer = checkpointer;
+	}
+
+	/**
+	 * Resume a run from a checkpoint, it trains the checkpoint's Network (see
+	 * NetworkManager(Network)) with its Trainer for the rest of the epochs the run was set to.
+	 * The TrainingSet still has to be set, and must be the one the run was started with for
+	 * the run to carry on exactly as it would have. One-vs-rest letter Networks and runs
+	 * streamed from a TrainingSource can not be resumed
+	 * @param checkpoint - the TrainingCheckpoint to resume from
+	 */
+	public void resume(TrainingCheckpoint checkpoint) {
+		_checkpoint = checkpoint;
+		_network = checkpoint.getNetwork();
+		_epochCount = checkpoint.getEpochCount();
+		_method = checkpoint.getTrainer() instanceof EvolutionaryTrainer ? Method.EVOLUTION : Method.BACK_PROPAGATION;
+	}
+
+	/**
+	 * Set the method to train with, an epoch is one generation when training with evolution
+	 * @param method - the Method to use
+	 */
+	public void setMethod(Method method) {
+		_method = method;
+	}
+
 	/**
 	 * Set the learning rate to use for training
 	 * @param learningRate - the learning rate to use
@@ -51,45 +177,208 @@ public class TrainingManager extends SwingWorker<Void, Void> {
 		_learningRate = learningRate;
 	}
 
+	/**
+	 * Set the population size to use when training with evolution
+	 * @param populationSize - the number of Networks in each generation
+	 */
+	public void setPopulationSize(int populationSize) {
+		_populationSize = populationSize;
+	}
+
 	/**
 	 * Train the set Network with the set TrainingSet and learning rate
 	 * for the set EpochCount times
 	 */
 	@Override
     public Void doInBackground() {
+		if (_letterNetworks != null) {
+			trainLetterNetworks();
+			return null;
+		}
+
+		Trainer trainer = null;
+		int progress = 0;
+		boolean isTraining = false;
 		try {
-			int progress = 0;
-			BackPropagator trainer = initializeTrainer();
+			if (_networkManager != null) {
+				_networkManager.trainingStarted();
+				isTraining = true;
+				if (_checkpoint == null) {
+					_network = _networkManager.getNetwork();
+				}
+			}
+			trainer = initializeTrainer();
+			if (_checkpoint != null) {
+				progress = _checkpoint.getEpoch();
+			}
+			if (_checkpointer != null) {
+				_checkpointer.start(progress);
+			}
 
-			setProgress(0);
+			setProgress((100 * progress) / Math.max(1, _epochCount));
             while (progress < _epochCount && !isCancelled()) {
-            	trainer.runAndUpdate();
+            	double error = runEpoch(trainer);
             	progress++;
+            	if (_checkpointer != null) {
+            		_checkpointer.checkpoint(trainer, progress, _epochCount);
+            	}
+            	reportStatus(trainer, progress, error);
                 setProgress((100 * progress) / _epochCount);
             }
         } catch (Exception ex) {
         	ex.printStackTrace();
+        } finally {
+        	saveCheckpoint(trainer, progress);
+        	if (trainer instanceof EvolutionaryTrainer) {
+        		((EvolutionaryTrainer)trainer).shutdown();
+        	}
+        	if (isTraining) {
+        		_networkManager.trainingEnded();
+        	}
         }
 
         return null;
     }
 
 	/**
-	 * Initialize back propagator with the appropriate settings
-	 * @return an initialized BackPropagator
+	 * Train the one-vs-rest letter Networks, cancelling interrupts the training
+	 */
+	private void trainLetterNetworks() {
+		PropertyChangeListener progressListener = new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent e) {
+				setProgress((Integer) e.getNewValue());
+			}
+		};
+
+		try {
+			setProgress(0);
+			_letterNetworks.addPropertyChangeListener(progressListener);
+
+			if (_letters == null) {
+				_letterNetworks.train(_trainingSet, _learningRate, _epochCount);
+			} else {
+				_letterNetworks.train(_letters, _trainingSet, _learningRate, _epochCount);
+			}
+		} catch (InterruptedException ex) {
+			// training was cancelled
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		} finally {
+			_letterNetworks.removePropertyChangeListener(progressListener);
+		}
+	}
+
+	/**
+	 * Write a last checkpoint when the run ends or is cancelled, and wait for it to be written
+	 * @param trainer - Trainer of the run, null if it was never created
+	 * @param epoch - number of epochs run
+	 */
+	private void saveCheckpoint(Trainer trainer, int epoch) {
+		if (_checkpointer == null || trainer == null) {
+			return;
+		}
+
+		// cancelling interrupts the training thread, clear that while waiting on the write
+		boolean interrupted = Thread.interrupted();
+		try {
+			_checkpointer.save(trainer, epoch, _epochCount);
+			_checkpointer.await();
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Fire a status message, evolution reports its speed and the best error so far, and a
+	 * prefetching TrainingSource how long training waited on it and how full it was kept
+	 * @param trainer - Trainer being run
+	 * @param epoch - number of epochs run
+	 * @param error - error returned by the last epoch
+	 */
+	private void reportStatus(Trainer trainer, int epoch, double error) {
+		if (trainer instanceof EvolutionaryTrainer) {
+			EvolutionaryTrainer evolution = (EvolutionaryTrainer)trainer;
+			firePropertyChange(STATUS_PROPERTY, null, String.format(
+					"Generation %d, best error %.5f, %.1f generations/s",
+					epoch,
+					error,
+					evolution.getGenerationsPerSecond()));
+		} else if (_trainingSource instanceof PrefetchingSource) {
+			PrefetchingSource prefetching = (PrefetchingSource)_trainingSource;
+			firePropertyChange(STATUS_PROPERTY, null, String.format(
+					"Epoch %d, error %.5f, waited %.0f ms for data, %.1f of %d batches ready",
+					epoch,
+					error,
+					prefetching.getStallTime(),
+					prefetching.getAverageOccupancy(),
+					prefetching.getBatchCount()));
+		}
+	}
+
+	/**
+	 * Run a single epoch, from the TrainingSource if one is set
+	 * @param trainer - Trainer to run
+	 * @return error returned by the epoch
+	 * @throws Exception
+	 */
+	private double runEpoch(Trainer trainer) throws Exception {
+		if (_trainingSource != null) {
+			return ((BackPropagator)trainer).runAndUpdate(_trainingSource);
+		}
+		return trainer.runAndUpdate();
+	}
+
+	/**
+	 * Initialize the trainer for the set Method with the appropriate settings
+	 * @return an initialized Trainer
 	 * @throws Exception
 	 */
-	private BackPropagator initializeTrainer() throws Exception {
-		BackPropagator trainer = new BackPropagator(_network, _learningRate);
-		int trainingCount = _trainingSet.getCount();
-		for (int i = 0; i < trainingCount; i++) {
-			TrainingGrid t = _trainingSet.getGrid(i);
-			trainer.addInputOutput(
-					GridProcessor.convertGrid(t.getGrid()),
-					GridProcessor.convertExpectedOutput(t.getValue()));
+	private Trainer initializeTrainer() throws Exception {
+		if (_checkpoint != null) {
+			if (_trainingSource != null) {
+				throw new Exception("TrainingManager called with invalid checkpoint, a run streamed from a TrainingSource can not be resumed");
+			}
+			Trainer trainer = _checkpoint.getTrainer();
+			fillTrainer(trainer);
+			return trainer;
 		}
 
+		if (_trainingSource != null) {
+			if (_method != Method.BACK_PROPAGATION) {
+				throw new Exception(String.format(
+						"TrainingManager called with invalid method, expected %s to train from a TrainingSource not %s",
+						Method.BACK_PROPAGATION,
+						_method));
+			}
+			return new BackPropagator(_network, _learningRate);
+		}
+
+		Trainer trainer;
+		if (_method == Method.EVOLUTION) {
+			trainer = new EvolutionaryTrainer(_network, _populationSize);
+		} else {
+			trainer = new BackPropagator(_network, _learningRate);
+		}
+
+		fillTrainer(trainer);
 		return trainer;
 	}
-}
 
+	/**
+	 * Add every Grid of the TrainingSet to a Trainer, from the cache if one is set
+	 * @param trainer - Trainer to fill
+	 * @throws Exception
+	 */
+	private void fillTrainer(Trainer trainer) throws Exception {
+		if (_tensorCache != null) {
+			_tensorCache.get(_trainingSet).fillTrainer(trainer);
+		} else {
+			_trainingSet.fillTrainer(trainer);
+		}
+	}
+}
@@ -0,0 +1,592 @@
+package ocr.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+import ocr.info.Grid;
+import ocr.info.TrainingGrid;
+
+/**
+ * Append-only journal of the changes made to a TrainingSet since its file (the
+ * snapshot) was last written in full. Saving appends a small record per add,
+ * edit and remove, so a save costs as much as the change rather than the set.
+ * Once the journal grows larger than the snapshot, the snapshot is rewritten
+ * with every change on a background thread (compaction) and the journal starts
+ * over.
+ *
+ * The journal is kept next to the snapshot (set.ts.journal). It starts with the
+ * length and CRC32 of the snapshot it applies to, and every record carries its
+ * own CRC32, so a record torn by a crash is dropped on load. Snapshots are
+ * written to a temporary file and renamed over the old one, and a compaction
+ * marks the journal before renaming its snapshot, so a crash at any point
+ * leaves a snapshot and journal that replay to the last save.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class TrainingSetJournal {
+	// public constants
+	public static final String EXTENSION = ".journal";
+
+	// private constants
+	private static final int MAGIC = 0x4F43524A; // "OCRJ"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+	private static final byte ADD = 1;
+	private static final byte EDIT = 2;
+	private static final byte REMOVE_UNORDERED = 3;
+	private static final byte COMPACTED = 4;
+	private static final byte REMOVE = 5;
+	private static final long MIN_COMPACTION_SIZE = 64 * 1024;
+	private static final String TEMP_EXTENSION = ".tmp";
+	private static final String STALE_EXTENSION = ".stale";
+
+	// instance variables
+	private File _snapshot;
+	private File _file;
+	private ByteArrayOutputStream _changes = new ByteArrayOutputStream();
+	private ByteArrayOutputStream _record = new ByteArrayOutputStream();
+	private Thread _compaction = null;
+	private Exception _compactionError = null;
+	private int _compactionCount = 0;
+
+	/**
+	 * Constructor - the journal of a snapshot, the journal file is created by the first flush
+	 * @param snapshot - File the TrainingSet was last written to in full
+	 */
+	public TrainingSetJournal(File snapshot) {
+		_snapshot = snapshot;
+		_file = new File(snapshot.getPath() + EXTENSION);
+	}
+
+	/**
+	 * Get the journal file
+	 * @return File
+	 */
+	public File getFile() {
+		return _file;
+	}
+
+	/**
+	 * Get the file a journal that doesn't apply to the snapshot is moved to (see replay())
+	 * @return File
+	 */
+	public File getStaleFile() {
+		return new File(_file.getPath() + STALE_EXTENSION);
+	}
+
+	/**
+	 * Get the number of compactions that have completed
+	 * @return compaction count
+	 */
+	public synchronized int getCompactionCount() {
+		return _compactionCount;
+	}
+
+	/**
+	 * Check if there are changes that have not been flushed
+	 * @return true if there are changes
+	 */
+	public synchronized boolean hasChanges() {
+		return _changes.size() > 0;
+	}
+
+	/**
+	 * Record a TrainingGrid added to the end of the set
+	 * @param trainingGrid - TrainingGrid added
+	 * @throws Exception
+	 */
+	public synchronized void add(TrainingGrid trainingGrid) throws Exception {
+		DataOutputStream os = startRecord(ADD);
+		writeGrid(os, trainingGrid);
+		endRecord(os);
+	}
+
+	/**
+	 * Record a TrainingGrid replaced
+	 * @param index - index of the TrainingGrid replaced
+	 * @param trainingGrid - TrainingGrid it was replaced with
+	 * @throws Exception
+	 */
+	public synchronized void edit(int index, TrainingGrid trainingGrid) throws Exception {
+		DataOutputStream os = startRecord(EDIT);
+		os.writeInt(index);
+		writeGrid(os, trainingGrid);
+		endRecord(os);
+	}
+
+	/**
+	 * Record a TrainingGrid removed, the TrainingGrids after it moved down an index
+	 * @param index - index of the TrainingGrid removed
+	 * @throws Exception
+	 */
+	public synchronized void remove(int index) throws Exception {
+		DataOutputStream os = startRecord(REMOVE);
+		os.writeInt(index);
+		endRecord(os);
+	}
+
+	/**
+	 * Record a TrainingGrid removed, the last TrainingGrid moved into its place
+	 * @param index - index of the TrainingGrid removed
+	 * @throws Exception
+	 */
+	public synchronized void removeUnordered(int index) throws Exception {
+		DataOutputStream os = startRecord(REMOVE_UNORDERED);
+		os.writeInt(index);
+		endRecord(os);
+	}
+
+	/**
+	 * Append the recorded changes to the journal file and wait for them to reach the disk,
+	 * creating the journal file if there isn't one
+	 * @throws Exception
+	 */
+	public synchronized void flush() throws Exception {
+		if (!_file.exists()) {
+			long[] checksum = checksum(_snapshot);
+			replaceAtomically(writeJournal(checksum[0], checksum[1], new byte[0]), _file);
+		}
+		if (_changes.size() == 0) {
+			return;
+		}
+
+		append(_changes.toByteArray());
+		_changes.reset();
+	}
+
+	/**
+	 * Check if the journal has grown large enough to be compacted
+	 * @return true if it should be compacted
+	 */
+	public synchronized boolean needsCompaction() {
+		return _compaction == null && _file.length() > Math.max(MIN_COMPACTION_SIZE, _snapshot.length());
+	}
+
+	/**
+	 * Rewrite the snapshot with every flushed change on a background thread and start the
+	 * journal over. Changes flushed while the snapshot is written are kept in the new journal
+	 * @param source - GridSource over the set as of the last flush, not changed afterwards
+	 * @throws Exception - throws an exception if the last compaction failed
+	 */
+	public synchronized void compact(final GridSource source) throws Exception {
+		if (_compaction != null) {
+			return;
+		}
+		if (_compactionError != null) {
+			Exception error = _compactionError;
+			_compactionError = null;
+			throw error;
+		}
+
+		// the changes up to here are in the new snapshot, the rest go in the new journal
+		final long offset = _file.length();
+		_compaction = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					compact(source, offset);
+				} catch (Exception ex) {
+					synchronized (TrainingSetJournal.this) {
+						_compactionError = ex;
+					}
+				} finally {
+					synchronized (TrainingSetJournal.this) {
+						_compaction = null;
+						TrainingSetJournal.this.notifyAll();
+					}
+				}
+			}
+		}, "TrainingSetJournal");
+		_compaction.setDaemon(true);
+		_compaction.start();
+	}
+
+	/**
+	 * Wait for a running compaction to finish
+	 * @throws Exception - throws an exception if the compaction failed
+	 */
+	public synchronized void awaitCompaction() throws Exception {
+		while (_compaction != null) {
+			wait();
+		}
+		if (_compactionError != null) {
+			Exception error = _compactionError;
+			_compactionError = null;
+			throw error;
+		}
+	}
+
+	/**
+	 * Apply every change in the journal file to a TrainingSet just loaded from the snapshot. A
+	 * record torn by a crash (and anything after it) is dropped and cut from the file, and a
+	 * journal left behind by an interrupted compaction is replayed from where the compaction
+	 * started. A journal that doesn't apply to the snapshot (the snapshot already has all of
+	 * its changes, or an older copy of the snapshot was put back) is moved to getStaleFile()
+	 * rather than deleted, so its changes are never lost
+	 * @param trainingSet - TrainingSet loaded from the snapshot
+	 * @return number of changes applied
+	 * @throws Exception
+	 */
+	public synchronized int replay(TrainingSetManager trainingSet) throws Exception {
+		if (!_file.exists()) {
+			return 0;
+		}
+		if (_file.length() < HEADER_SIZE) {
+			// the journal was never written in full, it can't have any changes
+			_file.delete();
+			return 0;
+		}
+
+		byte[] journal = Files.readAllBytes(_file.toPath());
+		DataInputStream header = new DataInputStream(new ByteArrayInputStream(journal));
+		int magic = header.readInt();
+		int version = header.readInt();
+		long snapshotLength = header.readLong();
+		long snapshotCrc = header.readLong();
+		if (magic != MAGIC || version != VERSION) {
+			throw new Exception(String.format(
+					"TrainingSetJournal loaded invalid journal %s, expected magic %08x version %d not %08x version %d",
+					_file,
+					MAGIC,
+					VERSION,
+					magic,
+					version));
+		}
+
+		// find where the records start, and where the last whole record ends
+		long[] checksum = checksum(_snapshot);
+		long start = -1;
+		if (checksum[0] == snapshotLength && checksum[1] == snapshotCrc) {
+			start = HEADER_SIZE;
+		}
+		int end = HEADER_SIZE;
+		int offset = HEADER_SIZE;
+		while (offset < journal.length) {
+			byte[] body = readRecord(journal, offset);
+			if (body == null) {
+				break;
+			}
+			if (body[0] == COMPACTED && start < 0) {
+				// the snapshot was rewritten by a compaction that did not get to start a new journal
+				DataInputStream is = new DataInputStream(new ByteArrayInputStream(body, 1, body.length - 1));
+				if (is.readLong() == checksum[0] && is.readLong() == checksum[1]) {
+					start = is.readLong();
+				}
+			}
+			offset += body.length + 8;
+			end = offset;
+		}
+
+		if (start < 0) {
+			// written for another version of the snapshot, keep it aside
+			replaceAtomically(_file, getStaleFile());
+			return 0;
+		}
+		if (end < journal.length) {
+			RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+			try {
+				raf.setLength(end);
+			} finally {
+				raf.close();
+			}
+		}
+
+		int count = 0;
+		for (offset = (int) start; offset < end; ) {
+			byte[] body = readRecord(journal, offset);
+			offset += body.length + 8;
+			if (apply(trainingSet, body)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Start a new, empty journal for a snapshot that was just written in full
+	 * @param snapshot - File the TrainingSet was written to
+	 * @return the journal of the snapshot
+	 * @throws Exception
+	 */
+	public static TrainingSetJournal start(File snapshot) throws Exception {
+		TrainingSetJournal journal = new TrainingSetJournal(snapshot);
+		long[] checksum = checksum(snapshot);
+		replaceAtomically(journal.writeJournal(checksum[0], checksum[1], new byte[0]), journal._file);
+		return journal;
+	}
+
+	/**
+	 * Get the temporary file used while writing a file
+	 * @param file - File being written
+	 * @return temporary File in the same directory
+	 */
+	static File tempFile(File file) {
+		return new File(file.getPath() + TEMP_EXTENSION);
+	}
+
+	/**
+	 * Rename a file over another, so the target is either the old or the new file even after a crash
+	 * @param source - File to rename
+	 * @param target - File to replace
+	 * @throws IOException
+	 */
+	static void replaceAtomically(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Write the new snapshot and journal of a compaction
+	 * @param source - GridSource over the set as of offset
+	 * @param offset - length of the journal when the compaction started
+	 * @throws Exception
+	 */
+	private void compact(GridSource source, long offset) throws Exception {
+		File snapshot = tempFile(_snapshot);
+		TrainingSetManager.writeSet(snapshot, TrainingSetManager.isPacked(_snapshot), source);
+		long[] checksum = checksum(snapshot);
+
+		synchronized (this) {
+			// mark the journal first, so if a crash happens after the rename the changes
+			//   since the compaction started are still replayed on the new snapshot
+			DataOutputStream os = startRecord(COMPACTED);
+			os.writeLong(checksum[0]);
+			os.writeLong(checksum[1]);
+			os.writeLong(offset);
+			ByteArrayOutputStream marker = new ByteArrayOutputStream();
+			endRecord(os, marker);
+			append(marker.toByteArray());
+		}
+
+		replaceAtomically(snapshot, _snapshot);
+
+		synchronized (this) {
+			// the new journal keeps every change flushed since the compaction started
+			byte[] journal = Files.readAllBytes(_file.toPath());
+			ByteArrayOutputStream tail = new ByteArrayOutputStream();
+			for (int position = (int) offset; position < journal.length; ) {
+				byte[] body = readRecord(journal, position);
+				int length = body.length + 8;
+				if (body[0] != COMPACTED) {
+					tail.write(journal, position, length);
+				}
+				position += length;
+			}
+			replaceAtomically(writeJournal(checksum[0], checksum[1], tail.toByteArray()), _file);
+			_compactionCount++;
+		}
+	}
+
+	/**
+	 * Write a journal to its temporary file
+	 * @param snapshotLength - length of the snapshot the journal applies to
+	 * @param snapshotCrc - CRC32 of the snapshot the journal applies to
+	 * @param records - records to write after the header
+	 * @return the temporary File
+	 * @throws IOException
+	 */
+	private File writeJournal(long snapshotLength, long snapshotCrc, byte[] records) throws IOException {
+		File temp = tempFile(_file);
+		FileOutputStream fs = new FileOutputStream(temp);
+		try {
+			DataOutputStream os = new DataOutputStream(fs);
+			os.writeInt(MAGIC);
+			os.writeInt(VERSION);
+			os.writeLong(snapshotLength);
+			os.writeLong(snapshotCrc);
+			os.write(records);
+			os.flush();
+			fs.getChannel().force(false);
+		} finally {
+			fs.close();
+		}
+		return temp;
+	}
+
+	/**
+	 * Append records to the journal file and wait for them to reach the disk
+	 * @param records - records to append
+	 * @throws IOException
+	 */
+	private void append(byte[] records) throws IOException {
+		FileOutputStream fs = new FileOutputStream(_file, true);
+		try {
+			fs.write(records);
+			fs.getChannel().force(false);
+		} finally {
+			fs.close();
+		}
+	}
+
+	/**
+	 * Start the body of a record
+	 * @param type - type of the record
+	 * @return stream to write the rest of the body to
+	 * @throws IOException
+	 */
+	private DataOutputStream startRecord(byte type) throws IOException {
+		_record.reset();
+		DataOutputStream os = new DataOutputStream(_record);
+		os.writeByte(type);
+		return os;
+	}
+
+	/**
+	 * Add the record being written to the recorded changes
+	 * @param os - stream the body was written to
+	 * @throws IOException
+	 */
+	private void endRecord(DataOutputStream os) throws IOException {
+		endRecord(os, _changes);
+	}
+
+	/**
+	 * Write the record being written: the length of the body, the body and its CRC32
+	 * @param os - stream the body was written to
+	 * @param target - stream to write the record to
+	 * @throws IOException
+	 */
+	private void endRecord(DataOutputStream os, ByteArrayOutputStream target) throws IOException {
+		os.flush();
+		byte[] body = _record.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, body.length);
+
+		DataOutputStream record = new DataOutputStream(target);
+		record.writeInt(body.length);
+		record.write(body);
+		record.writeInt((int) crc.getValue());
+		record.flush();
+	}
+
+	/**
+	 * Read a record
+	 * @param journal - contents of the journal file
+	 * @param offset - offset of the record
+	 * @return body of the record, null if the record is not whole or its CRC32 doesn't match
+	 */
+	private static byte[] readRecord(byte[] journal, int offset) {
+		if (offset + 4 > journal.length) {
+			return null;
+		}
+		int length = ((journal[offset] & 0xff) << 24) | ((journal[offset + 1] & 0xff) << 16)
+				| ((journal[offset + 2] & 0xff) << 8) | (journal[offset + 3] & 0xff);
+		if (length < 1 || length > journal.length - offset - 8) {
+			return null;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(journal, offset + 4, length);
+		int end = offset + 4 + length;
+		int stored = ((journal[end] & 0xff) << 24) | ((journal[end + 1] & 0xff) << 16)
+				| ((journal[end + 2] & 0xff) << 8) | (journal[end + 3] & 0xff);
+		if (stored != (int) crc.getValue()) {
+			return null;
+		}
+
+		byte[] body = new byte[length];
+		System.arraycopy(journal, offset + 4, body, 0, length);
+		return body;
+	}
+
+	/**
+	 * Apply a record to a TrainingSet
+	 * @param trainingSet - TrainingSet to change
+	 * @param body - body of the record
+	 * @return true if the record was a change, false for a compaction marker
+	 * @throws Exception
+	 */
+	private static boolean apply(TrainingSetManager trainingSet, byte[] body) throws Exception {
+		DataInputStream is = new DataInputStream(new ByteArrayInputStream(body, 1, body.length - 1));
+		switch (body[0]) {
+		case ADD:
+			trainingSet.add(readGrid(is, trainingSet.getGridSize(), body.length - 1));
+			return true;
+		case EDIT:
+			int index = is.readInt();
+			trainingSet.edit(index, readGrid(is, trainingSet.getGridSize(), body.length - 5));
+			return true;
+		case REMOVE_UNORDERED:
+			trainingSet.removeUnordered(is.readInt());
+			return true;
+		case COMPACTED:
+			return false;
+		case REMOVE:
+			trainingSet.remove(is.readInt());
+			return true;
+		default:
+			throw new Exception(String.format(
+					"TrainingSetJournal loaded invalid record, expected a type within %d not %d",
+					REMOVE,
+					body[0]));
+		}
+	}
+
+	/**
+	 * Write a TrainingGrid to a record: its value then its packed cells
+	 * @param os - stream to write to
+	 * @param trainingGrid - TrainingGrid to write
+	 * @throws IOException
+	 */
+	private static void writeGrid(DataOutputStream os, TrainingGrid trainingGrid) throws IOException {
+		os.writeChar(trainingGrid.getValue());
+		for (long word : trainingGrid.getGrid().toWords()) {
+			os.writeLong(word);
+		}
+	}
+
+	/**
+	 * Read a TrainingGrid from a record
+	 * @param is - stream to read from
+	 * @param gridSize - size of a side of the Grid
+	 * @param length - number of bytes holding the TrainingGrid
+	 * @return TrainingGrid
+	 * @throws IOException
+	 */
+	private static TrainingGrid readGrid(DataInputStream is, int gridSize, int length) throws IOException {
+		char value = is.readChar();
+		long[] words = new long[(length - 2) / 8];
+		for (int w = 0; w < words.length; w++) {
+			words[w] = is.readLong();
+		}
+		return new TrainingGrid(new Grid(gridSize, words), value);
+	}
+
+	/**
+	 * Get the length and CRC32 of a file
+	 * @param file - File to check
+	 * @return length and CRC32
+	 * @throws IOException
+	 */
+	private static long[] checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		long length = 0;
+		byte[] buffer = new byte[1 << 16];
+		FileInputStream is = new FileInputStream(file);
+		try {
+			int read;
+			while ((read = is.read(buffer)) > 0) {
+				crc.update(buffer, 0, read);
+				length += read;
+			}
+		} finally {
+			is.close();
+		}
+		return new long[] { length, crc.getValue() };
+	}
+}
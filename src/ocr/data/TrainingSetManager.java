@@ -3,11 +3,13 @@ package ocr.data;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 
+import neural.net.Trainer;
+import ocr.info.Constants;
+import ocr.info.Grid;
 import ocr.info.TrainingGrid;
 
 /**
@@ -15,16 +17,44 @@ import ocr.info.TrainingGrid;
  * The TrainingDataManager class is a container for a set of grids and
  * their expected values. These sets can be saved so that they can be
  * loaded at a later time. TrainingGrids can be added, removed, and edited
- * within a set.
+ * within a set. Every Grid in a set has the same size, an empty set
+ * starts out with Constants.GRID_SIZE and a loaded set takes the size of
+ * its Grids.
+ *
+ * Sets are saved serialized (.ts), or packed (.tsp, see PackedTrainingSet)
+ * when the file has the packed extension. A packed set is loaded by mapping
+ * the file and is only read into memory once it is changed, so a large set can
+ * be opened and passed to a Trainer without copying it.
+ *
+ * In memory the set is kept in columns (see TrainingSetStore): the TrainingGrids
+ * handed out are created from them and carry the id of their sample, which is
+ * how remove and edit find the sample in constant time. Removing a sample keeps
+ * the order of the set, removeUnordered() moves the last sample into its index
+ * instead, which is faster for large sets where the order doesn't matter.
+ *
+ * The set is meant to be edited from a single thread. Anything reading it from
+ * another thread, such as training, should take a snapshot(): an immutable view
+ * that shares the set's memory and stays the same while the set is edited.
+ *
+ * Once a set has been saved to (or loaded from) a file, save() only appends
+ * the changes made since the last save to the set's journal, and the file is
+ * rewritten in the background once the journal grows larger than it (see
+ * TrainingSetJournal). Loading a set replays its journal on top of the file.
  *
  * @author Jonathan Reimels
  * @version 1.0.0
  */
 public class TrainingSetManager {
+	// public constants
+	public static final int NO_INDEX = TrainingSetStore.NO_INDEX;
+
 	// instance variables
-	private ArrayList<TrainingGrid> _trainingGrids = new ArrayList<TrainingGrid>();
+	private TrainingSetStore _store = new TrainingSetStore(Constants.GRID_SIZE);
 	private boolean _hasChanged = false;
 	private File _file = null;
+	private int _gridSize = Constants.GRID_SIZE;
+	private PackedTrainingSet _packed = null;
+	private TrainingSetJournal _journal = null;
 
 	/**
 	 * Check if a file has been set for this instance
@@ -42,102 +72,245 @@ public class TrainingSetManager {
 		return _hasChanged;
 	}
 
+	/**
+	 * Get the size of a side of the Grids in the set
+	 * @return grid size
+	 */
+	public int getGridSize() {
+		return _gridSize;
+	}
+
+	/**
+	 * Set the size of a side of the Grids in the set, only while the set is empty
+	 * @param gridSize - grid size
+	 * @throws Exception - throws an exception if the set already has Grids of another size
+	 */
+	public void setGridSize(int gridSize) throws Exception {
+		if (gridSize == _gridSize) {
+			return;
+		}
+		if (getCount() > 0) {
+			throw new Exception(String.format(
+					"setGridSize called on TrainingSetManager with Grids in the set, expected size %d not %d",
+					_gridSize,
+					gridSize));
+		}
+		_gridSize = gridSize;
+		_store = new TrainingSetStore(gridSize);
+	}
+
 	/**
 	 * Add a TrainingGrid to the set
 	 * @param trainingGrid - TrainingGrid to add
+	 * @throws Exception - throws an exception if the Grid is not the size of the set
 	 */
-	public void add(TrainingGrid trainingGrid) {
-		_trainingGrids.add(trainingGrid);
+	public void add(TrainingGrid trainingGrid) throws Exception {
+		checkGridSize(trainingGrid);
+		store().add(trainingGrid.getGrid().toWords(), trainingGrid.getValue());
+		if (_journal != null) {
+			_journal.add(trainingGrid);
+		}
 		_hasChanged = true;
 	}
 
 	/**
-	 * Remove an existing TrainingGrid from the set
-	 * @param trainingGrid - TrainingGrid to remove
+	 * Add the packed cells of a Grid to the set without creating a TrainingGrid, for bulk imports.
+	 * The changes are not journaled, the journal is dropped so the next save() rewrites the whole File
+	 * @param words - packed cells of a Grid the size of the set, as in Grid.toWords()
+	 * @param value - expected value
+	 * @throws Exception - throws an exception if the journal's last compaction failed
+	 */
+	void add(long[] words, char value) throws Exception {
+		dropJournal();
+		store().add(words, value);
+		_hasChanged = true;
+	}
+
+	/**
+	 * Remove an existing TrainingGrid from the set, the TrainingGrids after it move down an index
+	 * @param trainingGrid - TrainingGrid read from the set to remove
 	 * @throws Exception
 	 */
 	public void remove(TrainingGrid trainingGrid) throws Exception {
-		if (!_trainingGrids.contains(trainingGrid)) {
+		int index = indexOf(trainingGrid);
+		if (index == NO_INDEX) {
+			throw new Exception("Grid could not be removed from TrainingDataManager as it doesn't exist");
+		}
+
+		remove(index);
+	}
+
+	/**
+	 * Remove an existing TrainingGrid from the set in constant time, the last TrainingGrid moves
+	 * into its index
+	 * @param trainingGrid - TrainingGrid read from the set to remove
+	 * @throws Exception
+	 */
+	public void removeUnordered(TrainingGrid trainingGrid) throws Exception {
+		int index = indexOf(trainingGrid);
+		if (index == NO_INDEX) {
 			throw new Exception("Grid could not be removed from TrainingDataManager as it doesn't exist");
 		}
 
-		_trainingGrids.remove(trainingGrid);
+		removeUnordered(index);
+	}
+
+	/**
+	 * Remove the TrainingGrid at a specific index from the set, the TrainingGrids after it move down an index
+	 * @param index - index of the TrainingGrid to remove
+	 * @throws Exception
+	 */
+	void remove(int index) throws Exception {
+		store().remove(index);
+		if (_journal != null) {
+			_journal.remove(index);
+		}
+		_hasChanged = true;
+	}
+
+	/**
+	 * Remove the TrainingGrid at a specific index from the set, the last TrainingGrid moves into its index
+	 * @param index - index of the TrainingGrid to remove
+	 * @throws Exception
+	 */
+	void removeUnordered(int index) throws Exception {
+		store().removeUnordered(index);
+		if (_journal != null) {
+			_journal.removeUnordered(index);
+		}
 		_hasChanged = true;
 	}
 
 	/**
-	 * Replace an existing TrainingGrid with a new one in the set
-	 * @param original - TrainingGrid to replace
+	 * Replace an existing TrainingGrid with a new one in the set, it keeps the same index and id
+	 * @param original - TrainingGrid read from the set to replace
 	 * @param edited - TrainingGrid to replace with
 	 * @throws Exception
 	 */
 	public void edit(TrainingGrid original, TrainingGrid edited) throws Exception {
-		if (!_trainingGrids.contains(original)) {
+		int index = indexOf(original);
+		if (index == NO_INDEX) {
 			throw new Exception("Grid could not be edited in TrainingDataManager as it doesn't exist");
 		}
 
-		// add edited grid at the same location original was at
-		int index = _trainingGrids.indexOf(original);
-		_trainingGrids.remove(original);
-		_trainingGrids.add(index, edited);
+		edit(index, edited);
+	}
+
+	/**
+	 * Replace the TrainingGrid at a specific index with a new one in the set
+	 * @param index - index of the TrainingGrid to replace
+	 * @param edited - TrainingGrid to replace with
+	 * @throws Exception
+	 */
+	void edit(int index, TrainingGrid edited) throws Exception {
+		checkGridSize(edited);
+
+		store().set(index, edited.getGrid().toWords(), edited.getValue());
+		if (_journal != null) {
+			_journal.edit(index, edited);
+		}
 		_hasChanged = true;
 	}
 
 	/**
 	 * Clear all TrainingGrids from the set
+	 * @throws Exception - throws an exception if the journal's last compaction failed
 	 */
-	public void clear() {
-		_trainingGrids = new ArrayList<TrainingGrid>();
+	public void clear() throws Exception {
+		dropJournal();
+		_store = new TrainingSetStore(_gridSize);
+		_packed = null;
 
 		_file = null;
 		_hasChanged = false;
 	}
 
 	/**
-	 * Save the set of TrainingGrids
+	 * Save the whole set of TrainingGrids, packed if the file has the packed extension, and
+	 * start a new journal for it
 	 * @param file - File to save
-	 * @throws IOException
+	 * @throws Exception
 	 */
-	public void saveAs(File file) throws IOException {
-		FileOutputStream fs = new FileOutputStream(file);
-		ObjectOutputStream os = new ObjectOutputStream(fs);
-		os.writeObject(_trainingGrids);
-		os.close();
+	public void saveAs(File file) throws Exception {
+		dropJournal();
+		File temp = TrainingSetJournal.tempFile(file);
+		writeSet(temp, isPacked(file), getGridSource());
+		TrainingSetJournal.replaceAtomically(temp, file);
+		_journal = TrainingSetJournal.start(file);
 
 		_file = file;
 		_hasChanged = false;
 	}
 
 	/**
-	 * Save the set of TrainingGrids to the already set File
-	 * @throws IOException
+	 * Save the changes made since the last save to the journal of the already set File,
+	 * compacting the journal into the File in the background once it has grown large enough
+	 * @throws Exception
 	 */
-	public void save() throws IOException {
-		FileOutputStream fs = new FileOutputStream(_file);
-		ObjectOutputStream os = new ObjectOutputStream(fs);
-		os.writeObject(_trainingGrids);
-		os.close();
+	public void save() throws Exception {
+		if (_journal == null) {
+			saveAs(_file);
+			return;
+		}
+
+		_journal.flush();
+		if (_journal.needsCompaction()) {
+			_journal.compact(snapshot().getGridSource());
+		}
 
 		_hasChanged = false;
 	}
 
 	/**
-	 * Load a set of TrainingGrids
+	 * Get the journal of the set's File
+	 * @return TrainingSetJournal, null if no File is set
+	 */
+	public TrainingSetJournal getJournal() {
+		return _journal;
+	}
+
+	/**
+	 * Load a set of TrainingGrids and replay its journal, the format is picked by the start of the file
 	 * @param file - File to load
 	 * @throws Exception
 	 */
 	@SuppressWarnings("unchecked")
 	public void load(File file) throws Exception {
+		dropJournal();
 		try {
-			FileInputStream fs = new FileInputStream(file);
-			ObjectInputStream os = new ObjectInputStream(fs);
-			_trainingGrids = (ArrayList<TrainingGrid>) os.readObject();
-			os.close();
+			if (PackedTrainingSet.isPacked(file)) {
+				_packed = new PackedTrainingSet(file);
+				_gridSize = _packed.getGridSize();
+				_store = null;
+			} else {
+				_packed = null;
+				FileInputStream fs = new FileInputStream(file);
+				ObjectInputStream os = new ObjectInputStream(fs);
+				ArrayList<TrainingGrid> trainingGrids = (ArrayList<TrainingGrid>) os.readObject();
+				os.close();
+
+				// take the size of the first Grid, every other Grid must match it
+				_gridSize = Constants.GRID_SIZE;
+				if (!trainingGrids.isEmpty()) {
+					_gridSize = trainingGrids.get(0).getGrid().getSize();
+				}
+				_store = new TrainingSetStore(_gridSize);
+				for (TrainingGrid trainingGrid : trainingGrids) {
+					checkGridSize(trainingGrid);
+					_store.add(trainingGrid.getGrid().toWords(), trainingGrid.getValue());
+				}
+			}
+
+			// the changes are replayed before the journal is set, so they are not recorded again
+			TrainingSetJournal journal = new TrainingSetJournal(file);
+			journal.replay(this);
+			_journal = journal;
 
 			_file = file;
 			_hasChanged = false;
 		} catch (Exception ex) {
-			_trainingGrids = new ArrayList<TrainingGrid>();
+			_store = new TrainingSetStore(_gridSize);
+			_packed = null;
 			throw ex;
 		}
 	}
@@ -147,24 +320,194 @@ public class TrainingSetManager {
 	 * @return count
 	 */
 	public int getCount() {
-		return _trainingGrids.size();
+		if (_packed != null) {
+			return _packed.getCount();
+		}
+		return _store.getCount();
 	}
 
 	/**
 	 * Get TrainingGrid at a specific index
 	 * @param index - index of TrainingGrid
-	 * @return TrainingGrid at index
+	 * @return TrainingGrid at index, with the id of its sample
 	 * @throws Exception
 	 */
 	public TrainingGrid getGrid(int index) throws Exception {
-		if (index < 0 || index >= _trainingGrids.size()) {
+		if (index < 0 || index >= getCount()) {
 			throw new Exception(String.format(
 					"getGrid called on TrainingSetManager with invalid iindex, expected index to be within %d not %d",
-					_trainingGrids.size(),
+					getCount(),
 					index));
 		}
 
-		return _trainingGrids.get(index);
+		if (_packed != null) {
+			// the store numbers the samples of a packed set from 1 in file order
+			TrainingGrid t = _packed.getGrid(index);
+			return new TrainingGrid(t.getGrid(), t.getValue(), index + 1);
+		}
+		long[] words = new long[_store.getWordCount()];
+		_store.getWords(index, words);
+		return new TrainingGrid(new Grid(_gridSize, words), _store.getValue(index), _store.getId(index));
 	}
-}
 
+	/**
+	 * Get the index of a TrainingGrid read from the set, by its id
+	 * @param trainingGrid - TrainingGrid to find
+	 * @return index, NO_INDEX if the TrainingGrid has been removed or is not from the set
+	 */
+	public int indexOf(TrainingGrid trainingGrid) {
+		return store().getIndex(trainingGrid.getId());
+	}
+
+	/**
+	 * Find a TrainingGrid with exactly the same cells as a Grid
+	 * @param grid - Grid to find
+	 * @return index of a TrainingGrid with the same cells, NO_INDEX if there is none
+	 */
+	public int findDuplicate(Grid grid) {
+		if (grid.getSize() != _gridSize) {
+			return NO_INDEX;
+		}
+		return store().find(grid.toWords());
+	}
+
+	/**
+	 * Get the number of TrainingGrids with an expected value
+	 * @param value - expected value
+	 * @return count
+	 */
+	public int getValueCount(char value) {
+		return store().getValueCount(value);
+	}
+
+	/**
+	 * Get the index of every TrainingGrid with an expected value, in no particular order
+	 * @param value - expected value
+	 * @return indexes
+	 */
+	public int[] getIndexes(char value) {
+		return store().getIndexes(value);
+	}
+
+	/**
+	 * Take an immutable snapshot of the set, it shares the set's memory so taking one
+	 * copies nothing, and it can be read from any thread while the set is edited
+	 * @return TrainingSetSnapshot
+	 */
+	public TrainingSetSnapshot snapshot() {
+		if (_packed != null) {
+			return new TrainingSetSnapshot(_packed);
+		}
+		return _store.snapshot();
+	}
+
+	/**
+	 * Add every TrainingGrid in the set to a Trainer, decoded straight from the packed
+	 * file or the columns of the set without creating any Grids
+	 * @param trainer - Trainer to add the inputs and expected outputs to
+	 * @throws Exception
+	 */
+	public void fillTrainer(Trainer trainer) throws Exception {
+		snapshot().fillTrainer(trainer);
+	}
+
+	/**
+	 * Get a GridSource that streams a snapshot of the set, for example to write it to shards
+	 * @return GridSource over every TrainingGrid in the set
+	 */
+	public GridSource getGridSource() {
+		return snapshot().getGridSource();
+	}
+
+	/**
+	 * Stop journaling the set, waiting for a running compaction first. The compaction writes
+	 * the File and its journal, so it must finish before they are rewritten, read again or
+	 * left to a new journal
+	 * @throws Exception - throws an exception if the compaction failed
+	 */
+	private void dropJournal() throws Exception {
+		if (_journal == null) {
+			return;
+		}
+		try {
+			_journal.awaitCompaction();
+		} finally {
+			_journal = null;
+		}
+	}
+
+	/**
+	 * Get the columns of the set, reading them from the packed file the first time
+	 * @return TrainingSetStore
+	 */
+	private TrainingSetStore store() {
+		if (_packed != null) {
+			TrainingSetStore store = new TrainingSetStore(_gridSize);
+			long[] words = new long[store.getWordCount()];
+			int count = _packed.getCount();
+			for (int i = 0; i < count; i++) {
+				_packed.getWords(i, words);
+				store.add(words, _packed.getValue(i));
+			}
+			_store = store;
+			_packed = null;
+		}
+		return _store;
+	}
+
+	/**
+	 * Check if a set is saved packed to a file, by the file's extension
+	 * @param file - File to check
+	 * @return true if the file has the packed extension
+	 */
+	static boolean isPacked(File file) {
+		return file.getName().endsWith(PackedTrainingSet.EXTENSION);
+	}
+
+	/**
+	 * Write every Grid of a GridSource to a file and wait for it to reach the disk
+	 * @param file - File to write
+	 * @param packed - true to write a packed set, false to write a serialized one
+	 * @param source - GridSource to write, it is reset first
+	 * @throws Exception
+	 */
+	static void writeSet(File file, boolean packed, GridSource source) throws Exception {
+		if (packed) {
+			PackedTrainingSet.write(file, source);
+		} else {
+			ArrayList<TrainingGrid> trainingGrids = new ArrayList<TrainingGrid>((int) source.getCount());
+			long[] words = new long[source.getWordCount()];
+			source.reset();
+			while (source.nextGrid(words)) {
+				trainingGrids.add(new TrainingGrid(new Grid(source.getGridSize(), words), source.getValue()));
+			}
+
+			FileOutputStream fs = new FileOutputStream(file);
+			ObjectOutputStream os = new ObjectOutputStream(fs);
+			os.writeObject(trainingGrids);
+			os.close();
+		}
+
+		FileOutputStream fs = new FileOutputStream(file, true);
+		try {
+			fs.getChannel().force(false);
+		} finally {
+			fs.close();
+		}
+	}
+
+	/**
+	 * Check that a TrainingGrid is the size of the set
+	 * @param trainingGrid - TrainingGrid to check
+	 * @throws Exception - throws an exception if the Grid is not the size of the set
+	 */
+	private void checkGridSize(TrainingGrid trainingGrid) throws Exception {
+		int size = trainingGrid.getGrid().getSize();
+		if (size != _gridSize) {
+			throw new Exception(String.format(
+					"TrainingSetManager called with invalid grid, expected size %d not %d",
+					_gridSize,
+					size));
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package ocr.data;
+
+import neural.net.Trainer;
+import ocr.info.Grid;
+import ocr.info.TrainingGrid;
+
+/**
+ * An immutable view of a TrainingSet as it was when the snapshot was taken.
+ * The snapshot shares the chunks of the set's columns (see TrainingSetStore),
+ * or the mapped file of a packed set that has not been changed, so taking one
+ * copies nothing. The set copies a chunk before changing it once it is shared,
+ * so a snapshot can be read from any thread, without locking, while the set
+ * keeps being edited.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+public class TrainingSetSnapshot {
+	// instance variables
+	private int _gridSize;
+	private int _wordCount;
+	private int _count;
+	private long[][] _words;
+	private char[][] _values;
+	private PackedTrainingSet _packed = null;
+	private long _contentHash = 0;
+	private boolean _isHashed = false;
+
+	/**
+	 * Constructor - a view of the chunks of a TrainingSetStore, which must not change them afterwards
+	 * @param gridSize - size of a side of every Grid
+	 * @param count - number of samples
+	 * @param words - chunks of packed cells, TrainingSetStore.CHUNK_SIZE samples per chunk
+	 * @param values - chunks of expected values
+	 */
+	TrainingSetSnapshot(int gridSize, int count, long[][] words, char[][] values) {
+		_gridSize = gridSize;
+		_wordCount = (gridSize * gridSize + Long.SIZE - 1) / Long.SIZE;
+		_count = count;
+		_words = words;
+		_values = values;
+	}
+
+	/**
+	 * Constructor - a view of a packed set
+	 * @param packed - packed set
+	 */
+	TrainingSetSnapshot(PackedTrainingSet packed) {
+		this(packed.getGridSize(), packed.getCount(), null, null);
+		_packed = packed;
+	}
+
+	/**
+	 * Get the number of TrainingGrids in the snapshot
+	 * @return count
+	 */
+	public int getCount() {
+		return _count;
+	}
+
+	/**
+	 * Get the size of a side of every Grid in the snapshot
+	 * @return grid size
+	 */
+	public int getGridSize() {
+		return _gridSize;
+	}
+
+	/**
+	 * Get a 64 bit hash of every Grid and expected value in the snapshot, in order. It is
+	 * worked out the first time it is asked for
+	 * @return content hash
+	 */
+	public synchronized long getContentHash() {
+		if (!_isHashed) {
+			long hash = _gridSize * 0x9E3779B97F4A7C15L + _count;
+			long[] words = new long[_wordCount];
+			for (int i = 0; i < _count; i++) {
+				getWords(i, words);
+				for (long word : words) {
+					hash = (hash ^ word) * 0xFF51AFD7ED558CCDL;
+					hash ^= hash >>> 32;
+				}
+				hash = (hash ^ getValue(i)) * 0xC4CEB9FE1A85EC53L;
+			}
+			_contentHash = hash;
+			_isHashed = true;
+		}
+		return _contentHash;
+	}
+
+	/**
+	 * Get the expected value of a TrainingGrid
+	 * @param index - index of the TrainingGrid
+	 * @return expected value
+	 */
+	public char getValue(int index) {
+		checkIndex(index);
+		if (_packed != null) {
+			return _packed.getValue(index);
+		}
+		return _values[index >>> TrainingSetStore.CHUNK_BITS][index & TrainingSetStore.CHUNK_MASK];
+	}
+
+	/**
+	 * Get the packed cells of a TrainingGrid
+	 * @param index - index of the TrainingGrid
+	 * @param words - array to copy the cells into, a long per 64 cells
+	 */
+	public void getWords(int index, long[] words) {
+		checkIndex(index);
+		if (_packed != null) {
+			_packed.getWords(index, words);
+			return;
+		}
+		System.arraycopy(
+				_words[index >>> TrainingSetStore.CHUNK_BITS],
+				(index & TrainingSetStore.CHUNK_MASK) * _wordCount,
+				words,
+				0,
+				_wordCount);
+	}
+
+	/**
+	 * Create a TrainingGrid at a specific index
+	 * @param index - index of the TrainingGrid
+	 * @return TrainingGrid, without a sample id
+	 */
+	public TrainingGrid getGrid(int index) {
+		long[] words = new long[_wordCount];
+		getWords(index, words);
+		return new TrainingGrid(new Grid(_gridSize, words), getValue(index));
+	}
+
+	/**
+	 * Get a GridSource that streams the snapshot in index order
+	 * @return GridSource
+	 */
+	public GridSource getGridSource() {
+		return new SnapshotGridSource();
+	}
+
+	/**
+	 * Add every TrainingGrid in the snapshot to a Trainer, decoded without creating any Grids
+	 * @param trainer - Trainer to add the inputs and expected outputs to
+	 * @throws Exception
+	 */
+	public void fillTrainer(Trainer trainer) throws Exception {
+		// the Trainer keeps the arrays, so every sample gets its own
+		GridSource source = getGridSource();
+		double[] inputs = new double[source.getInputCount()];
+		double[] expectedOutputs = new double[source.getOutputCount()];
+		while (source.next(inputs, expectedOutputs)) {
+			trainer.addInputOutput(inputs, expectedOutputs);
+			inputs = new double[source.getInputCount()];
+			expectedOutputs = new double[source.getOutputCount()];
+		}
+	}
+
+	/**
+	 * Check that an index is within the snapshot
+	 * @param index - index to check
+	 */
+	private void checkIndex(int index) {
+		if (index < 0 || index >= _count) {
+			throw new IndexOutOfBoundsException(String.format(
+					"TrainingSetSnapshot called with invalid index, expected index to be within %d not %d",
+					_count,
+					index));
+		}
+	}
+
+	/**
+	 * GridSource over the snapshot in index order
+	 */
+	private class SnapshotGridSource extends GridSource {
+		// instance variables
+		private int _index = 0;
+		private char _value = 0;
+
+		/**
+		 * Constructor
+		 */
+		public SnapshotGridSource() {
+			super(_gridSize);
+		}
+
+		@Override
+		public boolean nextGrid(long[] words) {
+			if (_index >= _count) {
+				return false;
+			}
+			getWords(_index, words);
+			_value = TrainingSetSnapshot.this.getValue(_index);
+			_index++;
+			return true;
+		}
+
+		@Override
+		public char getValue() {
+			return _value;
+		}
+
+		@Override
+		public void reset() {
+			_index = 0;
+		}
+
+		@Override
+		public long getCount() {
+			return _count;
+		}
+	}
+}
@@ -0,0 +1,481 @@
+package ocr.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Columnar storage for the samples of a TrainingSet: the packed cells of every
+ * Grid in long arrays (getWordCount() longs per sample, laid out as
+ * Grid.toWords()), the expected values in char arrays, and an id per sample.
+ *
+ * The cells and values are split into chunks of CHUNK_SIZE samples that are
+ * shared with every TrainingSetSnapshot taken of the store. A shared chunk is
+ * copied the first time it is changed afterwards, so a snapshot costs a
+ * reference per chunk and only the chunks that are edited are ever copied.
+ *
+ * Ids are handed out in the order samples are added and never reused, they
+ * stay with a sample when it is edited or moved. Removing a sample moves the
+ * samples after it down an index, which takes time in proportion to the store.
+ * removeUnordered() moves the last sample into its place instead, so add, edit
+ * and removeUnordered all take constant time, for bulk changes where the order
+ * doesn't matter.
+ * The store also keeps the index of every sample with each expected value, and
+ * a hash table over the packed cells to find exact duplicates.
+ *
+ * @author Jonathan Reimels
+ * @version 1.0.0
+ */
+class TrainingSetStore {
+	// public constants
+	public static final int NO_INDEX = -1;
+	public static final int CHUNK_BITS = 12;
+	public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	public static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	// private constants
+	private static final int INITIAL_CAPACITY = 64;
+
+	// instance variables
+	private int _gridSize;
+	private int _wordCount;
+	private int _count = 0;
+	private long[][] _words = new long[1][];
+	private char[][] _values = new char[1][];
+	private boolean[] _shared = new boolean[1];
+	private int _capacity = 0;
+	private int[] _ids;
+	private int[] _indexes = new int[INITIAL_CAPACITY];
+	private int _nextId = 1;
+	private int[] _buckets;
+	private int[] _chain;
+	private int[] _valueSlots;
+	private HashMap<Character, ValueIndex> _valueIndexes = new HashMap<Character, ValueIndex>();
+
+	/**
+	 * Constructor - creates an empty store
+	 * @param gridSize - size of a side of every Grid in the store
+	 */
+	public TrainingSetStore(int gridSize) {
+		_gridSize = gridSize;
+		_wordCount = (gridSize * gridSize + Long.SIZE - 1) / Long.SIZE;
+		allocate(INITIAL_CAPACITY);
+		Arrays.fill(_indexes, NO_INDEX);
+	}
+
+	/**
+	 * Get the size of a side of every Grid in the store
+	 * @return grid size
+	 */
+	public int getGridSize() {
+		return _gridSize;
+	}
+
+	/**
+	 * Get the number of longs holding the cells of a Grid
+	 * @return word count
+	 */
+	public int getWordCount() {
+		return _wordCount;
+	}
+
+	/**
+	 * Get the number of samples in the store
+	 * @return count
+	 */
+	public int getCount() {
+		return _count;
+	}
+
+	/**
+	 * Add a sample to the end of the store
+	 * @param words - packed cells of the Grid, getWordCount() long
+	 * @param value - expected value of the Grid
+	 * @return id of the new sample
+	 */
+	public int add(long[] words, char value) {
+		if (_count == _capacity) {
+			allocate(_capacity * 2);
+		}
+
+		int index = _count++;
+		int id = _nextId++;
+		if (id >= _indexes.length) {
+			int length = _indexes.length;
+			_indexes = Arrays.copyOf(_indexes, Math.max(length * 2, id + 1));
+			Arrays.fill(_indexes, length, _indexes.length, NO_INDEX);
+		}
+		_ids[index] = id;
+		_indexes[id] = index;
+
+		write(index, words, value);
+		return id;
+	}
+
+	/**
+	 * Replace the Grid and expected value of a sample, it keeps its id and index
+	 * @param index - index of the sample
+	 * @param words - packed cells of the new Grid
+	 * @param value - new expected value
+	 */
+	public void set(int index, long[] words, char value) {
+		checkIndex(index);
+		unlink(index);
+		write(index, words, value);
+	}
+
+	/**
+	 * Remove a sample, the samples after it move down an index
+	 * @param index - index of the sample
+	 */
+	public void remove(int index) {
+		checkIndex(index);
+		_indexes[_ids[index]] = NO_INDEX;
+
+		int last = --_count;
+		for (int i = index; i < last; i++) {
+			int chunk = writableChunk(i);
+			System.arraycopy(_words[(i + 1) >>> CHUNK_BITS], offset(i + 1), _words[chunk], offset(i), _wordCount);
+			_values[chunk][i & CHUNK_MASK] = value(i + 1);
+			_ids[i] = _ids[i + 1];
+			_indexes[_ids[i]] = i;
+		}
+
+		// every index after the sample changed, so the hash table and value indexes are rebuilt
+		rehash();
+		for (ValueIndex valueIndex : _valueIndexes.values()) {
+			valueIndex._count = 0;
+		}
+		for (int i = 0; i < _count; i++) {
+			ValueIndex valueIndex = _valueIndexes.get(value(i));
+			_valueSlots[i] = valueIndex._count;
+			valueIndex._indexes[valueIndex._count++] = i;
+		}
+	}
+
+	/**
+	 * Remove a sample in constant time, the last sample is moved into its index
+	 * @param index - index of the sample
+	 */
+	public void removeUnordered(int index) {
+		checkIndex(index);
+		unlink(index);
+		_indexes[_ids[index]] = NO_INDEX;
+
+		int last = --_count;
+		if (index == last) {
+			return;
+		}
+
+		// move the last sample, pointing everything that refers to its index at the new one
+		int slot = bucket(last);
+		if (_buckets[slot] == last) {
+			_buckets[slot] = index;
+		} else {
+			int previous = _buckets[slot];
+			while (_chain[previous] != last) {
+				previous = _chain[previous];
+			}
+			_chain[previous] = index;
+		}
+		_chain[index] = _chain[last];
+		char value = value(last);
+		_valueIndexes.get(value)._indexes[_valueSlots[last]] = index;
+		_valueSlots[index] = _valueSlots[last];
+
+		int chunk = writableChunk(index);
+		System.arraycopy(_words[last >>> CHUNK_BITS], offset(last), _words[chunk], offset(index), _wordCount);
+		_values[chunk][index & CHUNK_MASK] = value;
+		_ids[index] = _ids[last];
+		_indexes[_ids[index]] = index;
+	}
+
+	/**
+	 * Get the id of a sample
+	 * @param index - index of the sample
+	 * @return id
+	 */
+	public int getId(int index) {
+		checkIndex(index);
+		return _ids[index];
+	}
+
+	/**
+	 * Get the index of a sample
+	 * @param id - id of the sample
+	 * @return index, NO_INDEX if there is no sample with the id
+	 */
+	public int getIndex(int id) {
+		if (id < 0 || id >= _indexes.length) {
+			return NO_INDEX;
+		}
+		return _indexes[id];
+	}
+
+	/**
+	 * Get the expected value of a sample
+	 * @param index - index of the sample
+	 * @return expected value
+	 */
+	public char getValue(int index) {
+		checkIndex(index);
+		return value(index);
+	}
+
+	/**
+	 * Get the packed cells of a sample
+	 * @param index - index of the sample
+	 * @param words - array to copy the cells into, getWordCount() long
+	 */
+	public void getWords(int index, long[] words) {
+		checkIndex(index);
+		System.arraycopy(_words[index >>> CHUNK_BITS], offset(index), words, 0, _wordCount);
+	}
+
+	/**
+	 * Get the number of samples with an expected value
+	 * @param value - expected value
+	 * @return count
+	 */
+	public int getValueCount(char value) {
+		ValueIndex valueIndex = _valueIndexes.get(value);
+		return valueIndex == null ? 0 : valueIndex._count;
+	}
+
+	/**
+	 * Get the index of every sample with an expected value, in no particular order
+	 * @param value - expected value
+	 * @return indexes
+	 */
+	public int[] getIndexes(char value) {
+		ValueIndex valueIndex = _valueIndexes.get(value);
+		if (valueIndex == null) {
+			return new int[0];
+		}
+		return Arrays.copyOf(valueIndex._indexes, valueIndex._count);
+	}
+
+	/**
+	 * Find a sample with exactly the same cells
+	 * @param words - packed cells of the Grid to find
+	 * @return index of a sample with the same cells, NO_INDEX if there is none
+	 */
+	public int find(long[] words) {
+		int index = _buckets[hash(words, 0) & (_buckets.length - 1)];
+		while (index != NO_INDEX && !matches(index, words)) {
+			index = _chain[index];
+		}
+		return index;
+	}
+
+	/**
+	 * Take an immutable snapshot of the samples, sharing the chunks of the store
+	 * @return TrainingSetSnapshot
+	 */
+	public TrainingSetSnapshot snapshot() {
+		int chunkCount = (_count + CHUNK_MASK) >>> CHUNK_BITS;
+		Arrays.fill(_shared, 0, chunkCount, true);
+		return new TrainingSetSnapshot(
+				_gridSize,
+				_count,
+				Arrays.copyOf(_words, chunkCount),
+				Arrays.copyOf(_values, chunkCount));
+	}
+
+	/**
+	 * Write a sample's cells and expected value, and add it to the hash table and value index
+	 * @param index - index of the sample
+	 * @param words - packed cells of the Grid
+	 * @param value - expected value
+	 */
+	private void write(int index, long[] words, char value) {
+		int chunk = writableChunk(index);
+		System.arraycopy(words, 0, _words[chunk], offset(index), _wordCount);
+		_values[chunk][index & CHUNK_MASK] = value;
+
+		int slot = bucket(index);
+		_chain[index] = _buckets[slot];
+		_buckets[slot] = index;
+
+		ValueIndex valueIndex = _valueIndexes.get(value);
+		if (valueIndex == null) {
+			valueIndex = new ValueIndex();
+			_valueIndexes.put(value, valueIndex);
+		}
+		if (valueIndex._count == valueIndex._indexes.length) {
+			valueIndex._indexes = Arrays.copyOf(valueIndex._indexes, valueIndex._count * 2);
+		}
+		_valueSlots[index] = valueIndex._count;
+		valueIndex._indexes[valueIndex._count++] = index;
+	}
+
+	/**
+	 * Take a sample out of the hash table and value index, before it is overwritten or removed
+	 * @param index - index of the sample
+	 */
+	private void unlink(int index) {
+		int slot = bucket(index);
+		if (_buckets[slot] == index) {
+			_buckets[slot] = _chain[index];
+		} else {
+			int previous = _buckets[slot];
+			while (_chain[previous] != index) {
+				previous = _chain[previous];
+			}
+			_chain[previous] = _chain[index];
+		}
+
+		// move the value index's last entry into the sample's slot
+		ValueIndex valueIndex = _valueIndexes.get(value(index));
+		int slotIndex = _valueSlots[index];
+		int moved = valueIndex._indexes[--valueIndex._count];
+		valueIndex._indexes[slotIndex] = moved;
+		_valueSlots[moved] = slotIndex;
+	}
+
+	/**
+	 * Grow the per-sample arrays and rebuild the hash table for the new capacity
+	 * @param capacity - number of samples the arrays hold
+	 */
+	private void allocate(int capacity) {
+		if (_ids == null) {
+			_ids = new int[capacity];
+			_chain = new int[capacity];
+			_valueSlots = new int[capacity];
+		} else {
+			_ids = Arrays.copyOf(_ids, capacity);
+			_chain = Arrays.copyOf(_chain, capacity);
+			_valueSlots = Arrays.copyOf(_valueSlots, capacity);
+		}
+		_capacity = capacity;
+
+		// the first chunk grows until it is full, after that whole chunks are added
+		int chunkCount = (capacity + CHUNK_MASK) >>> CHUNK_BITS;
+		if (chunkCount > _words.length) {
+			_words = Arrays.copyOf(_words, chunkCount);
+			_values = Arrays.copyOf(_values, chunkCount);
+			_shared = Arrays.copyOf(_shared, chunkCount);
+		}
+		int chunkSize = Math.min(capacity, CHUNK_SIZE);
+		for (int chunk = 0; chunk < chunkCount; chunk++) {
+			if (_values[chunk] == null) {
+				_words[chunk] = new long[chunkSize * _wordCount];
+				_values[chunk] = new char[chunkSize];
+			} else if (_values[chunk].length < chunkSize) {
+				_words[chunk] = Arrays.copyOf(_words[chunk], chunkSize * _wordCount);
+				_values[chunk] = Arrays.copyOf(_values[chunk], chunkSize);
+				_shared[chunk] = false;
+			}
+		}
+
+		// keep the table at most half full
+		_buckets = new int[Integer.highestOneBit(capacity) * 2];
+		rehash();
+	}
+
+	/**
+	 * Put every sample back into an empty hash table
+	 */
+	private void rehash() {
+		Arrays.fill(_buckets, NO_INDEX);
+		for (int index = 0; index < _count; index++) {
+			int slot = bucket(index);
+			_chain[index] = _buckets[slot];
+			_buckets[slot] = index;
+		}
+	}
+
+	/**
+	 * Get the hash table slot of a sample
+	 * @param index - index of the sample
+	 * @return slot
+	 */
+	private int bucket(int index) {
+		return hash(_words[index >>> CHUNK_BITS], offset(index)) & (_buckets.length - 1);
+	}
+
+	/**
+	 * Get the chunk of a sample, copying it first if it is shared with a snapshot
+	 * @param index - index of the sample
+	 * @return chunk
+	 */
+	private int writableChunk(int index) {
+		int chunk = index >>> CHUNK_BITS;
+		if (_shared[chunk]) {
+			_words[chunk] = _words[chunk].clone();
+			_values[chunk] = _values[chunk].clone();
+			_shared[chunk] = false;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Get the offset of a sample's first word within its chunk
+	 * @param index - index of the sample
+	 * @return offset
+	 */
+	private int offset(int index) {
+		return (index & CHUNK_MASK) * _wordCount;
+	}
+
+	/**
+	 * Get the expected value of a sample without checking the index
+	 * @param index - index of the sample
+	 * @return expected value
+	 */
+	private char value(int index) {
+		return _values[index >>> CHUNK_BITS][index & CHUNK_MASK];
+	}
+
+	/**
+	 * Hash the packed cells of a Grid
+	 * @param words - array holding the cells
+	 * @param offset - index of the Grid's first word
+	 * @return hash
+	 */
+	private int hash(long[] words, int offset) {
+		long hash = 0;
+		for (int w = 0; w < _wordCount; w++) {
+			hash = (hash ^ words[offset + w]) * 0x9E3779B97F4A7C15L;
+		}
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	/**
+	 * Check if a sample has exactly the given cells
+	 * @param index - index of the sample
+	 * @param words - packed cells to compare
+	 * @return true if every word matches
+	 */
+	private boolean matches(int index, long[] words) {
+		long[] chunk = _words[index >>> CHUNK_BITS];
+		int offset = offset(index);
+		for (int w = 0; w < _wordCount; w++) {
+			if (chunk[offset + w] != words[w]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check that an index is within the store
+	 * @param index - index to check
+	 */
+	private void checkIndex(int index) {
+		if (index < 0 || index >= _count) {
+			throw new IndexOutOfBoundsException(String.format(
+					"TrainingSetStore called with invalid index, expected index to be within %d not %d",
+					_count,
+					index));
+		}
+	}
+
+	/**
+	 * Index of every sample with one expected value
+	 */
+	private static class ValueIndex {
+		// instance variables
+		private int[] _indexes = new int[INITIAL_CAPACITY];
+		private int _count = 0;
+	}
+}
@@ -22,6 +22,26 @@ public class Constants {
 	 */
 	public static final int HIDDEN_LAYER_OFFSET = -40;
 
+	/**
+	 * Number of neurons in the hidden layer of each one-vs-rest letter network
+	 */
+	public static final int LETTER_HIDDEN_NEURON_COUNT = 8;
+
+	/**
+	 * Number of kernels in a convolutional network
+	 */
+	public static final int KERNEL_COUNT = 6;
+
+	/**
+	 * Size of a side of each kernel in a convolutional network
+	 */
+	public static final int KERNEL_SIZE = 3;
+
+	/**
+	 * Size of a side of each pooling window in a convolutional network
+	 */
+	public static final int POOL_SIZE = 2;
+
 	/**
 	 * Confidence threshold for each letter (should be between 0 and 1)
 	 */
@@ -35,4 +55,9 @@ public class Constants {
 	 * Number of epochs to run through in training
 	 */
 	public static final int DEFAULT_EPOCH_COUNT = 10000;
+
+	/**
+	 * Number of Networks in each generation when training with evolution
+	 */
+	public static final int POPULATION_SIZE = 50;
 }
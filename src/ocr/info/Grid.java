@@ -1,10 +1,20 @@
 package ocr.info;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
  * Representation of a Grid
  *
+ * The cells are stored as a packed bitset in an array of longs, the cell at
+ * (row, col) is bit (row * size + col), so a Grid of up to 8x8 is a single
+ * long (a bitboard) and larger Grids take one bit per cell.
+ * Grids saved with the older boolean[][] representation are still loaded.
+ *
  * @author Jonathan Reimels
  * @version 1.0.0
  */
@@ -14,18 +24,64 @@ public class Grid implements Serializable {
 	 */
 	private static final long serialVersionUID = 5568527630676326642L;
 
+	/**
+	 * Largest size of a Grid that fits in a single long
+	 */
+	public static final int MAX_LONG_SIZE = 8;
+
+	/**
+	 * Fields written when serialized, _grid and _bits are only read from Grids saved by older versions
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = new ObjectStreamField[] {
+		new ObjectStreamField("_grid", boolean[][].class),
+		new ObjectStreamField("_size", int.class),
+		new ObjectStreamField("_bits", long.class),
+		new ObjectStreamField("_words", long[].class)
+	};
+
 	// instance variables
-	private boolean[][] _grid;
+	private long[] _words;
 	private int _size = Constants.GRID_SIZE;
 
 	/**
 	 * Constructor - Set the size of the grid (grids are square, the size of a single side)
 	 * @param size
+	 * @throws IllegalArgumentException - throws an exception if size is less than 1
 	 */
 	public Grid(int size) {
+		checkSize(size);
 		_size = size;
-		_grid = new boolean[_size][_size];
-		clear();
+		_words = new long[wordCount(size)];
+	}
+
+	/**
+	 * Constructor - Set the size of a grid of up to 8x8 and the value of every cell
+	 * @param size - size of a single side
+	 * @param bits - packed cells, the cell at (row, col) is bit (row * size + col)
+	 * @throws IllegalArgumentException - throws an exception if size is not between 1 and MAX_LONG_SIZE
+	 */
+	public Grid(int size, long bits) {
+		this(size, new long[] { bits });
+	}
+
+	/**
+	 * Constructor - Set the size of the grid and the value of every cell
+	 * @param size - size of a single side
+	 * @param words - packed cells, the cell at (row, col) is bit (row * size + col) % 64 of word (row * size + col) / 64
+	 * @throws IllegalArgumentException - throws an exception if size is less than 1 or there is not a word per 64 cells
+	 */
+	public Grid(int size, long[] words) {
+		checkSize(size);
+		if (words.length != wordCount(size)) {
+			throw new IllegalArgumentException(String.format(
+					"Grid created with invalid words, expected %d words for size %d not %d",
+					wordCount(size),
+					size,
+					words.length));
+		}
+		_size = size;
+		_words = words.clone();
+		maskLastWord();
 	}
 
 	/**
@@ -41,18 +97,7 @@ public class Grid implements Serializable {
 	 */
 	@Override
 	public Grid clone() {
-		Grid grid = new Grid(_size);
-		for (int row = 0; row < _size; row++) {
-			for (int col = 0; col < _size; col++) {
-				Coordinate coord = new Coordinate(row, col);
-				try {
-					grid.setValue(coord, _grid[row][col]);
-				} catch (Exception ex) {
-					grid = null;
-				}
-			}
-		}
-		return grid;
+		return new Grid(_size, _words);
 	}
 
 	/**
@@ -62,13 +107,19 @@ public class Grid implements Serializable {
 	 * @throws Exception
 	 */
 	public boolean getValue(Coordinate coord) throws Exception {
-		// check that coordinate is within the grid
-		if (coord.getRow() < 0 || coord.getRow() >= _size || coord.getCol() < 0 || coord.getCol() >= _size) {
-			throw new Exception("Invalid row or col number");
-		}
+		return getValue(coord.getRow(), coord.getCol());
+	}
 
-		// return the value at the coordinate
-		return _grid[coord.getRow()][coord.getCol()];
+	/**
+	 * Get the value of a cell
+	 * @param row - row of the cell
+	 * @param col - column of the cell
+	 * @return boolean value of the cell
+	 * @throws IndexOutOfBoundsException - throws an exception if the cell is not within the grid
+	 */
+	public boolean getValue(int row, int col) {
+		int index = bitIndex(row, col);
+		return (_words[index >>> 6] & (1L << index)) != 0;
 	}
 
 	/**
@@ -78,19 +129,260 @@ public class Grid implements Serializable {
 	 * @throws Exception
 	 */
 	public void setValue(Coordinate coord, boolean value) throws Exception {
-		// set value at coordinate
-		_grid[coord.getRow()][coord.getCol()] = value;
+		setValue(coord.getRow(), coord.getCol(), value);
+	}
+
+	/**
+	 * Set the value of a cell
+	 * @param row - row of the cell
+	 * @param col - column of the cell
+	 * @param value - The boolean value to set
+	 * @throws IndexOutOfBoundsException - throws an exception if the cell is not within the grid
+	 */
+	public void setValue(int row, int col, boolean value) {
+		int index = bitIndex(row, col);
+		if (value) {
+			_words[index >>> 6] |= 1L << index;
+		} else {
+			_words[index >>> 6] &= ~(1L << index);
+		}
 	}
 
 	/**
 	 * Clear all values in grid
 	 */
 	public void clear() {
-		for (int i = 0; i < _size; i++) {
-			for (int j = 0; j < _size; j++) {
-				_grid[i][j] = false;
+		Arrays.fill(_words, 0L);
+	}
+
+	/**
+	 * Get every cell of a grid of up to 8x8 packed into a long, the cell at (row, col) is bit (row * size + col)
+	 * @return packed cells
+	 * @throws IllegalStateException - throws an exception if the grid is larger than 8x8
+	 */
+	public long toLong() {
+		if (_size > MAX_LONG_SIZE) {
+			throw new IllegalStateException(String.format(
+					"toLong called on Grid with invalid size, expected size to be within %d not %d",
+					MAX_LONG_SIZE,
+					_size));
+		}
+		return _words[0];
+	}
+
+	/**
+	 * Get every cell packed into longs, the cell at (row, col) is bit (row * size + col) % 64
+	 * of word (row * size + col) / 64
+	 * @return packed cells
+	 */
+	public long[] toWords() {
+		return _words.clone();
+	}
+
+	/**
+	 * Get the number of cells that are set
+	 * @return set cell count
+	 */
+	public int popCount() {
+		int count = 0;
+		for (long word : _words) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/**
+	 * Get the cells of a row packed into the low bits of a long, column col is bit col
+	 * @param row - row to get
+	 * @return packed row
+	 * @throws IndexOutOfBoundsException - throws an exception if the row is not within the grid
+	 * @throws IllegalStateException - throws an exception if a row is more than 64 cells
+	 */
+	public long getRowBits(int row) {
+		checkIndex(row);
+		if (_size > Long.SIZE) {
+			throw new IllegalStateException(String.format(
+					"getRowBits called on Grid with invalid size, expected size to be within %d not %d",
+					Long.SIZE,
+					_size));
+		}
+
+		// a row can start part way through one word and end in the next
+		int start = row * _size;
+		int shift = start & 63;
+		long bits = _words[start >>> 6] >>> shift;
+		if (shift + _size > Long.SIZE) {
+			bits |= _words[(start >>> 6) + 1] << (Long.SIZE - shift);
+		}
+		return _size == Long.SIZE ? bits : bits & ((1L << _size) - 1);
+	}
+
+	/**
+	 * Get the cells of every row packed into (size + 7) / 8 bytes each, column col is bit (col % 8)
+	 * of the row's byte col / 8
+	 * @return packed rows
+	 */
+	public byte[] toRowBytes() {
+		int rowBytes = (_size + 7) / 8;
+		byte[] bytes = new byte[_size * rowBytes];
+		for (int row = 0; row < _size; row++) {
+			for (int col = 0; col < _size; col++) {
+				if (getValue(row, col)) {
+					bytes[row * rowBytes + col / 8] |= 1 << (col % 8);
+				}
 			}
 		}
+		return bytes;
+	}
+
+	/**
+	 * Fill an array with a value per cell, the cell at (row, col) goes to (row * size + col)
+	 * @param inputs - array to fill, at least size * size long
+	 * @param trueValue - value for cells that are set
+	 * @param falseValue - value for cells that are not set
+	 */
+	public void fillInputs(double[] inputs, double trueValue, double falseValue) {
+		int count = _size * _size;
+		for (int w = 0; w < _words.length; w++) {
+			long bits = _words[w];
+			int end = Math.min(count, (w + 1) * Long.SIZE);
+			for (int i = w * Long.SIZE; i < end; i++) {
+				inputs[i] = (bits & 1L) != 0 ? trueValue : falseValue;
+				bits >>>= 1;
+			}
+		}
+	}
+
+	/**
+	 * Check if another Grid has the same size and values
+	 * @param obj - object to compare to
+	 * @return true if equal
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Grid)) {
+			return false;
+		}
+		Grid grid = (Grid) obj;
+		return grid._size == _size && Arrays.equals(grid._words, _words);
+	}
+
+	/**
+	 * Get a hash of the size and values
+	 * @return hash code
+	 */
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(_words) * 31 + _size;
+	}
+
+	/**
+	 * Get the bit index of a cell
+	 * @param row - row of the cell
+	 * @param col - column of the cell
+	 * @return index of the cell's bit
+	 * @throws IndexOutOfBoundsException - throws an exception if the cell is not within the grid
+	 */
+	private int bitIndex(int row, int col) {
+		checkIndex(row);
+		checkIndex(col);
+		return row * _size + col;
+	}
+
+	/**
+	 * Check that a row or column is within the grid
+	 * @param index - row or column
+	 * @throws IndexOutOfBoundsException - throws an exception if index is not within the grid
+	 */
+	private void checkIndex(int index) {
+		if (index < 0 || index >= _size) {
+			throw new IndexOutOfBoundsException(String.format(
+					"Invalid row or col number, expected it to be within %d not %d",
+					_size,
+					index));
+		}
 	}
-}
 
+	/**
+	 * Clear the bits of the last word that are past the last cell
+	 */
+	private void maskLastWord() {
+		int used = (_size * _size) & 63;
+		if (used != 0) {
+			_words[_words.length - 1] &= (1L << used) - 1;
+		}
+	}
+
+	/**
+	 * Check that a size is valid
+	 * @param size - size of a single side
+	 * @throws IllegalArgumentException - throws an exception if size is less than 1
+	 */
+	private static void checkSize(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException(String.format(
+					"Grid created with invalid size, expected size to be at least 1 not %d",
+					size));
+		}
+	}
+
+	/**
+	 * Get the number of longs needed for a Grid
+	 * @param size - size of a single side
+	 * @return word count
+	 */
+	private static int wordCount(int size) {
+		return (size * size + Long.SIZE - 1) / Long.SIZE;
+	}
+
+	/**
+	 * Write the Grid as its size and packed cells
+	 * @param os - stream to write to
+	 * @throws IOException
+	 */
+	private void writeObject(ObjectOutputStream os) throws IOException {
+		ObjectOutputStream.PutField fields = os.putFields();
+		fields.put("_size", _size);
+		fields.put("_words", _words);
+		os.writeFields();
+	}
+
+	/**
+	 * Read the Grid, converting Grids saved as boolean[][] or a single long to packed cells
+	 * @param is - stream to read from
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	private void readObject(ObjectInputStream is) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = is.readFields();
+		_size = fields.get("_size", Constants.GRID_SIZE);
+		if (_size < 1) {
+			throw new IOException(String.format(
+					"Grid read with invalid size, expected size to be at least 1 not %d",
+					_size));
+		}
+
+		long[] words = (long[]) fields.get("_words", null);
+		boolean[][] grid = (boolean[][]) fields.get("_grid", null);
+		if (words != null) {
+			if (words.length != wordCount(_size)) {
+				throw new IOException(String.format(
+						"Grid read with invalid words, expected %d words for size %d not %d",
+						wordCount(_size),
+						_size,
+						words.length));
+			}
+			_words = words;
+		} else if (grid != null) {
+			_words = new long[wordCount(_size)];
+			for (int row = 0; row < _size; row++) {
+				for (int col = 0; col < _size; col++) {
+					setValue(row, col, grid[row][col]);
+				}
+			}
+		} else {
+			_words = new long[] { fields.get("_bits", 0L) };
+		}
+		maskLastWord();
+	}
+}
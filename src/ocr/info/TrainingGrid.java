@@ -3,7 +3,9 @@ package ocr.info;
 import java.io.Serializable;
 
 /**
- * Container for a Grid and it's expected value when processed through a Neural Net
+ * Container for a Grid and it's expected value when processed through a Neural Net.
+ * A TrainingGrid read from a TrainingSet carries the id of its sample in the set,
+ * ids are not saved with the set.
  *
  * @author Jonathan Reimels
  * @version 1.0.0
@@ -14,9 +16,13 @@ public class TrainingGrid implements Serializable {
 	 */
 	private static final long serialVersionUID = 7962173105892065911L;
 
+	// public constants
+	public static final int NO_ID = 0;
+
 	// instance variables
 	private Grid _grid;
 	private char _value;
+	private transient int _id = NO_ID;
 
 	/**
 	 * Constructor
@@ -33,6 +39,26 @@ public class TrainingGrid implements Serializable {
 		_value = value;
 	}
 
+	/**
+	 * Constructor, set grid, expected value and the id of its sample in a TrainingSet
+	 * @param grid - Grid to set
+	 * @param value - Expected value of grid
+	 * @param id - id of the sample
+	 */
+	public TrainingGrid(Grid grid, char value, int id) {
+		_grid = grid;
+		_value = value;
+		_id = id;
+	}
+
+	/**
+	 * Get the id of the sample in the TrainingSet this was read from
+	 * @return id, NO_ID if it was not read from a TrainingSet
+	 */
+	public int getId() {
+		return _id;
+	}
+
 	/**
 	 * Get the Grid
 	 * @return Grid
@@ -6,9 +6,12 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.JPanel;
 
+import ocr.info.Constants;
 import ocr.info.Coordinate;
 import ocr.info.Grid;
 
@@ -28,11 +31,46 @@ public class GridPanel extends JPanel {
 	private static final Color LETTER_COLOR = Color.DARK_GRAY;
 	private static final Color BACKGROUND_COLOR = Color.WHITE;
 	private static final Color GRID_COLOR = Color.BLACK;
-	private static final int GRID_SIZE = 8;
 
 	// instance variables
-	private Grid _grid = new Grid(GRID_SIZE);
+	private Grid _grid = new Grid(Constants.GRID_SIZE);
 	private Coordinate _coord = new Coordinate();
+	private List<CellListener> _cellListeners = new ArrayList<CellListener>();
+
+	/**
+	 * Interface to implement to be told when the cells of the grid change
+	 */
+	public interface CellListener {
+		/**
+		 * Called when the user flips a single cell
+		 * @param row - row of the cell
+		 * @param col - column of the cell
+		 * @param value - new value of the cell
+		 */
+		void cellFlipped(int row, int col, boolean value);
+
+		/**
+		 * Called when the whole grid is replaced or cleared
+		 * @param grid - copy of the new grid
+		 */
+		void gridChanged(Grid grid);
+	}
+
+	/**
+	 * Add a listener to be told when the cells of the grid change
+	 * @param listener - CellListener to add
+	 */
+	public void addCellListener(CellListener listener) {
+		_cellListeners.add(listener);
+	}
+
+	/**
+	 * Remove a listener added with addCellListener
+	 * @param listener - CellListener to remove
+	 */
+	public void removeCellListener(CellListener listener) {
+		_cellListeners.remove(listener);
+	}
 
 	/**
 	 * Get the grid used by GridPanel
@@ -43,11 +81,30 @@ public class GridPanel extends JPanel {
 	}
 
 	/**
-	 * Set the grid to use
+	 * Get the size of the grid (grids are square, the size of a single side)
+	 * @return size
+	 */
+	public int getGridSize() {
+		return _grid.getSize();
+	}
+
+	/**
+	 * Replace the grid with an empty grid of a new size
+	 * @param size - size of a single side
+	 */
+	public void setGridSize(int size) {
+		_grid = new Grid(size);
+		fireGridChanged();
+		repaint();
+	}
+
+	/**
+	 * Set the grid to use, the panel takes on the size of the grid
 	 * @param grid - the grid to set
 	 */
 	public void setGrid(Grid grid) {
 		_grid = grid.clone();
+		fireGridChanged();
 		repaint();
 	}
 
@@ -56,6 +113,7 @@ public class GridPanel extends JPanel {
 	 */
 	public void clear() {
 		_grid.clear();
+		fireGridChanged();
 		repaint();
 	}
 
@@ -113,7 +171,7 @@ public class GridPanel extends JPanel {
 			for (int row = 0; row < _grid.getSize(); row++) {
 				for (int col = 0; col < _grid.getSize(); col++) {
 					// get appropriate color for NodeType
-					if(_grid.getValue(new Coordinate(row, col))) {
+					if(_grid.getValue(row, col)) {
 						// fill in grid block with selected color
 						g2d.setPaint(LETTER_COLOR);
 						g2d.fill(new Rectangle2D.Double(
@@ -144,11 +202,23 @@ public class GridPanel extends JPanel {
 	private void flipCoord() {
 		try {
 			// flip value at the coordinate
-			_grid.setValue(_coord, !_grid.getValue(_coord));
+			boolean value = !_grid.getValue(_coord.getRow(), _coord.getCol());
+			_grid.setValue(_coord.getRow(), _coord.getCol(), value);
+			for (CellListener listener : _cellListeners) {
+				listener.cellFlipped(_coord.getRow(), _coord.getCol(), value);
+			}
 			repaint();
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
 	}
-}
 
+	/**
+	 * Tell every CellListener the whole grid changed
+	 */
+	private void fireGridChanged() {
+		for (CellListener listener : _cellListeners) {
+			listener.gridChanged(_grid.clone());
+		}
+	}
+}
@@ -30,12 +30,24 @@ import javax.swing.JPanel;
 import javax.swing.JRadioButtonMenuItem;
 import javax.swing.KeyStroke;
 import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
 
-import ocr.data.GridProcessor;
+import ocr.data.EnsembleRecognizer;
+import ocr.data.IncrementalRecognizer;
+import ocr.data.LetterNetworkManager;
 import ocr.data.NetworkManager;
+import ocr.data.OnlineTrainer;
+import ocr.data.PackedTrainingSet;
+import ocr.data.RecognitionCache;
+import ocr.data.Recognizer;
+import ocr.data.TensorCache;
+import ocr.data.TrainingCheckpoint;
+import ocr.data.TrainingCheckpointer;
 import ocr.data.TrainingManager;
 import ocr.data.TrainingSetManager;
+import ocr.data.TrainingSetSnapshot;
 import ocr.info.Constants;
+import ocr.info.Grid;
 import ocr.info.TrainingGrid;
 
 /**
@@ -62,7 +74,13 @@ public class OcrGui {
 	private GridPanel _gridPanel = new GridPanel();
 	private TrainingSetManager _trainingSet = new TrainingSetManager();
 	private NetworkManager _networkManager = new NetworkManager();
+	private LetterNetworkManager _letterNetworks = new LetterNetworkManager();
+	private EnsembleRecognizer _ensemble = new EnsembleRecognizer();
 	private TrainingManager _trainingManager = new TrainingManager();
+	private TensorCache _tensorCache = new TensorCache();
+	private RecognitionCache _recognitionCache = new RecognitionCache();
+	private IncrementalRecognizer _incrementalRecognizer = new IncrementalRecognizer(_networkManager);
+	private OnlineTrainer _onlineTrainer = new OnlineTrainer(_networkManager);
 
 	// frame
 	private JFrame _frame;
@@ -80,14 +98,20 @@ public class OcrGui {
 	private JMenuItem _saveSetMenuItem = new JMenuItem("Save Set");
 	private JMenuItem _saveSetAsMenuItem = new JMenuItem("Save Set As...");
 	private JMenuItem _newNetMenuItem = new JMenuItem("New Network");
+	private JMenuItem _newConvNetMenuItem = new JMenuItem("New Convolutional Network");
 	private JMenuItem _loadNetMenuItem = new JMenuItem("Load Network...");
+	private JMenuItem _loadEnsembleMenuItem = new JMenuItem("Load Ensemble...");
 	private JMenuItem _saveNetMenuItem = new JMenuItem("Save Network");
 	private JMenuItem _saveNetAsMenuItem = new JMenuItem("Save Network As...");
+	private JMenuItem _loadLetterNetsMenuItem = new JMenuItem("Load Letter Networks...");
+	private JMenuItem _saveLetterNetsMenuItem = new JMenuItem("Save Letter Networks");
+	private JMenuItem _saveLetterNetsAsMenuItem = new JMenuItem("Save Letter Networks As...");
 
 	// edit menu items
 	private JMenuItem _addGridMenuItem = new JMenuItem("Add");
 	private JMenuItem _deleteGridMenuItem = new JMenuItem("Delete");
 	private JMenuItem _clearGridMenuItem = new JMenuItem("Clear");
+	private JMenuItem _gridSizeMenuItem = new JMenuItem("Grid Size...");
 
 	// navigate menu items
 	private JMenuItem _leftGridMenuItem = new JMenuItem("Move Left");
@@ -98,6 +122,11 @@ public class OcrGui {
 	// run menu items
 	private JMenuItem _executeMenuItem = new JMenuItem("Execute");
 	private JMenuItem _trainMenuItem = new JMenuItem("Train");
+	private JMenuItem _resumeTrainingMenuItem = new JMenuItem("Resume Training...");
+	private JCheckBoxMenuItem _evolveMenuItem = new JCheckBoxMenuItem("Train with Evolution");
+	private JCheckBoxMenuItem _checkpointMenuItem = new JCheckBoxMenuItem("Checkpoint Training");
+	private JCheckBoxMenuItem _fineTuneMenuItem = new JCheckBoxMenuItem("Fine-Tune on Add");
+	private JCheckBoxMenuItem _recognizeWhileDrawingMenuItem = new JCheckBoxMenuItem("Recognize While Drawing");
 
 	// window menu items
 	private JCheckBoxMenuItem _displayTopMenuItem = new JCheckBoxMenuItem("Top Menu");
@@ -106,6 +135,11 @@ public class OcrGui {
 	// sub menu items
 	private JMenu _expectedOutputMenu = new JMenu("Expected Output");
 	private ButtonGroup _expectedOutputGroup = new ButtonGroup();
+	private JMenu _recognizerMenu = new JMenu("Recognizer");
+	private ButtonGroup _recognizerGroup = new ButtonGroup();
+	private JRadioButtonMenuItem _networkMenuItem = new JRadioButtonMenuItem("Network");
+	private JRadioButtonMenuItem _oneVsRestMenuItem = new JRadioButtonMenuItem("One-vs-Rest Letter Networks");
+	private JRadioButtonMenuItem _ensembleMenuItem = new JRadioButtonMenuItem("Ensemble");
 
 	// top panel
 	private JPanel _topPanel = new JPanel(new BorderLayout());
@@ -125,11 +159,14 @@ public class OcrGui {
 
 	// progress monitor
 	private ProgressMonitor _trainProgress;
+	private String _trainStatus = "";
 
 	/**
 	 * Create the GUI
 	 */
 	public void buildGui() {
+		_networkManager.setRecognitionCache(_recognitionCache);
+
 		// -------------------Frame-------------------
 		_frame = new JFrame("OCR");
 		_frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -151,6 +188,15 @@ public class OcrGui {
 			_expectedOutputMenu.add(item);
 		}
 
+		// create recognizer sub-menu
+		_networkMenuItem.setSelected(true);
+		_recognizerGroup.add(_networkMenuItem);
+		_recognizerGroup.add(_oneVsRestMenuItem);
+		_recognizerGroup.add(_ensembleMenuItem);
+		_recognizerMenu.add(_networkMenuItem);
+		_recognizerMenu.add(_oneVsRestMenuItem);
+		_recognizerMenu.add(_ensembleMenuItem);
+
 		// use Command/Meta key in place of CTRL on mac systems
 		int specialKey = InputEvent.CTRL_DOWN_MASK;
 		if (System.getProperty("os.name").toLowerCase().indexOf("mac") >= 0) {
@@ -205,18 +251,25 @@ public class OcrGui {
 		_saveSetMenuItem.addActionListener(new SaveSetListener());
 		_saveSetAsMenuItem.addActionListener(new SaveSetAsListener());
 		_newNetMenuItem.addActionListener(new NewNetListener());
+		_newConvNetMenuItem.addActionListener(new NewConvNetListener());
 		_loadNetMenuItem.addActionListener(new LoadNetListener());
+		_loadEnsembleMenuItem.addActionListener(new LoadEnsembleListener());
 		_saveNetMenuItem.addActionListener(new SaveNetListener());
 		_saveNetAsMenuItem.addActionListener(new SaveNetAsListener());
+		_loadLetterNetsMenuItem.addActionListener(new LoadLetterNetsListener());
+		_saveLetterNetsMenuItem.addActionListener(new SaveLetterNetsListener());
+		_saveLetterNetsAsMenuItem.addActionListener(new SaveLetterNetsAsListener());
 		_addGridMenuItem.addActionListener(new AddGridListener());
 		_deleteGridMenuItem.addActionListener(new DeleteGridListener());
 		_clearGridMenuItem.addActionListener(new ClearGridListener());
+		_gridSizeMenuItem.addActionListener(new GridSizeListener());
 		_leftGridMenuItem.addActionListener(new LeftGridListener());
 		_rightGridMenuItem.addActionListener(new RightGridListener());
 		_firstGridMenuItem.addActionListener(new FirstGridListener());
 		_lastGridMenuItem.addActionListener(new LastGridListener());
 		_executeMenuItem.addActionListener(new ExecuteListener());
 		_trainMenuItem.addActionListener(new TrainListener());
+		_resumeTrainingMenuItem.addActionListener(new ResumeTrainingListener());
 		_displayTopMenuItem.addActionListener(new DisplayTopPanelListener ());
 		_displayBottomMenuItem.addActionListener(new DisplayBottomPanelListener());
 		_expectedOutputList.addActionListener(new SelectOutputListener());
@@ -233,6 +286,7 @@ public class OcrGui {
 		_firstGridMenuItem.setEnabled(false);
 		_lastGridMenuItem.setEnabled(false);
 		_trainMenuItem.setEnabled(false);
+		_resumeTrainingMenuItem.setEnabled(false);
 
 		// add file menu items
 		_fileMenu.add(_newSetMenuItem);
@@ -241,9 +295,15 @@ public class OcrGui {
 		_fileMenu.add(_saveSetAsMenuItem);
 		_fileMenu.addSeparator();
 		_fileMenu.add(_newNetMenuItem);
+		_fileMenu.add(_newConvNetMenuItem);
 		_fileMenu.add(_loadNetMenuItem);
+		_fileMenu.add(_loadEnsembleMenuItem);
 		_fileMenu.add(_saveNetMenuItem);
 		_fileMenu.add(_saveNetAsMenuItem);
+		_fileMenu.addSeparator();
+		_fileMenu.add(_loadLetterNetsMenuItem);
+		_fileMenu.add(_saveLetterNetsMenuItem);
+		_fileMenu.add(_saveLetterNetsAsMenuItem);
 
 		// add edit menu items
 		_editMenu.add(_addGridMenuItem);
@@ -252,6 +312,7 @@ public class OcrGui {
 		_editMenu.add(_expectedOutputMenu);
 		_editMenu.addSeparator();
 		_editMenu.add(_clearGridMenuItem);
+		_editMenu.add(_gridSizeMenuItem);
 
 		// add navigate menu items
 		_navigateMenu.add(_leftGridMenuItem);
@@ -263,6 +324,13 @@ public class OcrGui {
 		// add run menu items
 		_runMenu.add(_executeMenuItem);
 		_runMenu.add(_trainMenuItem);
+		_runMenu.add(_resumeTrainingMenuItem);
+		_runMenu.addSeparator();
+		_runMenu.add(_evolveMenuItem);
+		_runMenu.add(_checkpointMenuItem);
+		_runMenu.add(_fineTuneMenuItem);
+		_runMenu.add(_recognizeWhileDrawingMenuItem);
+		_runMenu.add(_recognizerMenu);
 
 		// add window menu items
 		_windowMenu.add(_displayTopMenuItem);
@@ -321,6 +389,7 @@ public class OcrGui {
 		// add listeners
 		_gridPanel.addMouseListener(new UserInputListener());
 		_gridPanel.addMouseMotionListener(new UserInputListener());
+		_gridPanel.addCellListener(new DrawingListener());
 
 		// add to background
 		background.add(_gridPanel, BorderLayout.CENTER);
@@ -382,7 +451,8 @@ public class OcrGui {
 					}
 				}
 
-				_trainingSet = new TrainingSetManager();
+				_trainingSet.clear();
+				_trainingSet.setGridSize(_gridPanel.getGridSize());
 				_index = 0;
 				setTrainingGrid(null);
 			} catch (Exception ex) {
@@ -415,12 +485,15 @@ public class OcrGui {
 				}
 				JFileChooser fileOpen = new JFileChooser(f);
 				fileOpen.addChoosableFileFilter(new FileTypeFilter(".ts", "Training Set"));
+				fileOpen.addChoosableFileFilter(new FileTypeFilter(PackedTrainingSet.EXTENSION, "Packed Training Set"));
 
 				if (JFileChooser.APPROVE_OPTION != fileOpen.showOpenDialog(_frame)) {
 					return;
 				}
 
 				_trainingSet.load(fileOpen.getSelectedFile());
+				_gridPanel.setGridSize(_trainingSet.getGridSize());
+				matchNetworkSize();
 				_index = 0;
 
 				if (_trainingSet.getCount() > 0) {
@@ -467,6 +540,7 @@ public class OcrGui {
 				}
 				JFileChooser fileSave = new JFileChooser(f);
 				fileSave.addChoosableFileFilter(new FileTypeFilter(".ts", "Training Set"));
+				fileSave.addChoosableFileFilter(new FileTypeFilter(PackedTrainingSet.EXTENSION, "Packed Training Set"));
 
 				if (JFileChooser.APPROVE_OPTION != fileSave.showSaveDialog(_frame)) {
 					return;
@@ -486,7 +560,24 @@ public class OcrGui {
 		@Override
 		public void actionPerformed(ActionEvent a) {
 			try {
-				_networkManager = new NetworkManager();
+				_networkManager = new NetworkManager(_trainingSet.getGridSize());
+				_networkManager.setRecognitionCache(_recognitionCache);
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Create a new Network with a convolutional layer
+	 */
+	private class NewConvNetListener implements ActionListener {
+		@Override
+		public void actionPerformed(ActionEvent a) {
+			try {
+				_networkManager = new NetworkManager(_trainingSet.getGridSize(),
+						Constants.KERNEL_COUNT, Constants.KERNEL_SIZE, Constants.POOL_SIZE);
+				_networkManager.setRecognitionCache(_recognitionCache);
 			} catch (Exception ex) {
 				ex.printStackTrace();
 			}
@@ -511,6 +602,34 @@ public class OcrGui {
 				}
 
 				_networkManager = new NetworkManager(fileOpen.getSelectedFile());
+				_networkManager.setRecognitionCache(_recognitionCache);
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Load several saved Networks into an ensemble
+	 */
+	private class LoadEnsembleListener implements ActionListener {
+		@Override
+		public void actionPerformed(ActionEvent a) {
+			try {
+				File f = new File(Constants.DEFAULT_DIR);
+				if (!f.exists()) {
+					f = new File(Constants.BACKUP_DIR);
+				}
+				JFileChooser fileOpen = new JFileChooser(f);
+				fileOpen.setMultiSelectionEnabled(true);
+				fileOpen.addChoosableFileFilter(new FileTypeFilter(".nn", "Artificial Neural Network"));
+				if (JFileChooser.APPROVE_OPTION != fileOpen.showOpenDialog(_frame)) {
+					return;
+				}
+
+				_ensemble.shutdown();
+				_ensemble = new EnsembleRecognizer(fileOpen.getSelectedFiles());
+				_ensembleMenuItem.setSelected(true);
 			} catch (Exception ex) {
 				ex.printStackTrace();
 			}
@@ -561,6 +680,75 @@ public class OcrGui {
 		}
 	}
 
+	/**
+	 * Load saved one-vs-rest letter Networks
+	 */
+	private class LoadLetterNetsListener implements ActionListener {
+		@Override
+		public void actionPerformed(ActionEvent a) {
+			try {
+				File f = new File(Constants.DEFAULT_DIR);
+				if (!f.exists()) {
+					f = new File(Constants.BACKUP_DIR);
+				}
+				JFileChooser fileOpen = new JFileChooser(f);
+				fileOpen.addChoosableFileFilter(new FileTypeFilter(LetterNetworkManager.EXTENSION, "One-vs-Rest Letter Networks"));
+				if (JFileChooser.APPROVE_OPTION != fileOpen.showOpenDialog(_frame)) {
+					return;
+				}
+
+				_letterNetworks = new LetterNetworkManager(fileOpen.getSelectedFile());
+				_oneVsRestMenuItem.setSelected(true);
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Save the one-vs-rest letter Networks to an existing File
+	 */
+	private class SaveLetterNetsListener implements ActionListener {
+		@Override
+		public void actionPerformed(ActionEvent a) {
+			try {
+				if (!_letterNetworks.isFileSet()) {
+					SaveLetterNetsAsListener saveNets = new SaveLetterNetsAsListener();
+					saveNets.actionPerformed(null);
+				} else {
+					_letterNetworks.save();
+				}
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Save the one-vs-rest letter Networks to a new File
+	 */
+	private class SaveLetterNetsAsListener implements ActionListener {
+		@Override
+		public void actionPerformed(ActionEvent a) {
+			try {
+				File f = new File(Constants.DEFAULT_DIR);
+				if (!f.exists()) {
+					f = new File(Constants.BACKUP_DIR);
+				}
+				JFileChooser fileSave = new JFileChooser(f);
+				fileSave.addChoosableFileFilter(new FileTypeFilter(LetterNetworkManager.EXTENSION, "One-vs-Rest Letter Networks"));
+
+				if (JFileChooser.APPROVE_OPTION != fileSave.showSaveDialog(_frame)) {
+					return;
+				}
+
+				_letterNetworks.saveAs(fileSave.getSelectedFile());
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
 	/**
 	 * Add the grid to the training set
 	 */
@@ -568,8 +756,26 @@ public class OcrGui {
 		@Override
 		public void actionPerformed(ActionEvent a) {
 			try {
-				_trainingSet.add(new TrainingGrid(_gridPanel.getGrid(), _expectedOutput));
+				int duplicate = _trainingSet.findDuplicate(_gridPanel.getGrid());
+				if (duplicate != TrainingSetManager.NO_INDEX) {
+					int confirm = confirmQuestion(String.format(
+							"This image is already in the set as '%c' (image %d). Would you like to add it again?",
+							_trainingSet.getGrid(duplicate).getValue(),
+							duplicate + 1));
+					if (confirm != JOptionPane.YES_OPTION) {
+						return;
+					}
+				}
+
+				TrainingGrid trainingGrid = new TrainingGrid(_gridPanel.getGrid(), _expectedOutput);
+				_trainingSet.add(trainingGrid);
 				_index = _trainingSet.getCount();
+
+				// learn the new grid in the background, replaying the rest of the set
+				if (_fineTuneMenuItem.isSelected() && _networkMenuItem.isSelected()) {
+					_onlineTrainer.setNetworkManager(_networkManager);
+					_onlineTrainer.add(trainingGrid, _trainingSet.snapshot());
+				}
 				setTrainingGrid(null);
 			} catch (Exception ex) {
 				ex.printStackTrace();
@@ -586,8 +792,9 @@ public class OcrGui {
 			try {
 				_trainingSet.remove(_currentTrainGrid);
 
+				// the next image moves into the deleted image's place
 				if (_trainingSet.getCount() > 0) {
-					if (_index > 0) { _index--; }
+					if (_index >= _trainingSet.getCount()) { _index = _trainingSet.getCount() - 1; }
 					setTrainingGrid(_trainingSet.getGrid(_index));
 				} else {
 					_index = 0;
@@ -609,6 +816,39 @@ public class OcrGui {
 		}
 	}
 
+	/**
+	 * Change the size of the Grid, only while the Training Set is empty
+	 */
+	private class GridSizeListener implements ActionListener {
+		@Override
+		public void actionPerformed(ActionEvent a) {
+			try {
+				if (_trainingSet.getCount() > 0) {
+					JOptionPane.showConfirmDialog(
+							_frame,
+							"The grid size can only be changed while the set is empty!",
+							_frame.getTitle(),
+							JOptionPane.OK_OPTION,
+							JOptionPane.WARNING_MESSAGE);
+					return;
+				}
+
+				Integer size = promptPositiveInteger("Size of a side of the grid?");
+				if (size == null || size < 1) {
+					return;
+				}
+
+				_trainingSet.setGridSize(size);
+				_gridPanel.setGridSize(size);
+				matchNetworkSize();
+				_index = 0;
+				setTrainingGrid(null);
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
 	/**
 	 * Move left through the current Training Set
 	 */
@@ -712,7 +952,13 @@ public class OcrGui {
 		@Override
 		public void actionPerformed(ActionEvent a) {
 			try {
-				char result = GridProcessor.process(_gridPanel.getGrid(), _networkManager.getNetwork());
+				Recognizer recognizer = _networkManager;
+				if (_oneVsRestMenuItem.isSelected()) {
+					recognizer = _letterNetworks;
+				} else if (_ensembleMenuItem.isSelected()) {
+					recognizer = _ensemble;
+				}
+				char result = recognizer.process(_gridPanel.getGrid());
 				_resultLabel.setText(String.format(RESULT_LABEL, result));
 			} catch (Exception ex) {
 				ex.printStackTrace();
@@ -727,27 +973,94 @@ public class OcrGui {
 		@Override
 		public void actionPerformed(ActionEvent a) {
 			try {
+				int gridSize = _oneVsRestMenuItem.isSelected() ? _letterNetworks.getGridSize() : _networkManager.getGridSize();
+				if (!checkNetworkSize(gridSize)) {
+					return;
+				}
+
+				TrainingSetSnapshot snapshot = _trainingSet.snapshot();
 				_trainingManager = new TrainingManager();
 				_trainingManager.setLearningRate(0.7);
-				_trainingManager.setNetwork(_networkManager.getNetwork());
-				_trainingManager.setTrainingSet(_trainingSet);
+				_trainingManager.setTrainingSet(snapshot);
+				_trainingManager.setTensorCache(_tensorCache);
+				if (_evolveMenuItem.isSelected()) {
+					_trainingManager.setMethod(TrainingManager.Method.EVOLUTION);
+				}
+				if (_oneVsRestMenuItem.isSelected()) {
+					// only the letters whose own samples changed since they were last trained are filled in
+					String changed = _letterNetworks.getChangedLetters(snapshot);
+					String letters = promptLetters(changed.isEmpty()
+							? "No letter's own samples changed since it was last trained. Letters to retrain?"
+							: "Letters to retrain? (the letters whose own samples changed are filled in)", changed);
+					if (letters == null || letters.isEmpty()) {
+						return;
+					}
+					_trainingManager.setLetterNetworks(_letterNetworks, letters);
+				}
 
 				Integer epochCount = promptPositiveInteger("Number of Epochs to run?");
 				if (epochCount == null) {
 					return;
 				}
+				if (!_oneVsRestMenuItem.isSelected()) {
+					_trainingManager.setNetworkManager(_networkManager);
+				}
+
+				if (_checkpointMenuItem.isSelected() && !_oneVsRestMenuItem.isSelected()) {
+					File f = new File(Constants.DEFAULT_DIR);
+					if (!f.exists()) {
+						f = new File(Constants.BACKUP_DIR);
+					}
+					JFileChooser fileSave = new JFileChooser(f);
+					fileSave.addChoosableFileFilter(new FileTypeFilter(TrainingCheckpoint.EXTENSION, "Training Checkpoint"));
+					if (JFileChooser.APPROVE_OPTION != fileSave.showSaveDialog(_frame)) {
+						return;
+					}
+					_trainingManager.setCheckpointer(new TrainingCheckpointer(fileSave.getSelectedFile()));
+				}
 
 				_trainingManager.setEpochCount(epochCount);
-				_trainProgress = new ProgressMonitor(
-						_frame,
-						"Training...",
-						"",
-						0,
-						100);
-				_frame.setEnabled(false);
-				_trainProgress.setProgress(0);
-				_trainingManager.addPropertyChangeListener(new TrainingProgressListener());
-				_trainingManager.execute();
+				startTraining();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Resume training the Network from a checkpoint, the Network of the checkpoint replaces
+	 * the Network and training carries on checkpointing to the same file
+	 */
+	private class ResumeTrainingListener implements ActionListener {
+		@Override
+		public void actionPerformed(ActionEvent a) {
+			try {
+				File f = new File(Constants.DEFAULT_DIR);
+				if (!f.exists()) {
+					f = new File(Constants.BACKUP_DIR);
+				}
+				JFileChooser fileOpen = new JFileChooser(f);
+				fileOpen.addChoosableFileFilter(new FileTypeFilter(TrainingCheckpoint.EXTENSION, "Training Checkpoint"));
+				if (JFileChooser.APPROVE_OPTION != fileOpen.showOpenDialog(_frame)) {
+					return;
+				}
+
+				File file = fileOpen.getSelectedFile();
+				TrainingCheckpoint checkpoint = TrainingCheckpoint.load(file);
+				NetworkManager networkManager = new NetworkManager(checkpoint.getNetwork());
+				if (!checkNetworkSize(networkManager.getGridSize())) {
+					return;
+				}
+				_networkManager = networkManager;
+				_networkManager.setRecognitionCache(_recognitionCache);
+
+				_trainingManager = new TrainingManager();
+				_trainingManager.resume(checkpoint);
+				_trainingManager.setNetworkManager(_networkManager);
+				_trainingManager.setTrainingSet(_trainingSet);
+				_trainingManager.setTensorCache(_tensorCache);
+				_trainingManager.setCheckpointer(new TrainingCheckpointer(file));
+				startTraining();
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
@@ -760,17 +1073,22 @@ public class OcrGui {
 	private class TrainingProgressListener implements PropertyChangeListener {
 		@Override
 		public void propertyChange(PropertyChangeEvent e) {
+			if (TrainingManager.STATUS_PROPERTY == e.getPropertyName()) {
+				_trainStatus = (String) e.getNewValue();
+			}
 			if ("progress" == e.getPropertyName() ) {
 				int progress = (Integer) e.getNewValue();
 				_trainProgress.setProgress(progress);
-				String message = String.format("Completed %d%%\n", progress);
+				String message = String.format("Completed %d%% %s\n", progress, _trainStatus);
 				_trainProgress.setNote(message);
 				if (_trainProgress.isCanceled()) {
 					_trainingManager.cancel(true);
 				}
-				if (_trainingManager.isDone()) {
-					_frame.setEnabled(true);
-				}
+			}
+			if ("state" == e.getPropertyName() && SwingWorker.StateValue.DONE == e.getNewValue()) {
+				// a run that fails before its first epoch never reports progress
+				_trainProgress.close();
+				_frame.setEnabled(true);
 			}
 		}
 	}
@@ -831,6 +1149,64 @@ public class OcrGui {
 		public void mouseMoved(MouseEvent e) {}
 	}
 
+	/**
+	 * Keep the IncrementalRecognizer in step with the Grid being drawn, and show what the
+	 * Network recognizes after every cell flipped when Recognize While Drawing is selected
+	 */
+	private class DrawingListener implements GridPanel.CellListener {
+		@Override
+		public void cellFlipped(int row, int col, boolean value) {
+			try {
+				if (_gridPanel.getGridSize() != _networkManager.getGridSize()) {
+					return;
+				}
+
+				// a new Network has not seen the Grid yet, otherwise only the one cell changed
+				if (_incrementalRecognizer.getNetworkManager() != _networkManager) {
+					_incrementalRecognizer.setNetworkManager(_networkManager);
+					_incrementalRecognizer.setGrid(_gridPanel.getGrid());
+				} else {
+					_incrementalRecognizer.setValue(row, col, value);
+				}
+				if (_recognizeWhileDrawingMenuItem.isSelected() && _networkMenuItem.isSelected()) {
+					char result = _incrementalRecognizer.recognize();
+					_resultLabel.setText(String.format(RESULT_LABEL, result));
+				}
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		@Override
+		public void gridChanged(Grid grid) {
+			try {
+				_incrementalRecognizer.setNetworkManager(_networkManager);
+				if (grid.getSize() == _networkManager.getGridSize()) {
+					_incrementalRecognizer.setGrid(grid);
+				}
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Run the TrainingManager, showing its progress and disabling the frame until it is done
+	 */
+	private void startTraining() {
+		_trainProgress = new ProgressMonitor(
+				_frame,
+				"Training...",
+				"",
+				0,
+				100);
+		_frame.setEnabled(false);
+		_trainProgress.setProgress(0);
+		_trainStatus = "";
+		_trainingManager.addPropertyChangeListener(new TrainingProgressListener());
+		_trainingManager.execute();
+	}
+
 	/**
 	 * Set the Expected Output lists
 	 * @param c - Character to set the lists to
@@ -879,6 +1255,42 @@ public class OcrGui {
 				JOptionPane.QUESTION_MESSAGE);
 	}
 
+	/**
+	 * Replace the Network and the letter Networks with new ones for the Training Set's grid size,
+	 * if they process Grids of another size
+	 * @throws Exception
+	 */
+	private void matchNetworkSize() throws Exception {
+		int size = _trainingSet.getGridSize();
+		if (_networkManager.getGridSize() != size) {
+			_networkManager = new NetworkManager(size);
+			_networkManager.setRecognitionCache(_recognitionCache);
+		}
+		if (_letterNetworks.getGridSize() != size) {
+			_letterNetworks = new LetterNetworkManager(size);
+		}
+	}
+
+	/**
+	 * Check that a Network processes Grids the size of the Training Set's, warning the user if not
+	 * @param gridSize - size of a side of the Grids the Network processes
+	 * @return true if the sizes match
+	 */
+	private boolean checkNetworkSize(int gridSize) {
+		if (gridSize == _trainingSet.getGridSize()) {
+			return true;
+		}
+
+		JOptionPane.showConfirmDialog(
+				_frame,
+				String.format("The network processes %dx%d grids but the set has %dx%d grids!",
+						gridSize, gridSize, _trainingSet.getGridSize(), _trainingSet.getGridSize()),
+				_frame.getTitle(),
+				JOptionPane.OK_OPTION,
+				JOptionPane.WARNING_MESSAGE);
+		return false;
+	}
+
 	/**
 	 * Use a dialog to prompt for a positive Integer from the user
 	 * @param message - message to display to user
@@ -917,6 +1329,50 @@ public class OcrGui {
 		return result;
 	}
 
+	/**
+	 * Use a dialog to prompt for a set of capital letters from the user, spaces and commas
+	 * between them are ignored
+	 * @param message - message to display to user
+	 * @param letters - letters to fill in
+	 * @return letters input by user, in capitals, null for cancel
+	 */
+	private String promptLetters(String message, String letters) {
+		while (true) {
+			Object s = JOptionPane.showInputDialog(
+					_frame,
+					message,
+					_frame.getTitle(),
+					JOptionPane.QUESTION_MESSAGE,
+					null,
+					null,
+					letters);
+			if (s == null) {
+				return null;
+			}
+
+			StringBuilder result = new StringBuilder();
+			boolean valid = true;
+			for (char c : s.toString().toUpperCase().toCharArray()) {
+				if (c >= 'A' && c < 'A' + LetterNetworkManager.LETTER_COUNT) {
+					if (result.indexOf(String.valueOf(c)) < 0) {
+						result.append(c);
+					}
+				} else if (c != ' ' && c != ',') {
+					valid = false;
+				}
+			}
+			if (valid) {
+				return result.toString();
+			}
+
+			JOptionPane.showMessageDialog(
+					_frame,
+					"Invalid Input!",
+					_frame.getTitle(),
+					JOptionPane.OK_OPTION);
+		}
+	}
+
 	/**
 	 * Enable and Disable appropriate buttons
 	 */
@@ -925,10 +1381,12 @@ public class OcrGui {
 			_saveSetMenuItem.setEnabled(true);
 			_saveSetAsMenuItem.setEnabled(true);
 			_trainMenuItem.setEnabled(true);
+			_resumeTrainingMenuItem.setEnabled(true);
 		} else {
 			_saveSetMenuItem.setEnabled(false);
 			_saveSetAsMenuItem.setEnabled(false);
 			_trainMenuItem.setEnabled(false);
+			_resumeTrainingMenuItem.setEnabled(false);
 		}
 
 		if (_currentTrainGrid == null) {